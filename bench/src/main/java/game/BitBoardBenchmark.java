@@ -0,0 +1,82 @@
+package game;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the win and full-board checks of the game-state engine, on the classic
+ * board and on a 15x15 board with five in a row.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BitBoardBenchmark {
+    private int[] masks = new int[1024];
+    private int next;
+    private BitBoard board = new BitBoard();
+    private BitBoard large = new BitBoard(15, 5);
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = random.nextInt(BitBoard.FULL + 1);
+        }
+    }
+
+    /**
+     * Checks a mask for a complete line.
+     *
+     * @return whether the mask wins
+     */
+    @Benchmark
+    public boolean isWin() {
+        next = (next + 1) & (masks.length - 1);
+        return BitBoard.isWin(masks[next]);
+    }
+
+    /**
+     * Plays a drawn game with the win and full-board check of every move, then resets.
+     *
+     * @param blackhole the sink of the move results
+     */
+    @Benchmark
+    @OperationsPerInvocation(9)
+    public void drawnGame(Blackhole blackhole) {
+        board.reset();
+        blackhole.consume(board.move(1, 0));
+        blackhole.consume(board.move(2, 1));
+        blackhole.consume(board.move(1, 2));
+        blackhole.consume(board.move(2, 4));
+        blackhole.consume(board.move(1, 3));
+        blackhole.consume(board.move(2, 5));
+        blackhole.consume(board.move(1, 7));
+        blackhole.consume(board.move(2, 6));
+        blackhole.consume(board.move(1, 8));
+    }
+
+    /**
+     * Plays a game won with five in a row on a 15x15 board with the incremental win
+     * check of every move, then resets.
+     *
+     * @param blackhole the sink of the move results
+     */
+    @Benchmark
+    @OperationsPerInvocation(9)
+    public void fiveInARowGame(Blackhole blackhole) {
+        large.reset();
+        blackhole.consume(large.move(1, 7 * 15 + 3));
+        blackhole.consume(large.move(2, 0));
+        blackhole.consume(large.move(1, 7 * 15 + 4));
+        blackhole.consume(large.move(2, 2));
+        blackhole.consume(large.move(1, 7 * 15 + 5));
+        blackhole.consume(large.move(2, 4));
+        blackhole.consume(large.move(1, 7 * 15 + 6));
+        blackhole.consume(large.move(2, 6));
+        blackhole.consume(large.move(1, 7 * 15 + 7));
+    }
+}
@@ -0,0 +1,122 @@
+package game;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the cost of painting a {@link BoardPanel} as the board grows, into an image
+ * of the size of a typical window, with marks on half of the cells. A full frame, as
+ * after a resize, is compared with the previous painting, which drew a rectangle and a
+ * shape per cell, and with the repaint of the single cell of a move.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class BoardRenderBenchmark {
+    private static final int EXTENT = 600;
+
+    @Param({"3", "9", "15", "19"})
+    public int size;
+
+    private BoardPanel panel;
+    private BufferedImage image;
+    private Graphics2D g2d;
+    private int cellSize;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BitBoard board = new BitBoard(size, Math.min(size, 5));
+        int[] cells = new int[board.getCells()];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = i;
+        }
+        Random random = new Random(42);
+        for (int i = cells.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int cell = cells[i];
+            cells[i] = cells[j];
+            cells[j] = cell;
+        }
+        // Moves are only refused out of turn, so the marks stay even after a line.
+        for (int i = 0; i < cells.length / 2; i++) {
+            board.move(board.getTurn(), cells[i]);
+        }
+
+        panel = new BoardPanel(board);
+        panel.setSize(EXTENT, EXTENT);
+        panel.setBoard(board);
+        cellSize = panel.getCellSize();
+        image = new BufferedImage(EXTENT, EXTENT, BufferedImage.TYPE_INT_RGB);
+        g2d = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    /**
+     * Paints the whole board from the cached sprites.
+     *
+     * @return the image
+     */
+    @Benchmark
+    public BufferedImage fullFrame() {
+        g2d.setClip(0, 0, EXTENT, EXTENT);
+        panel.paintComponent(g2d);
+        return image;
+    }
+
+    /**
+     * Paints one cell, as the dirty region of a move, cycling through the cells.
+     *
+     * @return the image
+     */
+    @Benchmark
+    public BufferedImage dirtyCell() {
+        next = (next + 1) % (size * size);
+        g2d.setClip((next % size) * cellSize, (next / size) * cellSize, cellSize + 1, cellSize + 1);
+        panel.paintComponent(g2d);
+        return image;
+    }
+
+    /**
+     * Paints the whole board as before, a rectangle and a shape per cell, with the cell
+     * size computed while painting.
+     *
+     * @return the image
+     */
+    @Benchmark
+    public BufferedImage vectorFrame() {
+        g2d.setClip(0, 0, EXTENT, EXTENT);
+        BitBoard board = panel.getBoard();
+        int cellSize = Math.min(EXTENT, EXTENT) / size;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int x = col * cellSize;
+                int y = row * cellSize;
+                g2d.setColor(Color.WHITE);
+                g2d.fillRect(x, y, cellSize, cellSize);
+                g2d.setColor(Color.BLACK);
+                g2d.drawRect(x, y, cellSize, cellSize);
+
+                int value = board.get(row, col);
+                if (value == 1) {
+                    g2d.setColor(Color.GREEN);
+                    g2d.drawLine(x, y, x + cellSize, y + cellSize);
+                    g2d.drawLine(x + cellSize, y, x, y + cellSize);
+                } else if (value == 2) {
+                    g2d.setColor(Color.RED);
+                    g2d.drawOval(x, y, cellSize, cellSize);
+                }
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,74 @@
+package game;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks how the client reads and decodes the messages of the server,
+ * with the decoding of GameClient, without the network and the listener.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientBenchmark {
+    private static final int MESSAGES = 64;
+
+    private ByteArrayInputStream text;
+    private ByteArrayInputStream frames;
+    private int[] message = new int[3];
+    private byte[] frame = new byte[Protocol.FRAME_SIZE];
+
+    @Setup
+    public void setUp() {
+        ByteArrayOutputStream textBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream frameBytes = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES; i++) {
+            int player = 1 + (i & 1);
+            int cell = i % BitBoard.CELLS;
+            String line = Protocol.toText(Protocol.MOVE, player, cell / 3, cell % 3) + "\n";
+            textBytes.writeBytes(line.getBytes());
+            Protocol.putFrame(frame, Protocol.MOVE, player, cell / 3, cell % 3);
+            frameBytes.writeBytes(frame);
+        }
+        text = new ByteArrayInputStream(textBytes.toByteArray());
+        frames = new ByteArrayInputStream(frameBytes.toByteArray());
+    }
+
+    /**
+     * Reads and decodes a batch of text MOVE lines.
+     *
+     * @param blackhole the sink of the decoded messages
+     * @throws IOException never, the stream is in memory
+     */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void readText(Blackhole blackhole) throws IOException {
+        text.reset();
+        String line;
+        while ((line = Protocol.readLine(text)) != null) {
+            blackhole.consume(GameClient.decode(line, message));
+            blackhole.consume(message[1] * 3 + message[2]);
+        }
+    }
+
+    /**
+     * Reads and decodes a batch of binary MOVE frames.
+     *
+     * @param blackhole the sink of the decoded messages
+     * @throws IOException never, the stream is in memory
+     */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void readFrames(Blackhole blackhole) throws IOException {
+        frames.reset();
+        while (Protocol.readFrame(frames, frame)) {
+            blackhole.consume(Protocol.opcode(frame[0]));
+            blackhole.consume(Protocol.player(frame[0]));
+            blackhole.consume(Protocol.arg(frame[1]) * 3 + Protocol.arg(frame[2]));
+        }
+    }
+}
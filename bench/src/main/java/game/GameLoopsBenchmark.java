@@ -0,0 +1,82 @@
+package game;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how many games the server plays when several threads, each the reader of the
+ * two players of its own match, hand their moves to a number of {@link GameLoops}. Every
+ * operation dispatches a drawn game and waits until the loop of the match has applied it,
+ * so the handoff to the loop is part of the cost. With one core per loop and per thread,
+ * the games per second grow with the number of loops.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class GameLoopsBenchmark {
+    /**
+     * The cells of a drawn game, in the order they are played.
+     */
+    private static final int[] DRAWN_GAME = {0, 1, 2, 4, 3, 5, 7, 6, 8};
+
+    @Param({"1", "2", "4"})
+    public int loops;
+
+    private GameLoops gameLoops;
+    private GameServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        gameLoops = new GameLoops("bench-loop", loops);
+        server = new GameServer(gameLoops);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        gameLoops.close();
+    }
+
+    /**
+     * The two players of the match of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Players {
+        SinkConnection[] players;
+        Match match;
+
+        @Setup(Level.Trial)
+        public void setUp(GameLoopsBenchmark benchmark) {
+            players = new SinkConnection[] {new SinkConnection(), new SinkConnection()};
+            // Both players are queued at once, so they are paired with each other.
+            synchronized (benchmark) {
+                for (SinkConnection player : players) {
+                    benchmark.server.connect(player);
+                    player.switchToBinary();
+                }
+            }
+            match = players[0].getMatch();
+        }
+    }
+
+    /**
+     * Dispatches the moves of a drawn game and waits for the loop of the match to apply them.
+     *
+     * @param players the players of the thread
+     * @return the number of bytes sent to the players so far
+     */
+    @Benchmark
+    public long playGame(Players players) {
+        for (int i = 0; i < DRAWN_GAME.length; i++) {
+            int cell = DRAWN_GAME[i];
+            server.dispatch(players.players[i & 1], Protocol.MOVE, cell / 3, cell % 3);
+        }
+        CompletableFuture<Void> applied = new CompletableFuture<>();
+        players.match.execute(() -> applied.complete(null));
+        applied.join();
+        return players.players[0].getWritten();
+    }
+}
@@ -0,0 +1,34 @@
+package game;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the cost the metrics add to every move: counting it and recording its
+ * latency, from several threads at once as the transports do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class GameServerMetricsBenchmark {
+    private GameServerMetrics metrics = new GameServerMetrics();
+
+    /**
+     * Records one applied move.
+     */
+    @Benchmark
+    public void moveApplied() {
+        metrics.moveApplied(System.nanoTime() - 1000);
+    }
+
+    /**
+     * Counts one finished game.
+     */
+    @Benchmark
+    public void gameFinished() {
+        metrics.gameFinished(Protocol.WIN);
+    }
+}
@@ -0,0 +1,70 @@
+package game;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures what the {@link Gateway} does once per client to route it: finding the node
+ * of a match id in the {@link NodeList}, finding the node of a ticket on the
+ * {@link ConsistentHashRing}, and reading the first commands of a new player.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GatewayBenchmark {
+    private static final byte[] NEW_PLAYER = "NAME bench\nBOARD 3 3\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"3", "16"})
+    public int nodes;
+
+    private NodeList list;
+    private ConsistentHashRing<String> ring;
+    private Gateway gateway;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<NodeList.Node> names = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            names.add(new NodeList.Node("localhost:" + (58911 + i), i));
+        }
+        list = new NodeList(names, new ConsistentHashRing<>());
+        ring = list.getRing();
+        gateway = new Gateway(null, list, 1);
+    }
+
+    /**
+     * Finds the node of a ticket.
+     *
+     * @return the node
+     */
+    @Benchmark
+    public String nodeFor() {
+        return ring.nodeFor(next++);
+    }
+
+    /**
+     * Finds the node which opened a match.
+     *
+     * @return the node
+     */
+    @Benchmark
+    public String nodeOf() {
+        return list.nodeOf(next++);
+    }
+
+    /**
+     * Reads the greeting of a new player and finds the node of a fresh ticket.
+     *
+     * @return the node
+     */
+    @Benchmark
+    public String routeNewPlayer() {
+        return ring.nodeFor(gateway.keyOf(NEW_PLAYER, NEW_PLAYER.length, false) + next++);
+    }
+}
@@ -0,0 +1,68 @@
+package game;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares scheduling and cancelling a timeout on a {@link HashedWheelTimer} and on a
+ * {@link ScheduledThreadPoolExecutor}, while many other timeouts are pending, as when
+ * every connection and match of a busy server has one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashedWheelTimerBenchmark {
+    private static final Runnable NOTHING = () -> { };
+
+    @Param({"1000", "100000"})
+    public int pending;
+
+    private HashedWheelTimer wheel;
+    private ScheduledThreadPoolExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wheel = new HashedWheelTimer("bench-wheel", HashedWheelTimer.TICK_MILLIS, HashedWheelTimer.WHEEL_SIZE);
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        for (int i = 0; i < pending; i++) {
+            long delay = 60_000 + i % 60_000;
+            wheel.schedule(NOTHING, delay, TimeUnit.MILLISECONDS);
+            executor.schedule(NOTHING, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        wheel.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Schedules a timeout on the wheel and cancels it, as a heartbeat which is pushed back.
+     *
+     * @return the timeout
+     */
+    @Benchmark
+    public HashedWheelTimer.Timeout wheelScheduleCancel() {
+        HashedWheelTimer.Timeout timeout = wheel.schedule(NOTHING, 30, TimeUnit.SECONDS);
+        timeout.cancel();
+        return timeout;
+    }
+
+    /**
+     * Schedules a task on the executor and cancels it, which removes it from the heap.
+     *
+     * @return the future of the task
+     */
+    @Benchmark
+    public ScheduledFuture<?> executorScheduleCancel() {
+        ScheduledFuture<?> future = executor.schedule(NOTHING, 30, TimeUnit.SECONDS);
+        future.cancel(false);
+        return future;
+    }
+}
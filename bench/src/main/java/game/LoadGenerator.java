@@ -0,0 +1,400 @@
+package game;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LoadGenerator class drives many headless bot clients against a running GameServer.
+ * <p>
+ * Every bot is a non-blocking {@link GameClient}, and the bots share a few
+ * {@link GameClientLoop} threads. Bots speak the ID/MOVE/WAIT/WIN/DRAW/QUIT protocol
+ * (optionally switching to binary frames), and play random or scripted games forever,
+ * reconnecting when their opponent leaves. With {@code --opponent bot} each bot plays the
+ * server-side bot instead. The number of bots ramps up linearly. Every
+ * second the generator prints games/sec, moves/sec and the p50/p99/p999 move round trip,
+ * measured from sending a MOVE to receiving its broadcast. Watch those numbers as the
+ * load grows to find the saturation point of the server.
+ * <p>
+ * With {@code --spectators N}, N more clients watch the match opened last once the ramp
+ * is over, so one match has N spectators, and the generator also prints the moves they
+ * see per second. Compare the round trip of the players with and without them.
+ * <p>
+ * Usage: {@code LoadGenerator [--host localhost] [--port 58901] [--clients 1000]
+ * [--ramp 10] [--duration 30] [--strategy random|scripted] [--binary] [--opponent human|bot]
+ * [--board 3x3] [--loops cpus] [--spectators 0]}, where {@code --board 15x5} plays five
+ * in a row on 15x15.
+ */
+public class LoadGenerator {
+    /**
+     * The order in which scripted bots pick their cells.
+     */
+    private static final int[] SCRIPT = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+
+    private final String host;
+    private final int port;
+    private final boolean scripted;
+    private final boolean binary;
+    private final boolean versusBot;
+    private final int boardSize;
+    private final int boardLength;
+    private final int loops;
+
+    private final AtomicInteger connected = new AtomicInteger();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder seen = new LongAdder();
+    private final AtomicInteger watching = new AtomicInteger();
+    private final LatencyHistogram interval = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a LoadGenerator.
+     *
+     * @param host the host of the server
+     * @param port the port of the server
+     * @param scripted whether bots play a fixed script instead of random moves
+     * @param binary whether bots switch to the binary protocol
+     * @param versusBot whether bots play the server-side bot instead of each other
+     * @param boardSize the number of rows and columns of the board
+     * @param boardLength the number of marks in a row which wins
+     * @param loops the number of threads running the I/O of the bots
+     */
+    public LoadGenerator(String host, int port, boolean scripted, boolean binary, boolean versusBot,
+            int boardSize, int boardLength, int loops) {
+        this.host = host;
+        this.port = port;
+        this.scripted = scripted;
+        this.binary = binary;
+        this.versusBot = versusBot;
+        this.boardSize = boardSize;
+        this.boardLength = boardLength;
+        this.loops = loops;
+    }
+
+    /**
+     * Parses the options and runs the load.
+     *
+     * @param args the options, see the class documentation
+     * @throws InterruptedException if interrupted while running
+     * @throws IOException if a client loop cannot be opened
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--binary")) {
+                options.put("binary", "true");
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            }
+        }
+        String[] board = options.getOrDefault("board", "3x3").split("x");
+        LoadGenerator generator = new LoadGenerator(
+            options.getOrDefault("host", "localhost"),
+            Integer.parseInt(options.getOrDefault("port", "58901")),
+            options.getOrDefault("strategy", "random").equals("scripted"),
+            options.containsKey("binary"),
+            options.getOrDefault("opponent", "human").equals("bot"),
+            Integer.parseInt(board[0]),
+            Integer.parseInt(board[1]),
+            Integer.parseInt(options.getOrDefault("loops", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        generator.run(
+            Integer.parseInt(options.getOrDefault("clients", "1000")),
+            Integer.parseInt(options.getOrDefault("ramp", "10")),
+            Integer.parseInt(options.getOrDefault("duration", "30")),
+            Integer.parseInt(options.getOrDefault("spectators", "0")));
+        System.exit(0);
+    }
+
+    /**
+     * Ramps the bots up and reports once per second until the duration has elapsed.
+     *
+     * @param clients the number of bots at the end of the ramp
+     * @param rampSeconds the time to reach that number
+     * @param durationSeconds the total running time
+     * @throws InterruptedException if interrupted while running
+     * @throws IOException if a client loop cannot be opened
+     */
+    public void run(int clients, int rampSeconds, int durationSeconds) throws InterruptedException, IOException {
+        run(clients, rampSeconds, durationSeconds, 0);
+    }
+
+    /**
+     * Ramps the bots up, lets the spectators watch once the ramp is over, and reports once
+     * per second until the duration has elapsed.
+     *
+     * @param clients the number of bots at the end of the ramp
+     * @param rampSeconds the time to reach that number
+     * @param durationSeconds the total running time
+     * @param spectators the number of clients watching the match opened last
+     * @throws InterruptedException if interrupted while running
+     * @throws IOException if a client loop cannot be opened
+     */
+    public void run(int clients, int rampSeconds, int durationSeconds, int spectators) throws InterruptedException, IOException {
+        GameClientLoop[] loops = new GameClientLoop[this.loops];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new GameClientLoop("loadgen-io-" + i);
+        }
+        long start = System.nanoTime();
+        long lastGames = 0;
+        long lastMoves = 0;
+        long lastSeen = 0;
+        int started = 0;
+        System.out.println("time  clients  games/s  moves/s  p50(us)  p99(us)  p999(us)  errors  watching  seen/s");
+        for (int second = 1; second <= durationSeconds; second++) {
+            int target = rampSeconds <= 0 ? clients : (int) Math.min(clients, (long) clients * second / rampSeconds);
+            while (started < target) {
+                GameClientLoop loop = loops[started % loops.length];
+                Bot bot = new Bot(loop);
+                loop.execute(bot::start);
+                started++;
+            }
+            if (second == Math.max(1, rampSeconds) + 1) {
+                for (int i = 0; i < spectators; i++) {
+                    GameClientLoop loop = loops[i % loops.length];
+                    Spectator spectator = new Spectator(loop);
+                    loop.execute(spectator::start);
+                }
+            }
+            long sleep = start + second * 1_000_000_000L - System.nanoTime();
+            if (sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+            LatencyHistogram latencies = interval.snapshotAndReset();
+            total.add(latencies);
+            long gamesNow = games.sum();
+            long movesNow = moves.sum();
+            long seenNow = seen.sum();
+            System.out.printf("%4d  %7d  %7d  %7d  %7d  %7d  %8d  %6d  %8d  %6d%n", second, connected.get(),
+                gamesNow - lastGames, movesNow - lastMoves,
+                latencies.getValueAtPercentile(50) / 1000, latencies.getValueAtPercentile(99) / 1000,
+                latencies.getValueAtPercentile(99.9) / 1000, errors.sum(), watching.get(), seenNow - lastSeen);
+            lastGames = gamesNow;
+            lastMoves = movesNow;
+            lastSeen = seenNow;
+        }
+        running = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("total: %d games (%.0f/s), %d moves (%.0f/s), rtt p50=%dus p99=%dus p999=%dus max=%dus%n",
+            games.sum(), games.sum() / seconds, moves.sum(), moves.sum() / seconds,
+            total.getValueAtPercentile(50) / 1000, total.getValueAtPercentile(99) / 1000,
+            total.getValueAtPercentile(99.9) / 1000, total.getMax() / 1000);
+        timer.shutdownNow();
+        for (GameClientLoop loop : loops) {
+            loop.close();
+        }
+    }
+
+    /**
+     * The Spectator class is one headless client watching the match opened last. It
+     * counts the moves it sees and watches the newest match again when its match ends.
+     */
+    private class Spectator implements GameClientListener {
+        private final GameClientLoop loop;
+        private boolean watched;
+
+        /**
+         * Constructs a Spectator.
+         *
+         * @param loop the loop running the I/O of the spectator
+         */
+        Spectator(GameClientLoop loop) {
+            this.loop = loop;
+        }
+
+        /**
+         * Connects a new client which watches the match opened last.
+         */
+        void start() {
+            if (running) {
+                watched = false;
+                new GameClient(host, port, this, loop, binary).watch(0);
+            }
+        }
+
+        @Override
+        public void onId(GameClient client, int player) {
+            watched = true;
+            watching.incrementAndGet();
+        }
+
+        @Override
+        public void onMove(GameClient client, int player, int row, int col) {
+            seen.increment();
+        }
+
+        @Override
+        public void onQuit(GameClient client, int player) {
+            client.close();
+        }
+
+        @Override
+        public void onClosed(GameClient client, Throwable cause) {
+            if (watched) {
+                watching.decrementAndGet();
+            }
+            timer.schedule(() -> loop.execute(this::start), 100, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The Bot class is one headless player. It reacts to the events of its
+     * {@link GameClient} on the loop thread and reconnects whenever its match ends.
+     */
+    private class Bot implements GameClientListener {
+        private final GameClientLoop loop;
+        private final Random random = new Random();
+        private GameClient client;
+        private boolean seated;
+        private long sentAt;
+
+        /**
+         * Constructs a Bot.
+         *
+         * @param loop the loop running the I/O of the bot
+         */
+        Bot(GameClientLoop loop) {
+            this.loop = loop;
+        }
+
+        /**
+         * Connects a new client to the server.
+         */
+        void start() {
+            if (!running) {
+                return;
+            }
+            seated = false;
+            sentAt = 0;
+            client = new GameClient(host, port, this, loop, binary);
+            client.requestBoard(boardSize, boardLength);
+            client.connect();
+            if (versusBot) {
+                client.playBot();
+            }
+        }
+
+        @Override
+        public void onId(GameClient client, int player) {
+            seated = true;
+            connected.incrementAndGet();
+            move();
+        }
+
+        @Override
+        public void onMove(GameClient client, int player, int row, int col) {
+            if (player == client.getId() && sentAt != 0) {
+                interval.record(System.nanoTime() - sentAt);
+                moves.increment();
+                sentAt = 0;
+            }
+            move();
+        }
+
+        @Override
+        public void onWin(GameClient client, int winner) {
+            gameOver();
+        }
+
+        @Override
+        public void onDraw(GameClient client) {
+            gameOver();
+        }
+
+        @Override
+        public void onWait(GameClient client) {
+            sentAt = 0;
+            timer.schedule(() -> loop.execute(this::move), 10, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onQuit(GameClient client, int player) {
+            client.close();
+        }
+
+        @Override
+        public void onClosed(GameClient client, Throwable cause) {
+            if (seated) {
+                connected.decrementAndGet();
+                loop.execute(this::start);
+            } else {
+                errors.increment();
+                timer.schedule(() -> loop.execute(this::start), 100, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Counts a finished game and opens the next one.
+         */
+        private void gameOver() {
+            if (client.getId() == 1) {
+                games.increment();
+            }
+            move();
+        }
+
+        /**
+         * Sends a move if it is the bot's turn.
+         */
+        private void move() {
+            if (!running || !client.isMyTurn()) {
+                return;
+            }
+            BitBoard board = client.getBoard();
+            int cell = scripted ? scriptedCell(board) : randomCell(board, random);
+            sentAt = System.nanoTime();
+            client.sendMove(cell / board.getSize(), cell % board.getSize());
+        }
+    }
+
+    /**
+     * Picks the first free cell of the script, or on a larger board the first free cell.
+     *
+     * @param board the board
+     * @return the cell index
+     */
+    private static int scriptedCell(BitBoard board) {
+        if (board.isClassic()) {
+            int taken = board.getMask(1) | board.getMask(2);
+            for (int cell : SCRIPT) {
+                if ((taken & (1 << cell)) == 0) {
+                    return cell;
+                }
+            }
+        }
+        return nextFreeCell(board, 0);
+    }
+
+    /**
+     * Picks a random free cell.
+     *
+     * @param board the board
+     * @param random the source of randomness
+     * @return the cell index
+     */
+    private static int randomCell(BitBoard board, Random random) {
+        return nextFreeCell(board, random.nextInt(board.getCells()));
+    }
+
+    /**
+     * Finds the first free cell at or after a cell, wrapping around the end of the board.
+     *
+     * @param board the board, with at least one free cell
+     * @param start the cell index to start at
+     * @return the cell index
+     */
+    private static int nextFreeCell(BitBoard board, int start) {
+        int size = board.getSize();
+        for (int i = 0; i < board.getCells(); i++) {
+            int cell = (start + i) % board.getCells();
+            if (board.get(cell / size, cell % size) == 0) {
+                return cell;
+            }
+        }
+        return 0;
+    }
+}
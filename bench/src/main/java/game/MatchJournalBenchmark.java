@@ -0,0 +1,53 @@
+package game;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the sustained rate at which moves can be journaled with each sync policy.
+ * The ring is small, and the benchmark waits while it is nearly full instead of letting
+ * records be dropped, so the rate is the rate at which records reach the file, forced
+ * as the policy says.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchJournalBenchmark {
+    private static final int CAPACITY = 4096;
+
+    @Param({"NONE", "INTERVAL", "ALWAYS"})
+    public MatchJournal.Sync sync;
+
+    private Path path;
+    private MatchJournal journal;
+    private int move;
+
+    @Setup
+    public void setUp() throws IOException {
+        path = Files.createTempFile("journal", ".log");
+        journal = new MatchJournal(path, sync, MatchJournal.DEFAULT_SYNC_MILLIS, CAPACITY);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        Files.delete(path);
+    }
+
+    /**
+     * Journals one move.
+     */
+    @Benchmark
+    public void append() {
+        while (journal.getBacklog() >= CAPACITY - 1) {
+            Thread.onSpinWait();
+        }
+        move++;
+        journal.append(Protocol.MOVE, move >>> 4, 1 + (move & 1), move & 7, move >>> 3 & 7);
+    }
+}
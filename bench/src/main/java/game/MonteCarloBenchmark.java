@@ -0,0 +1,62 @@
+package game;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the playouts per second of the Monte-Carlo bot on a 15x15 board with five
+ * in a row, for each number of parallel trees. Every invocation searches one move of
+ * an opening position within a 100 ms budget; the {@code playouts} counter gives the
+ * rate, so the scaling across cores is the ratio of the rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MonteCarloBenchmark {
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    private ForkJoinPool pool;
+    private MonteCarloSearch search;
+    private BitBoard board = new BitBoard(15, 5);
+
+    /**
+     * Counts the playouts of the measured searches.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long playouts;
+    }
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool(parallelism);
+        search = new MonteCarloSearch(pool, 100);
+        board.move(1, board.indexOf(7, 7));
+        board.move(2, board.indexOf(7, 8));
+        board.move(1, board.indexOf(8, 7));
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Searches one move from scratch.
+     *
+     * @param counters the playout counter
+     * @return the chosen cell
+     */
+    @Benchmark
+    public int search(Counters counters) {
+        search.reset();
+        int cell = search.bestMove(board);
+        counters.playouts += search.getLastPlayouts();
+        return cell;
+    }
+}
@@ -0,0 +1,64 @@
+package game;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures rating a finished game and looking up a rank, with a leaderboard of
+ * 50,000 players as a busy server would have.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlayerStatsBenchmark {
+    private static final int PLAYERS = 50_000;
+
+    private PlayerStats stats;
+
+    /**
+     * Logs in the players and spreads their ratings with a few games each.
+     */
+    @Setup
+    public void setUp() {
+        stats = new PlayerStats(PLAYERS);
+        for (int i = 0; i < PLAYERS; i++) {
+            stats.login("player" + i);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < PLAYERS * 4; i++) {
+            stats.recordWin(random.nextInt(PLAYERS), random.nextInt(PLAYERS));
+        }
+    }
+
+    /**
+     * Rates one decisive game between two random players.
+     */
+    @Benchmark
+    public void recordWin() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        stats.recordWin(random.nextInt(PLAYERS), random.nextInt(PLAYERS));
+    }
+
+    /**
+     * Looks up the rank of a random player.
+     *
+     * @return the rank
+     */
+    @Benchmark
+    public int getRank() {
+        return stats.getRank(ThreadLocalRandom.current().nextInt(PLAYERS));
+    }
+
+    /**
+     * Reads the ten best players.
+     *
+     * @return their ids
+     */
+    @Benchmark
+    public int[] top10() {
+        return stats.top(10);
+    }
+}
@@ -0,0 +1,62 @@
+package game;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the lookups of the solved position table and the time to solve it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PositionTableBenchmark {
+    private BitBoard[] boards = new BitBoard[1024];
+    private int next;
+    private PositionTable table = new PositionTable();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < boards.length; i++) {
+            BitBoard board = new BitBoard();
+            int moves = random.nextInt(BitBoard.CELLS - 1);
+            for (int m = 0; m < moves; m++) {
+                int free = ~(board.getMask(1) | board.getMask(2)) & BitBoard.FULL;
+                int cell = Integer.numberOfTrailingZeros(free);
+                for (int skip = random.nextInt(Integer.bitCount(free)); skip > 0; skip--) {
+                    free &= free - 1;
+                    cell = Integer.numberOfTrailingZeros(free);
+                }
+                if (board.move(board.getTurn(), cell) != BitBoard.PLAYING) {
+                    break;
+                }
+            }
+            boards[i] = board;
+        }
+    }
+
+    /**
+     * Looks up the best move of a position.
+     *
+     * @return the best cell
+     */
+    @Benchmark
+    public int lookup() {
+        next = (next + 1) & (boards.length - 1);
+        return table.bestMove(boards[next]);
+    }
+
+    /**
+     * Solves every reachable position, as the server does once at startup.
+     *
+     * @return the solved table
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public PositionTable solve() {
+        return new PositionTable();
+    }
+}
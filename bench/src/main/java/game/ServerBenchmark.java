@@ -0,0 +1,81 @@
+package game;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the server hot path: decoding a MOVE command, applying it to the match
+ * and broadcasting the result to both players. The players replay a drawn game,
+ * so every ninth move also broadcasts DRAW and resets the board. The match runs on the
+ * benchmark thread instead of a game loop, so the whole command is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServerBenchmark {
+    /**
+     * The cells of a drawn game, in the order they are played.
+     */
+    private static final int[] DRAWN_GAME = {0, 1, 2, 4, 3, 5, 7, 6, 8};
+
+    @Param({"false", "true"})
+    public boolean binary;
+
+    private GameServer server;
+    private SinkConnection[] players;
+    private String[] commands;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new GameServer(new GameLoops("bench-loop", 0));
+        players = new SinkConnection[] {new SinkConnection(), new SinkConnection()};
+        for (SinkConnection player : players) {
+            server.connect(player);
+            if (binary) {
+                player.switchToBinary();
+            }
+        }
+        commands = new String[DRAWN_GAME.length];
+        for (int i = 0; i < DRAWN_GAME.length; i++) {
+            commands[i] = "MOVE " + DRAWN_GAME[i] / 3 + " " + DRAWN_GAME[i] % 3;
+        }
+    }
+
+    /**
+     * Parses a text MOVE line as the Handler receives it and applies it.
+     *
+     * @return whether the connection is still open
+     */
+    @Benchmark
+    public boolean dispatchText() {
+        int i = next;
+        next = (i + 1) % DRAWN_GAME.length;
+        return server.dispatch(players[i & 1], commands[i]);
+    }
+
+    /**
+     * Applies a MOVE decoded from a binary frame.
+     *
+     * @return whether the connection is still open
+     */
+    @Benchmark
+    public boolean dispatchFrame() {
+        int i = next;
+        next = (i + 1) % DRAWN_GAME.length;
+        int cell = DRAWN_GAME[i];
+        return server.dispatch(players[i & 1], Protocol.MOVE, cell / 3, cell % 3);
+    }
+
+    /**
+     * Applies a MOVE of a WAITing player, which only answers the mover.
+     *
+     * @return whether the connection is still open
+     */
+    @Benchmark
+    public boolean rejectedMove() {
+        return server.dispatch(players[1 - (next & 1)], Protocol.MOVE, 0, 0);
+    }
+}
@@ -0,0 +1,44 @@
+package game;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures a {@link Simulation} worker playing bot-against-bot games in a row on one
+ * scratch board, without the fork/join pool around it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulationBenchmark {
+    @Param({"3x3", "15x5"})
+    public String board;
+
+    @Param({"RANDOM", "PERFECT"})
+    public Simulation.Bot first;
+
+    private BitBoard scratch;
+    private SplittableRandom random;
+    private final long[] counts = new long[4];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = board.split("x");
+        scratch = new BitBoard(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        random = new SplittableRandom(42);
+    }
+
+    /**
+     * Plays one game of the first bot against a random player.
+     *
+     * @return the counts so far
+     */
+    @Benchmark
+    public long[] game() {
+        Simulation.play(scratch, first, Simulation.Bot.RANDOM, random, 1, counts);
+        return counts;
+    }
+}
@@ -0,0 +1,43 @@
+package game;
+import java.nio.ByteBuffer;
+
+/**
+ * The SinkConnection class is a Connection which drops its output right away,
+ * so benchmarks measure the game logic and the encoding without any socket.
+ */
+public class SinkConnection extends Connection {
+    private ByteBuffer spare = ByteBuffer.allocate(256);
+    private long written;
+
+    /**
+     * Takes the committed batches and counts their bytes. Shared batches of a watched
+     * match are read-only and not reused.
+     */
+    @Override
+    protected void scheduleFlush() {
+        ByteBuffer batch;
+        while ((batch = takeOutput(spare)) != null) {
+            written += batch.remaining();
+            if (!batch.isReadOnly()) {
+                batch.clear();
+                spare = batch;
+            }
+        }
+    }
+
+    /**
+     * Does nothing, there is no socket to close.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     *
+     * @return the number of bytes
+     */
+    public long getWritten() {
+        return written;
+    }
+}
@@ -0,0 +1,73 @@
+package game;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures what spectators cost the players of a match: the players replay a drawn game
+ * while the match is watched by a number of spectators, whose output is dropped. The
+ * fan-out to the spectators runs on the pool of {@link Spectators} and is not part of
+ * the measured call, but shares the cores with it. The match itself runs on the
+ * benchmark thread instead of a game loop.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpectatorBenchmark {
+    /**
+     * The cells of a drawn game, in the order they are played.
+     */
+    private static final int[] DRAWN_GAME = {0, 1, 2, 4, 3, 5, 7, 6, 8};
+
+    @Param({"0", "100", "1000"})
+    public int spectators;
+
+    private GameServer server;
+    private SinkConnection[] players;
+    private SinkConnection[] watchers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new GameServer(new GameLoops("bench-loop", 0));
+        players = new SinkConnection[] {new SinkConnection(), new SinkConnection()};
+        for (SinkConnection player : players) {
+            server.connect(player);
+            player.switchToBinary();
+        }
+        watchers = new SinkConnection[spectators];
+        for (int i = 0; i < spectators; i++) {
+            watchers[i] = new SinkConnection();
+            watchers[i].switchToBinary();
+            server.dispatch(watchers[i], Protocol.WATCH, 0, 1);
+        }
+    }
+
+    /**
+     * Applies a MOVE decoded from a binary frame, which the match also publishes to its spectators.
+     *
+     * @return whether the connection is still open
+     */
+    @Benchmark
+    public boolean dispatchFrame() {
+        int i = next;
+        next = (i + 1) % DRAWN_GAME.length;
+        int cell = DRAWN_GAME[i];
+        return server.dispatch(players[i & 1], Protocol.MOVE, cell / 3, cell % 3);
+    }
+
+    /**
+     * Checks that the spectators have been sent the moves.
+     *
+     * @throws InterruptedException if interrupted while waiting for the last fan-out
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        Thread.sleep(Spectators.LINGER_MILLIS * 5);
+        if (spectators > 0 && watchers[spectators - 1].getWritten() == 0) {
+            throw new IllegalStateException("The spectators have not been sent any moves");
+        }
+    }
+}
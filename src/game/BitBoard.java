@@ -0,0 +1,449 @@
+package game;
+import java.util.Arrays;
+
+/**
+ * The BitBoard class is the game-state engine shared by the server and the client.
+ * <p>
+ * A board has {@code size} rows and columns, and a player wins with {@code length}
+ * marks in a row, e.g. 3 in a row on the classic 3x3 board or 5 in a row on 15x15.
+ * Each player's marks are stored as a bit set where bit {@code row * size + col} is set
+ * for an occupied cell. A move only checks the four lines through the new mark, walking
+ * at most {@code length - 1} cells each way, so its cost does not grow with the board.
+ * On the classic board the mover's mask is AND-ed with the 8 precomputed line masks instead.
+ * Fullness is a compare of the move count. The board also tracks whose turn it is, so it
+ * is the single source of truth for move legality.
+ * <p>
+ * The static members describe the classic board, whose marks also fit the 9-bit masks
+ * of {@link #getMask(int)}.
+ */
+public class BitBoard {
+    /**
+     * The number of rows and columns of the classic board.
+     */
+    public static final int SIZE = 3;
+
+    /**
+     * The largest number of rows and columns of a board.
+     */
+    public static final int MAX_SIZE = 19;
+
+    /**
+     * The number of cells of the classic board.
+     */
+    public static final int CELLS = SIZE * SIZE;
+
+    /**
+     * The mask with every cell of the classic board set.
+     */
+    public static final int FULL = (1 << CELLS) - 1;
+
+    /**
+     * The masks of the 3 rows, 3 columns and 2 diagonals of the classic board.
+     */
+    public static final int[] WIN_MASKS = {
+        0b000_000_111, 0b000_111_000, 0b111_000_000,
+        0b001_001_001, 0b010_010_010, 0b100_100_100,
+        0b100_010_001, 0b001_010_100
+    };
+
+    /**
+     * Result of a move which is not made in the player's turn.
+     */
+    public static final int WAIT = -2;
+
+    /**
+     * Result of a move outside the board or on an occupied cell.
+     */
+    public static final int ILLEGAL = -1;
+
+    /**
+     * Result of a valid move after which the game continues.
+     */
+    public static final int PLAYING = 0;
+
+    /**
+     * Result of a valid move which wins the game.
+     */
+    public static final int WIN = 1;
+
+    /**
+     * Result of a valid move which fills the board without a winner.
+     */
+    public static final int DRAW = 2;
+
+    private final int size;
+    private final int length;
+    private final int cells;
+    private final boolean classic;
+
+    /**
+     * The marks of the players in the first 64 cells, which hold every board up to 8x8.
+     */
+    private long low1;
+    private long low2;
+
+    /**
+     * The marks of the players in the cells from 64 on, 64 cells per word.
+     */
+    private final long[] high1;
+    private final long[] high2;
+    private int moves;
+    private int turn = 1;
+
+    /**
+     * Constructs a classic 3x3 board with 3 in a row.
+     */
+    public BitBoard() {
+        this(SIZE, SIZE);
+    }
+
+    /**
+     * Constructs a board of the specified size and winning line length.
+     *
+     * @param size the number of rows and columns
+     * @param length the number of marks in a row which wins
+     * @throws IllegalArgumentException if the parameters are not valid, see {@link #isValid(int, int)}
+     */
+    public BitBoard(int size, int length) {
+        if (!isValid(size, length)) {
+            throw new IllegalArgumentException("Invalid board " + size + "x" + size + " with " + length + " in a row");
+        }
+        this.size = size;
+        this.length = length;
+        this.cells = size * size;
+        this.classic = size == SIZE && length == SIZE;
+        this.high1 = new long[(cells - 1) / 64];
+        this.high2 = new long[high1.length];
+    }
+
+    /**
+     * Constructs a copy of a board.
+     *
+     * @param other the board to copy
+     */
+    public BitBoard(BitBoard other) {
+        this(other.size, other.length);
+        copyFrom(other);
+    }
+
+    /**
+     * Overwrites this board with the marks and turn of another board of the same shape,
+     * without allocating.
+     *
+     * @param other the board to copy
+     * @throws IllegalArgumentException if the boards differ in size or winning line length
+     */
+    public void copyFrom(BitBoard other) {
+        if (other.size != size || other.length != length) {
+            throw new IllegalArgumentException("Cannot copy a " + other.size + "x" + other.size + " board");
+        }
+        low1 = other.low1;
+        low2 = other.low2;
+        System.arraycopy(other.high1, 0, high1, 0, high1.length);
+        System.arraycopy(other.high2, 0, high2, 0, high2.length);
+        moves = other.moves;
+        turn = other.turn;
+    }
+
+    /**
+     * Checks if a board of the specified size and winning line length can be played.
+     *
+     * @param size the number of rows and columns, from 3 to {@link #MAX_SIZE}
+     * @param length the number of marks in a row which wins, from 3 to the size
+     * @return true if the parameters are valid, false otherwise
+     */
+    public static boolean isValid(int size, int length) {
+        return size >= SIZE && size <= MAX_SIZE && length >= SIZE && length <= size;
+    }
+
+    /**
+     * Returns the index of the cell at the specified row and column of the classic board.
+     *
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @return the cell index, or -1 if the cell is outside the board
+     */
+    public static int cell(int row, int col) {
+        if (row < 0 || row >= SIZE || col < 0 || col >= SIZE) {
+            return -1;
+        }
+        return row * SIZE + col;
+    }
+
+    /**
+     * Checks if the specified mask of the classic board contains a complete line.
+     *
+     * @param mask the marks of one player
+     * @return true if the mask contains a line, false otherwise
+     */
+    public static boolean isWin(int mask) {
+        for (int line : WIN_MASKS) {
+            if ((mask & line) == line) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of the cell at the specified row and column of this board.
+     *
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @return the cell index, or -1 if the cell is outside the board
+     */
+    public int indexOf(int row, int col) {
+        if (row < 0 || row >= size || col < 0 || col >= size) {
+            return -1;
+        }
+        return row * size + col;
+    }
+
+    /**
+     * Checks if the specified player may mark the specified cell now.
+     *
+     * @param player the player (1 or 2)
+     * @param cell the cell index
+     * @return true if the move is legal, false otherwise
+     */
+    public boolean isLegal(int player, int cell) {
+        return player == turn && cell >= 0 && cell < cells && !isMarked(1, cell) && !isMarked(2, cell);
+    }
+
+    /**
+     * Marks the specified cell for the specified player and switches the turn.
+     *
+     * @param player the player (1 or 2)
+     * @param cell the cell index
+     * @return {@link #WAIT}, {@link #ILLEGAL}, {@link #PLAYING}, {@link #WIN} or {@link #DRAW}
+     */
+    public int move(int player, int cell) {
+        if (player != turn) {
+            return WAIT;
+        }
+        if (cell < 0 || cell >= cells || isMarked(1, cell) || isMarked(2, cell)) {
+            return ILLEGAL;
+        }
+        long low;
+        if (cell < 64) {
+            low = player == 1 ? (low1 |= 1L << cell) : (low2 |= 1L << cell);
+        } else {
+            low = 0;
+            (player == 1 ? high1 : high2)[(cell >>> 6) - 1] |= 1L << cell;
+        }
+        moves++;
+        turn = 3 - player;
+        if (classic ? isWin((int) low) : isLine(player, cell)) {
+            return WIN;
+        }
+        if (isFull()) {
+            return DRAW;
+        }
+        return PLAYING;
+    }
+
+    /**
+     * Checks if marking a free cell would win the game for a player, whoever's turn it is.
+     * The board is unchanged afterwards.
+     *
+     * @param player the player (1 or 2)
+     * @param cell the cell index
+     * @return true if the cell is free and completes a line of the player, false otherwise
+     */
+    public boolean isWinningMove(int player, int cell) {
+        if (cell < 0 || cell >= cells || !isEmpty(cell)) {
+            return false;
+        }
+        flip(player, cell);
+        boolean win = classic ? isWin(getMask(player)) : isLine(player, cell);
+        flip(player, cell);
+        return win;
+    }
+
+    /**
+     * Toggles the mark of a player on a cell, without touching the move count or turn.
+     *
+     * @param player the player (1 or 2)
+     * @param cell the cell index
+     */
+    private void flip(int player, int cell) {
+        if (cell < 64) {
+            if (player == 1) {
+                low1 ^= 1L << cell;
+            } else {
+                low2 ^= 1L << cell;
+            }
+        } else {
+            (player == 1 ? high1 : high2)[(cell >>> 6) - 1] ^= 1L << cell;
+        }
+    }
+
+    /**
+     * Checks if the row, column or one of the diagonals through a cell holds a winning
+     * run of marks. The classic board uses the precomputed line masks instead.
+     *
+     * @param player the player who marked the cell
+     * @param cell the cell index
+     * @return true if a run is at least {@code length} marks long, false otherwise
+     */
+    private boolean isLine(int player, int cell) {
+        int row = cell / size;
+        int col = cell % size;
+        return 1 + count(player, row, col, 0, 1) + count(player, row, col, 0, -1) >= length
+            || 1 + count(player, row, col, 1, 0) + count(player, row, col, -1, 0) >= length
+            || 1 + count(player, row, col, 1, 1) + count(player, row, col, -1, -1) >= length
+            || 1 + count(player, row, col, 1, -1) + count(player, row, col, -1, 1) >= length;
+    }
+
+    /**
+     * Counts the consecutive marks next to a cell in one direction, up to {@code length - 1}.
+     *
+     * @param player the player
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @param rowStep the row step of the direction
+     * @param colStep the column step of the direction
+     * @return the number of consecutive marks
+     */
+    private int count(int player, int row, int col, int rowStep, int colStep) {
+        int count = 0;
+        int r = row + rowStep;
+        int c = col + colStep;
+        while (count < length - 1 && r >= 0 && r < size && c >= 0 && c < size && isMarked(player, r * size + c)) {
+            count++;
+            r += rowStep;
+            c += colStep;
+        }
+        return count;
+    }
+
+    /**
+     * Checks if a player has marked a cell.
+     *
+     * @param player the player (1 or 2)
+     * @param cell the cell index
+     * @return true if the cell is marked, false otherwise
+     */
+    private boolean isMarked(int player, int cell) {
+        if (cell < 64) {
+            return ((player == 1 ? low1 : low2) & 1L << cell) != 0;
+        }
+        return ((player == 1 ? high1 : high2)[(cell >>> 6) - 1] & 1L << cell) != 0;
+    }
+
+    /**
+     * Checks if a cell is still free.
+     *
+     * @param cell the cell index
+     * @return true if neither player has marked the cell, false otherwise
+     */
+    public boolean isEmpty(int cell) {
+        return !isMarked(1, cell) && !isMarked(2, cell);
+    }
+
+    /**
+     * Gets the owner of the cell at the specified row and column.
+     *
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @return 0 for an empty cell, otherwise the player (1 or 2)
+     */
+    public int get(int row, int col) {
+        int cell = row * size + col;
+        if (isMarked(1, cell)) {
+            return 1;
+        }
+        if (isMarked(2, cell)) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the marks of the specified player in the first 32 cells, which are all cells
+     * of the classic board.
+     *
+     * @param player the player (1 or 2)
+     * @return the mask of the player's marks
+     */
+    public int getMask(int player) {
+        return (int) (player == 1 ? low1 : low2);
+    }
+
+    /**
+     * Gets the number of rows and columns of the board.
+     *
+     * @return the size of the board
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the number of marks in a row which wins.
+     *
+     * @return the length of a winning line
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of cells of the board.
+     *
+     * @return the number of cells
+     */
+    public int getCells() {
+        return cells;
+    }
+
+    /**
+     * Checks if this is the classic 3x3 board with 3 in a row.
+     *
+     * @return true for the classic board, false otherwise
+     */
+    public boolean isClassic() {
+        return classic;
+    }
+
+    /**
+     * Gets the player whose turn it is.
+     *
+     * @return the player to move (1 or 2)
+     */
+    public int getTurn() {
+        return turn;
+    }
+
+    /**
+     * Gets the number of marks on the board.
+     *
+     * @return the number of moves played since the last reset
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * Checks if the board is full.
+     *
+     * @return true if every cell is marked, false otherwise
+     */
+    public boolean isFull() {
+        return moves == cells;
+    }
+
+    /**
+     * Resets the board to its initial state with player 1 to move.
+     */
+    public void reset() {
+        low1 = 0;
+        low2 = 0;
+        if (high1.length > 0) {
+            Arrays.fill(high1, 0);
+            Arrays.fill(high2, 0);
+        }
+        moves = 0;
+        turn = 1;
+    }
+}
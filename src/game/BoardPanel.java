@@ -0,0 +1,226 @@
+package game;
+import javax.swing.*;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * The BoardPanel class draws a {@link BitBoard}, whose cells the player clicks to move.
+ * <p>
+ * The marks are not drawn as shapes on every repaint. They are rendered once per cell
+ * size, antialiased, into two sprites, which every marked cell then copies. The cell size
+ * is computed when the panel is resized or gets a new board, not while painting. Painting
+ * only covers the cells inside the clip, so a move, which repaints the rectangle of its
+ * cell, costs the same on any board. The sprites are opaque, so a full repaint copies
+ * one per mark and fills the empty cells, without blending or stroking any shape.
+ */
+public class BoardPanel extends JPanel {
+    private static final Color X_COLOR = Color.GREEN;
+    private static final Color O_COLOR = Color.RED;
+
+    private BitBoard board;
+
+    /**
+     * The size of each cell, in pixels.
+     */
+    private int cellSize;
+
+    /**
+     * The sprites of the marks of player 1 and player 2, for the current cell size.
+     */
+    private BufferedImage[] sprites;
+    private int spriteSize;
+
+    /**
+     * The union of the cells changed since the last repaint was posted, or null.
+     */
+    private Rectangle dirty;
+
+    /**
+     * Constructs a BoardPanel drawing the specified board.
+     *
+     * @param board the board
+     */
+    public BoardPanel(BitBoard board) {
+        this.board = board;
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                updateCellSize();
+            }
+        });
+    }
+
+    /**
+     * Replaces the board and repaints the whole panel.
+     *
+     * @param board the board
+     */
+    public void setBoard(BitBoard board) {
+        this.board = board;
+        updateCellSize();
+        repaint();
+    }
+
+    /**
+     * Gets the board drawn by this panel.
+     *
+     * @return the board
+     */
+    public BitBoard getBoard() {
+        return board;
+    }
+
+    /**
+     * Gets the size of each cell.
+     *
+     * @return the size of a cell, in pixels
+     */
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Repaints only the rectangle of one cell, e.g. after a move. The cells changed by the
+     * events of one batch are repainted together, once the batch is done. Must be called on
+     * the event dispatch thread.
+     *
+     * @param row the row of the cell
+     * @param col the column of the cell
+     */
+    public void repaintCell(int row, int col) {
+        Rectangle cell = new Rectangle(col * cellSize, row * cellSize, cellSize + 1, cellSize + 1);
+        if (dirty == null) {
+            dirty = cell;
+            SwingUtilities.invokeLater(this::repaintDirty);
+        } else {
+            dirty.add(cell);
+        }
+    }
+
+    /**
+     * Repaints the cells changed since the repaint was posted.
+     */
+    private void repaintDirty() {
+        Rectangle region = dirty;
+        dirty = null;
+        repaint(region);
+    }
+
+    /**
+     * Computes the cell size from the size of the panel and of the board.
+     */
+    private void updateCellSize() {
+        cellSize = Math.min(getWidth(), getHeight()) / board.getSize();
+    }
+
+    /**
+     * Paints the cells inside the clip: the sprites of their marks, the background of the
+     * others and the grid lines, then the background of the panel around the board.
+     *
+     * @param g the graphics context
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        int size = board.getSize();
+        int extent = size * cellSize;
+        g.setColor(getBackground());
+        if (clip.x + clip.width > extent) {
+            g.fillRect(extent, clip.y, clip.x + clip.width - extent, clip.height);
+        }
+        if (clip.y + clip.height > extent) {
+            g.fillRect(clip.x, extent, clip.width, clip.y + clip.height - extent);
+        }
+        if (cellSize <= 0) {
+            return;
+        }
+        int firstRow = Math.max(0, clip.y / cellSize);
+        int lastRow = Math.min(size - 1, (clip.y + clip.height) / cellSize);
+        int firstCol = Math.max(0, clip.x / cellSize);
+        int lastCol = Math.min(size - 1, (clip.x + clip.width) / cellSize);
+        if (firstRow > lastRow || firstCol > lastCol) {
+            return;
+        }
+
+        BufferedImage[] marks = spritesOf(cellSize);
+        g.setColor(Color.WHITE);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                int value = board.get(row, col);
+                if (value != 0) {
+                    g.drawImage(marks[value - 1], col * cellSize, row * cellSize, null);
+                } else {
+                    g.fillRect(col * cellSize, row * cellSize, cellSize, cellSize);
+                }
+            }
+        }
+
+        int left = firstCol * cellSize;
+        int top = firstRow * cellSize;
+        int right = Math.min(extent, (lastCol + 1) * cellSize);
+        int bottom = Math.min(extent, (lastRow + 1) * cellSize);
+        g.setColor(Color.BLACK);
+        for (int row = firstRow; row <= lastRow + 1 && row <= size; row++) {
+            g.drawLine(left, row * cellSize, right, row * cellSize);
+        }
+        for (int col = firstCol; col <= lastCol + 1 && col <= size; col++) {
+            g.drawLine(col * cellSize, top, col * cellSize, bottom);
+        }
+    }
+
+    /**
+     * Gets the sprites of the marks for a cell size, rendering them if the size has changed.
+     *
+     * @param size the size of a cell
+     * @return the sprites of player 1 and player 2
+     */
+    private BufferedImage[] spritesOf(int size) {
+        if (sprites == null || spriteSize != size) {
+            sprites = new BufferedImage[] {renderSprite(size, 1), renderSprite(size, 2)};
+            spriteSize = size;
+        }
+        return sprites;
+    }
+
+    /**
+     * Renders the antialiased mark of a player on the background of a cell, inset from
+     * its grid lines. The sprite is opaque, so drawing it is a plain copy of its pixels.
+     *
+     * @param size the size of a cell
+     * @param player the player (1 or 2)
+     * @return the sprite
+     */
+    private BufferedImage renderSprite(int size, int player) {
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        BufferedImage sprite = config != null
+            ? config.createCompatibleImage(size, size, Transparency.OPAQUE)
+            : new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = sprite.createGraphics();
+        try {
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, size, size);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            float stroke = Math.max(1.5f, size / 16f);
+            g2d.setStroke(new BasicStroke(stroke, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            int inset = Math.round(stroke) + 1;
+            int extent = size - 2 * inset;
+            if (player == 1) {
+                g2d.setColor(X_COLOR);
+                g2d.drawLine(inset, inset, inset + extent, inset + extent);
+                g2d.drawLine(inset + extent, inset, inset, inset + extent);
+            } else {
+                g2d.setColor(O_COLOR);
+                g2d.drawOval(inset, inset, extent, extent);
+            }
+        } finally {
+            g2d.dispose();
+        }
+        return sprite;
+    }
+}
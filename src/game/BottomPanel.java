@@ -93,16 +93,18 @@ public class BottomPanel extends JPanel {
 
         submitButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                String name = nameField.getText();
-                if (!name.isEmpty()) {
+                String name = nameField.getText().trim();
+                if (name.isEmpty()) {
+                    messageLabel.setText("Name cannot be empty. Please enter your name.");
+                } else if (!Protocol.isName(name)) {
+                    messageLabel.setText("Use at most " + Protocol.MAX_NAME_LENGTH + " plain ASCII characters.");
+                } else {
                     nameField.setEditable(false);
                     submitButton.setEnabled(false);
                     mainWindow.setName(name);
                     if (middlePanel != null) {
                         middlePanel.setInfoLabel("Welcome " + name);
                     }
-                } else {
-                    messageLabel.setText("Name cannot be empty. Please enter your name.");
                 }
             }
         });
@@ -4,9 +4,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 
 /**
@@ -17,12 +15,27 @@ public class Client {
     private static final Logger logger = Logger.getLogger(Client.class.getName());
 
     private MainWindow mainWindow;
-    
-    private Socket socket;
-    private Scanner in;
-    private PrintWriter out;
 
-    private int id = 0;
+    private GameClientLoop loop;
+    private GameClient gameClient;
+
+    /**
+     * Whether the client asks the server for the binary protocol after the ID handshake.
+     */
+    private boolean requestBinary = true;
+
+    private volatile int id = 0;
+
+    /**
+     * Applies the events of the server to the window on the event dispatch thread.
+     */
+    private final UiEventQueue ui = new UiEventQueue();
+
+    /**
+     * Whether the board still shows the final position of a finished game, while its rules
+     * are already those of the next game. Only used on the event dispatch thread.
+     */
+    private boolean gameOver;
 
     /**
      * Constructs a Client with the specified MainWindow.
@@ -34,22 +47,21 @@ public class Client {
     }
 
     /**
-     * Starts the client and connects to the server.
-     * Sets up the input and output streams, and initializes the event listeners.
+     * Starts the client and initializes the event listeners. The connection is opened on
+     * a {@link GameClientLoop} once the player has entered a name, which the server rates.
+     * If the connection drops during a match, the client reconnects with backoff and
+     * resumes the game where it was.
      */
     public void start() {
         try {
-            this.socket = new Socket("localhost", 58901);
-            this.in = new Scanner(socket.getInputStream());
-            this.out = new PrintWriter(socket.getOutputStream(), true);
-            logger.info("Connected to server " + socket.getInetAddress());
-        } catch (UnknownHostException e) {
-            logger.log(Level.SEVERE, "Error in client socket", e);
-            e.printStackTrace();
+            this.loop = new GameClientLoop("client-io");
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error in client socket", e);
-            e.printStackTrace();
+            return;
         }
+        this.gameClient = new GameClient("localhost", 58901, new Events(), loop, requestBinary);
+        gameClient.setReconnect(true);
+        mainWindow.setNameListener(this::login);
 
         MiddlePanel middlePanel = mainWindow.getMiddlePanel();
         middlePanel.getBoardPanel().addMouseListener(new MouseAdapter() {
@@ -65,125 +77,244 @@ public class Client {
                 }
                 int row = e.getY() / middlePanel.getCellSize();
                 int col = e.getX() / middlePanel.getCellSize();
-                if (row < 0 || row >= 3 || col < 0 || col >= 3) {
+                int cell = middlePanel.getBoard().indexOf(row, col);
+                if (cell < 0) {
                     middlePanel.setInfoLabel("Click within the board boundaries.");
                     logger.warning("Invalid move: " + row + " " + col);
+                } else if (!middlePanel.getBoard().isLegal(id, cell)) {
+                    if (middlePanel.getBoard().getTurn() != id) {
+                        middlePanel.setInfoLabel("Wait for your turn.");
+                    }
                 } else {
-                    out.println("MOVE " + row + " " + col);
+                    gameClient.sendMove(row, col);
                     logger.info("Player " + id + " asking move: " + row + " " + col);
                 }
             }
         });
 
+        mainWindow.getMenuPanel().getBoardButton().addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                chooseBoard();
+            }
+        });
+
+        mainWindow.getMenuPanel().getBotButton().addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (mainWindow.getName() == null) {
+                    mainWindow.getMiddlePanel().setInfoLabel("Enter your name first.");
+                    return;
+                }
+                gameClient.playBot();
+            }
+        });
+
+        mainWindow.getMenuPanel().getHintButton().addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                gameClient.requestHint();
+            }
+        });
+
         mainWindow.getMenuPanel().getExitButton().addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                out.println("QUIT");
+                gameClient.quit();
             }
         });
+    }
 
-        Thread handler = new ClientHandler(socket);
-        handler.start();
+    /**
+     * Connects to the server with the name the player has entered.
+     *
+     * @param name the name of the player
+     */
+    private void login(String name) {
+        gameClient.setName(name);
+        gameClient.connect().whenComplete((player, error) -> {
+            if (error != null) {
+                logger.log(Level.SEVERE, "Error in client socket", error);
+            } else {
+                logger.info("Connected to server as player " + player);
+            }
+        });
     }
 
     /**
-     * The ClientHandler class handles communication with the server.
+     * The Events class updates the window with the events of the server.
+     * Its methods run on the thread of the client loop, which only queues each update on
+     * {@link #ui}, so the window is only ever touched by the event dispatch thread and the
+     * loop never waits for it, or for the player to answer a dialog.
      */
-    class ClientHandler extends Thread {
-        private Socket socket;
+    class Events implements GameClientListener {
+        @Override
+        public void onBoard(GameClient client, int size, int length) {
+            ui.execute(() -> {
+                gameOver = false;
+                mainWindow.getMiddlePanel().setBoard(size, length);
+            });
+        }
 
-        /**
-         * Constructs a ClientHandler with the specified socket.
-         * 
-         * @param socket the socket for communication with the server
-         */
-        public ClientHandler(Socket socket) {
-            this.socket = socket;
+        @Override
+        public void onRating(GameClient client, int rating, int rank) {
+            ui.execute(() -> mainWindow.getMiddlePanel().setInfoLabel("Welcome " + mainWindow.getName()
+                + ". Rating " + rating + ", rank " + rank + ". Waiting for an opponent..."));
         }
 
-        /**
-         * Runs the handler to process server commands and update the client state.
-         */
         @Override
-        public void run() {
-            try {
-                readFromServer();
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error in client socket", e);
-                e.printStackTrace();
-            }
+        public void onNameRefused(GameClient client) {
+            ui.execute(() -> mainWindow.getMiddlePanel().setInfoLabel("The server could not rate "
+                + mainWindow.getName() + ". Playing unrated. Waiting for an opponent..."));
         }
 
-        /**
-         * Reads commands from the server and processes them.
-         * 
-         * @throws Exception if an error occurs while reading from the server
-         */
-        public void readFromServer() throws Exception {
-            try {
-                while(in.hasNextLine()) {
-                    var command = in.nextLine();
-                    out.flush();
-                    if(command.startsWith("ID")) {
-                        id = Integer.parseInt(command.split(" ")[1]);
-                        logger.info("Client ID: " + id);
-                    } else if(command.startsWith("MOVE")) {
-                        int currentPlayer = Integer.parseInt(command.split(" ")[1]);
-                        int row = Integer.parseInt(command.split(" ")[2]);
-                        int col = Integer.parseInt(command.split(" ")[3]);
-                        if (id == currentPlayer) {
-                            mainWindow.getMiddlePanel().setInfoLabel("Valid move, wait for your opponent.");
-                        } else {
-                            mainWindow.getMiddlePanel().setInfoLabel("Your opponent has moved, now is your turn.");
-                        }
-                        mainWindow.getMiddlePanel().updateBoard(row, col, currentPlayer);
-                    } else if(command.startsWith("WIN")) {
-                        int winner = Integer.parseInt(command.split(" ")[1]);
-                        int response = mainWindow.showEndGameDialog("WIN", id == winner);
-                        postProcess(response, winner);
-                    } else if(command.startsWith("DRAW")) {
-                        int response = mainWindow.showEndGameDialog("DRAW");
-                        postProcess(response, 0);
-                    } else if(command.startsWith("QUIT")) {
-                        mainWindow.showEndGameDialog("QUIT");
-                        postProcess(JOptionPane.NO_OPTION, 0);
-                    } else if(command.startsWith("WAIT")) {
-                        mainWindow.getMiddlePanel().setInfoLabel("Wait for your turn.");
-                    }
+        @Override
+        public void onId(GameClient client, int player) {
+            id = player;
+            logger.info("Client ID: " + id);
+        }
+
+        @Override
+        public void onMove(GameClient client, int player, int row, int col) {
+            ui.execute(() -> {
+                // The next game may start while the dialog of the last one is still open.
+                clearFinishedGame();
+                if (id == player) {
+                    mainWindow.getMiddlePanel().setInfoLabel("Valid move, wait for your opponent.");
+                } else {
+                    mainWindow.getMiddlePanel().setInfoLabel("Your opponent has moved, now is your turn.");
                 }
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error in client socket", e);
-                e.printStackTrace();
-            } finally {
-                socket.close();
+                mainWindow.getMiddlePanel().updateBoard(row, col, player);
+            });
+        }
+
+        @Override
+        public void onWait(GameClient client) {
+            ui.execute(() -> mainWindow.getMiddlePanel().setInfoLabel("Wait for your turn."));
+        }
+
+        @Override
+        public void onHint(GameClient client, int row, int col) {
+            ui.execute(() -> mainWindow.getMiddlePanel().setInfoLabel("Hint: row " + (row + 1)
+                + ", column " + (col + 1) + "."));
+        }
+
+        @Override
+        public void onWin(GameClient client, int winner) {
+            ui.execute(() -> endGame("WIN", winner));
+        }
+
+        @Override
+        public void onDraw(GameClient client) {
+            ui.execute(() -> endGame("DRAW", 0));
+        }
+
+        @Override
+        public void onQuit(GameClient client, int player) {
+            ui.execute(() -> mainWindow.showEndGameDialog("QUIT", response -> postProcess(JOptionPane.NO_OPTION)));
+        }
+
+        @Override
+        public void onReconnecting(GameClient client, int attempt, long delayMillis) {
+            ui.execute(() -> mainWindow.getMiddlePanel().setInfoLabel("Connection lost, reconnecting (attempt "
+                + attempt + ")..."));
+        }
+
+        @Override
+        public void onResumed(GameClient client) {
+            String text = client.isMyTurn() ? "Reconnected, now is your turn." : "Reconnected, wait for your opponent.";
+            ui.execute(() -> mainWindow.getMiddlePanel().setInfoLabel(text));
+            logger.info("Resumed the match as player " + id);
+        }
+
+        @Override
+        public void onClosed(GameClient client, Throwable cause) {
+            if (cause != null) {
+                logger.log(Level.SEVERE, "Error in client socket", cause);
             }
         }
     }
 
     /**
-     * Processes the response after the game ends.
-     * 
+     * Counts a finished game and asks the player whether to play again. The rules of the
+     * board are reset at once, so a move of the next game is accepted while the dialog is
+     * open, and the final position stays on show until the player answers or the next game
+     * starts.
+     *
+     * @param cmd the end of the game, "WIN" or "DRAW"
+     * @param winner the winner of the game, or 0 for a draw
+     */
+    private void endGame(String cmd, int winner) {
+        gameOver = true;
+        mainWindow.getMiddlePanel().finishGame();
+        mainWindow.getMiddlePanel().updateStats(winner);
+        mainWindow.showEndGameDialog(cmd, id == winner, this::postProcess);
+    }
+
+    /**
+     * Shows the board of the next game, if the final position of the last one is still
+     * shown.
+     */
+    private void clearFinishedGame() {
+        if (gameOver) {
+            gameOver = false;
+            mainWindow.getMiddlePanel().showNextGame();
+        }
+    }
+
+    /**
+     * Asks the player for the size of the board and the number of marks in a row,
+     * e.g. "15 5", and asks the server for a match on that board.
+     */
+    private void chooseBoard() {
+        if (id != 0) {
+            mainWindow.getMiddlePanel().setInfoLabel("The board is chosen before a match opens.");
+            return;
+        }
+        String answer = JOptionPane.showInputDialog(mainWindow.getMiddlePanel(), "Board size and marks in a row, e.g. 15 5:", "3 3");
+        if (answer == null) {
+            return;
+        }
+        String[] parts = answer.trim().split("\\s+");
+        try {
+            int size = Integer.parseInt(parts[0]);
+            int length = parts.length > 1 ? Integer.parseInt(parts[1]) : Math.min(size, 5);
+            if (!BitBoard.isValid(size, length)) {
+                throw new NumberFormatException(answer);
+            }
+            gameClient.requestBoard(size, length);
+        } catch (NumberFormatException e) {
+            mainWindow.getMiddlePanel().setInfoLabel("Invalid board: " + answer);
+        }
+    }
+
+    /**
+     * Processes the response after the game ends. Runs on the event dispatch thread.
+     *
      * @param response the response from the end game dialog
-     * @param winner the winner of the game
      */
-    private void postProcess(int response, int winner) {
+    private void postProcess(int response) {
         switch(response) {
             case JOptionPane.YES_OPTION:
-                out.println("RESTART");
-                mainWindow.getMiddlePanel().resetBoard();
-                mainWindow.getMiddlePanel().updateStats(winner);
-                if(id == 2) {
+                gameClient.restart();
+                clearFinishedGame();
+                if(id == 2 && mainWindow.getMiddlePanel().getBoard().getMoves() == 0) {
                     mainWindow.getMiddlePanel().setInfoLabel("Game started. Wait for your opponent.");
                 }
                 break;
             case JOptionPane.NO_OPTION:
-                out.println("QUIT");
-                System.exit(0);
+                quitAndExit();
                 break;
             case JOptionPane.CLOSED_OPTION:
-                out.println("QUIT");
-                System.exit(0);
+                quitAndExit();
                 break;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Leaves the match and exits once the server has closed the connection.
+     */
+    private void quitAndExit() {
+        gameClient.quit().completeOnTimeout(null, 1, TimeUnit.SECONDS).thenRun(() -> System.exit(0));
+    }
+}
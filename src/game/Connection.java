@@ -0,0 +1,553 @@
+package game;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * The Connection class represents the server side of a single client connection,
+ * independent of the transport used to talk to the client.
+ * A connection is seated in at most one match and knows its player number there.
+ * It also knows whether the client has switched to the binary protocol, and
+ * encodes every message accordingly.
+ * <p>
+ * Messages are not written to the client when they are sent. They are encoded into
+ * an outbound buffer, and {@link #commit()} hands the whole batch produced by one
+ * inbound command to the transport, which writes it in a single call on its own
+ * writer thread. The thread applying the game logic never waits on a socket.
+ * <p>
+ * A connection may watch a match instead of playing. The events of the match then
+ * arrive as buffers shared by all its spectators, which are queued behind the output of
+ * the connection and written as they are, without being encoded again.
+ * <p>
+ * The output waiting for a client is bounded by {@link #MAX_PENDING_BYTES}. A client which
+ * reads too slowly to keep up overflows it: its pending output is dropped, it gets
+ * nothing more until the server has applied its {@link GameServer.Backpressure} policy,
+ * and neither the players nor the transport ever wait for it. The bytes of a message
+ * which has started going out are always written in full, so the client never sees a
+ * message cut in half.
+ * <p>
+ * The transport calls {@link #touch()} whenever it reads from the client, and the
+ * server checks every connection once per heartbeat: a client which has sent nothing
+ * since the last check gets {@code PING}, and one which has not answered it by the next
+ * check is closed.
+ */
+public abstract class Connection {
+    /**
+     * The most bytes of output which may wait for a client, not counting the batch being
+     * written to it.
+     */
+    public static final int MAX_PENDING_BYTES = 64 * 1024;
+
+    /**
+     * The match of the connection. It is set by the thread which pairs the connection,
+     * so it is volatile, and it is written after the player number.
+     */
+    private volatile Match match;
+    private int player;
+    private boolean detached;
+
+    /**
+     * The match this connection watches, or null. Shared buffers of other matches are refused.
+     */
+    private Match watched;
+
+    /**
+     * The buffers of the watched match waiting to be written after the output.
+     */
+    private final ArrayDeque<ByteBuffer> shared = new ArrayDeque<>();
+    private int sharedBytes;
+
+    /**
+     * Whether the connection has been queued for an opponent, seated against the bot,
+     * or is watching a match.
+     * It is volatile, so the reader of the connection can check it without the lock.
+     */
+    private volatile boolean queued;
+
+    /**
+     * The id of the player in the {@link PlayerStats} of the server, or -1 until the
+     * client has sent {@code NAME}.
+     */
+    private volatile int profile = -1;
+    private boolean binary;
+
+    /**
+     * Whether the client has sent anything since the last heartbeat. It is written by the
+     * reader of the connection, so it is volatile.
+     */
+    private volatile boolean active;
+    private boolean pinged;
+    private ByteBuffer out = ByteBuffer.allocate(256);
+    private boolean flushScheduled;
+
+    /**
+     * The buffer whose write to a non-blocking channel has started, or null. It is
+     * finished before anything else, so messages never interleave.
+     */
+    private ByteBuffer writing;
+    private ByteBuffer spare;
+
+    /**
+     * Whether the pending output has overflowed and been dropped. Output is refused until
+     * the server has dealt with the connection.
+     */
+    private boolean overflowed;
+    private Consumer<Connection> overflowHandler;
+
+    /**
+     * Asks the transport to write the pending output on its writer thread.
+     * Called at most once until the output has been taken.
+     */
+    protected abstract void scheduleFlush();
+
+    /**
+     * Closes the connection to the client.
+     */
+    public abstract void close();
+
+    /**
+     * Sends a message to the client in the protocol negotiated with it.
+     * The message is written with the next {@link #commit()}.
+     *
+     * @param opcode the message type, one of the {@link Protocol} opcodes
+     * @param player the player the message refers to, or 0
+     * @param a the first argument, or 0
+     * @param b the second argument, or 0
+     */
+    public synchronized void send(int opcode, int player, int a, int b) {
+        if (binary) {
+            if (admit(Protocol.FRAME_SIZE)) {
+                reserve(Protocol.FRAME_SIZE);
+                Protocol.putFrame(out, opcode, player, a, b);
+            }
+        } else {
+            String line = Protocol.toText(opcode, player, a, b);
+            if (admit(line.length() + 1)) {
+                writeLine(line);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection of a client which has stopped answering, without waiting on
+     * its socket. Transports whose {@link #close()} may block, or must run on a thread of
+     * their own, override it.
+     */
+    public void closeIdle() {
+        close();
+    }
+
+    /**
+     * Notes that the client has sent something. Called by the transport on every read.
+     */
+    protected void touch() {
+        active = true;
+    }
+
+    /**
+     * Checks on the client once per heartbeat. A client which has sent nothing since the
+     * last heartbeat is sent {@code PING}, which it answers with {@code PING}.
+     *
+     * @return false if the client has not answered the {@code PING} of the last heartbeat,
+     *         true otherwise
+     */
+    synchronized boolean heartbeat() {
+        if (active) {
+            active = false;
+            pinged = false;
+            return true;
+        }
+        if (pinged) {
+            return false;
+        }
+        pinged = true;
+        send(Protocol.PING, 0, 0, 0);
+        commit();
+        return true;
+    }
+
+    /**
+     * Sends a text line which has no binary frame, such as a resume token. A connection
+     * which has switched to binary frames does not get it.
+     * The line is written with the next {@link #commit()}.
+     *
+     * @param line the line, without line terminator
+     */
+    public synchronized void sendLine(String line) {
+        if (!binary && admit(line.length() + 1)) {
+            writeLine(line);
+        }
+    }
+
+    /**
+     * Hands the messages sent since the last commit to the transport.
+     */
+    public synchronized void commit() {
+        if ((out.position() > 0 || !shared.isEmpty()) && !flushScheduled) {
+            flushScheduled = true;
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Queues a buffer of events shared by the spectators of a match, to be written with
+     * the next {@link #commit()}. The buffer is not copied and must not be changed.
+     * <p>
+     * While the output of the connection has overflowed, only a snapshot of the match is
+     * queued, which ends the overflow; other buffers are dropped.
+     *
+     * @param match the match the events belong to
+     * @param buffer the encoded events, in the protocol of this connection
+     * @param snapshot whether the buffer starts with a snapshot of the board
+     * @return true if the connection still watches the match, false if it does not
+     */
+    synchronized boolean sendShared(Match match, ByteBuffer buffer, boolean snapshot) {
+        if (watched != match) {
+            return false;
+        }
+        if (snapshot) {
+            overflowed = false;
+        }
+        if (admit(buffer.remaining())) {
+            shared.add(buffer);
+            sharedBytes += buffer.remaining();
+        }
+        return true;
+    }
+
+    /**
+     * Sets what is called when the pending output of the connection overflows, with the
+     * lock of the connection held. The output stays refused until {@link #resync()}, or
+     * for a spectator until its next snapshot.
+     *
+     * @param handler the handler, which must not block
+     */
+    void setOverflowHandler(Consumer<Connection> handler) {
+        this.overflowHandler = handler;
+    }
+
+    /**
+     * Accepts output again after an overflow. The caller sends the state the client has
+     * missed next.
+     */
+    synchronized void resync() {
+        overflowed = false;
+    }
+
+    /**
+     * Stops watching a match, after the connection has fallen too far behind it, and
+     * sends {@code QUIT}.
+     *
+     * @param match the match the connection watches
+     * @return true if the connection has stopped watching, false if it did not watch the match
+     */
+    synchronized boolean unwatch(Match match) {
+        if (watched != match) {
+            return false;
+        }
+        watched = null;
+        overflowed = false;
+        send(Protocol.QUIT, 0, 0, 0);
+        commit();
+        return true;
+    }
+
+    /**
+     * Acknowledges the binary handshake and switches the connection to binary frames.
+     */
+    public synchronized void switchToBinary() {
+        if (!binary) {
+            writeLine(Protocol.BINARY_HANDSHAKE);
+            binary = true;
+            commit();
+        }
+    }
+
+    /**
+     * Checks if the connection uses the binary protocol.
+     *
+     * @return true if binary frames are exchanged, false for text lines
+     */
+    public synchronized boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Writes as much pending output as a non-blocking channel accepts.
+     *
+     * @param channel the channel of the client
+     * @return true if output is still pending, false if everything has been written
+     * @throws IOException if an I/O error occurs
+     */
+    protected synchronized boolean flushTo(WritableByteChannel channel) throws IOException {
+        flushScheduled = false;
+        if (writing != null) {
+            channel.write(writing);
+            if (writing.hasRemaining()) {
+                return true;
+            }
+            release(writing);
+        }
+        if (out.position() > 0) {
+            out.flip();
+            channel.write(out);
+            if (out.hasRemaining()) {
+                // Written in part: set it aside, so an overflow only drops whole messages.
+                writing = out;
+                out = spare != null ? spare : ByteBuffer.allocate(256);
+                spare = null;
+                return true;
+            }
+            out.clear();
+        }
+        ByteBuffer next;
+        while ((next = shared.poll()) != null) {
+            sharedBytes -= next.remaining();
+            channel.write(next);
+            if (next.hasRemaining()) {
+                writing = next;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ends the write of a buffer, keeping it for reuse unless it is a shared one.
+     *
+     * @param buffer the buffer which has been written
+     */
+    private void release(ByteBuffer buffer) {
+        writing = null;
+        if (!buffer.isReadOnly()) {
+            spare = buffer.clear();
+        }
+    }
+
+    /**
+     * Takes the pending output for a blocking write, leaving an empty buffer in its place,
+     * or else the next shared buffer, which is read-only and must not be reused.
+     * Once nothing is pending the scheduled flush ends.
+     *
+     * @param empty the cleared buffer which collects the following messages
+     * @return the pending output ready to be read, or null if nothing is pending
+     */
+    protected synchronized ByteBuffer takeOutput(ByteBuffer empty) {
+        if (out.position() == 0) {
+            ByteBuffer next = shared.poll();
+            if (next == null) {
+                flushScheduled = false;
+            } else {
+                sharedBytes -= next.remaining();
+            }
+            return next;
+        }
+        ByteBuffer pending = out;
+        out = empty;
+        pending.flip();
+        return pending;
+    }
+
+    /**
+     * Gets the match this connection is seated in.
+     *
+     * @return the match, or null if the connection is not seated yet
+     */
+    public Match getMatch() {
+        return match;
+    }
+
+    /**
+     * Gets the player number of this connection in its match.
+     *
+     * @return the player number (1 or 2), or 0 if the connection is not seated yet
+     */
+    public int getPlayer() {
+        return player;
+    }
+
+    /**
+     * Gets the id of the player of this connection in the {@link PlayerStats} of the server.
+     *
+     * @return the id, or -1 if the client has not sent {@code NAME}
+     */
+    public int getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets the id of the player of this connection in the {@link PlayerStats} of the server.
+     *
+     * @param profile the id
+     */
+    void setProfile(int profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Gets the match this connection watches.
+     *
+     * @return the match, or null if the connection does not watch a match
+     */
+    public synchronized Match getWatched() {
+        return watched;
+    }
+
+    /**
+     * Lets this connection watch a match instead of the one it watched before, unless it
+     * has been detached. Events of the previous match are refused from now on.
+     *
+     * @param match the match
+     * @return false if the connection has been detached, true otherwise
+     */
+    synchronized boolean watch(Match match) {
+        if (detached) {
+            return false;
+        }
+        watched = match;
+        return true;
+    }
+
+    /**
+     * Seats this connection in a match, unless it has been detached.
+     *
+     * @param match the match
+     * @param player the player number in the match
+     * @return false if the connection has been detached, true otherwise
+     */
+    synchronized boolean seat(Match match, int player) {
+        if (detached) {
+            return false;
+        }
+        this.player = player;
+        this.match = match;
+        return true;
+    }
+
+    /**
+     * Seats two paired connections in a match, unless either has been detached, in which
+     * case neither is seated. Only the pairing thread ever holds the locks of two
+     * connections, and a connection is paired once, so the nested locks cannot deadlock.
+     *
+     * @param match the match
+     * @param first the first connection
+     * @param firstPlayer its player number in the match
+     * @param second the second connection
+     * @param secondPlayer its player number in the match
+     * @return false if either connection has been detached, true otherwise
+     */
+    static boolean seat(Match match, Connection first, int firstPlayer, Connection second, int secondPlayer) {
+        synchronized (first) {
+            synchronized (second) {
+                if (first.detached || second.detached) {
+                    return false;
+                }
+                first.seat(match, firstPlayer);
+                second.seat(match, secondPlayer);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Marks this connection as queued for an opponent, once.
+     *
+     * @return true if the connection has just been marked, false if it was queued before
+     *         or has been detached
+     */
+    synchronized boolean queue() {
+        if (detached || queued) {
+            return false;
+        }
+        queued = true;
+        return true;
+    }
+
+    /**
+     * Checks if this connection has been queued for an opponent.
+     *
+     * @return true if the connection has been queued, false otherwise
+     */
+    boolean isQueued() {
+        return queued;
+    }
+
+    /**
+     * Detaches this connection from the server, so it can no longer be seated. Only the
+     * first call returns the match, so the connection leaves it once.
+     *
+     * @return the match the connection is seated in, or null if it is not seated yet or
+     *         has been detached before
+     */
+    synchronized Match detach() {
+        if (detached) {
+            return null;
+        }
+        detached = true;
+        watched = null;
+        return match;
+    }
+
+    /**
+     * Checks if this connection has been detached from the server.
+     *
+     * @return true if it has been detached, false otherwise
+     */
+    synchronized boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * Checks if a message fits in the pending output. If it does not, the output has
+     * overflowed: everything which has not started going out is dropped and the overflow
+     * handler is called.
+     *
+     * @param bytes the size of the message
+     * @return true if the message may be written, false if it is dropped
+     */
+    private boolean admit(int bytes) {
+        if (overflowed) {
+            return false;
+        }
+        if (out.position() + sharedBytes + bytes <= MAX_PENDING_BYTES) {
+            return true;
+        }
+        overflowed = true;
+        out.clear();
+        shared.clear();
+        sharedBytes = 0;
+        if (overflowHandler != null) {
+            overflowHandler.accept(this);
+        }
+        return false;
+    }
+
+    /**
+     * Encodes a text line into the outbound buffer.
+     *
+     * @param line the line to write, without line terminator
+     */
+    private void writeLine(String line) {
+        reserve(line.length() + 1);
+        for (int i = 0; i < line.length(); i++) {
+            out.put((byte) line.charAt(i));
+        }
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Makes room for the specified number of bytes in the outbound buffer.
+     *
+     * @param bytes the number of bytes about to be written
+     */
+    private void reserve(int bytes) {
+        if (out.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package game;
+import java.util.*;
+
+/**
+ * The ConsistentHashRing class maps keys, such as match ids, onto a changing set of nodes.
+ * <p>
+ * Every node is placed at {@link #REPLICAS} pseudo-random points of a 64-bit ring, and a
+ * key belongs to the node of the first point at or after the hash of the key. Adding a
+ * node therefore only moves the keys which fall just before its points, about 1/N of
+ * them, all to the new node, and removing a node only moves its own keys, spread over the
+ * others. The many points per node keep the share of each node within about a tenth of
+ * 1/N.
+ * <p>
+ * The points are kept in a sorted array, which a change of the nodes replaces as a whole,
+ * so lookups are a lock-free binary search and changes are rare and slow.
+ *
+ * @param <T> the type of the nodes, identified by their {@link Object#toString()}
+ */
+public class ConsistentHashRing<T> {
+    /**
+     * The number of points of each node.
+     */
+    public static final int REPLICAS = 160;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The points of the nodes, sorted, and the nodes which own them, in a single snapshot.
+     */
+    private record Points(long[] hashes, Object[] owners, List<Object> nodes) {
+    }
+
+    private volatile Points points = new Points(new long[0], new Object[0], List.of());
+
+    /**
+     * Constructs an empty ConsistentHashRing.
+     */
+    public ConsistentHashRing() {
+    }
+
+    /**
+     * Constructs a ConsistentHashRing with the specified nodes.
+     *
+     * @param nodes the nodes
+     */
+    public ConsistentHashRing(Collection<? extends T> nodes) {
+        setNodes(nodes);
+    }
+
+    /**
+     * Adds a node, which takes over about 1/N of the keys from the others.
+     *
+     * @param node the node
+     * @return true if the node was added, false if it was on the ring already
+     */
+    public synchronized boolean add(T node) {
+        if (points.nodes().contains(node)) {
+            return false;
+        }
+        List<Object> nodes = new ArrayList<>(points.nodes());
+        nodes.add(node);
+        rebuild(nodes);
+        return true;
+    }
+
+    /**
+     * Removes a node, whose keys are spread over the others.
+     *
+     * @param node the node
+     * @return true if the node was removed, false if it was not on the ring
+     */
+    public synchronized boolean remove(T node) {
+        List<Object> nodes = new ArrayList<>(points.nodes());
+        if (!nodes.remove(node)) {
+            return false;
+        }
+        rebuild(nodes);
+        return true;
+    }
+
+    /**
+     * Replaces the nodes. Only the keys of the nodes which are added or removed move.
+     *
+     * @param nodes the new nodes
+     */
+    public synchronized void setNodes(Collection<? extends T> nodes) {
+        List<Object> distinct = new ArrayList<>(new LinkedHashSet<>(nodes));
+        if (!distinct.equals(points.nodes())) {
+            rebuild(distinct);
+        }
+    }
+
+    /**
+     * Gets the node a key belongs to.
+     *
+     * @param key the key
+     * @return the node, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T nodeFor(long key) {
+        Points current = points;
+        long[] hashes = current.hashes();
+        if (hashes.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(hashes, mix(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return (T) current.owners()[index == hashes.length ? 0 : index];
+    }
+
+    /**
+     * Checks if a node is on the ring.
+     *
+     * @param node the node
+     * @return true if it is on the ring, false otherwise
+     */
+    public boolean contains(T node) {
+        return points.nodes().contains(node);
+    }
+
+    /**
+     * Gets the nodes, in the order they were added.
+     *
+     * @return an unmodifiable list of the nodes
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getNodes() {
+        return (List<T>) points.nodes();
+    }
+
+    /**
+     * Gets the number of nodes.
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        return points.nodes().size();
+    }
+
+    /**
+     * Places the points of the nodes and publishes them.
+     *
+     * @param nodes the nodes
+     */
+    private void rebuild(List<Object> nodes) {
+        int count = nodes.size() * REPLICAS;
+        long[] hashes = new long[count];
+        Integer[] order = new Integer[count];
+        for (int n = 0; n < nodes.size(); n++) {
+            long base = fnv(nodes.get(n).toString());
+            for (int r = 0; r < REPLICAS; r++) {
+                hashes[n * REPLICAS + r] = mix(base + r * 0x9e3779b97f4a7c15L);
+                order[n * REPLICAS + r] = n * REPLICAS + r;
+            }
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> hashes[i]));
+        long[] sorted = new long[count];
+        Object[] owners = new Object[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = hashes[order[i]];
+            owners[i] = nodes.get(order[i] / REPLICAS);
+        }
+        points = new Points(sorted, owners, List.copyOf(nodes));
+    }
+
+    /**
+     * Hashes the name of a node with 64-bit FNV-1a, which is stable across JVMs, so every
+     * process places a node at the same points.
+     *
+     * @param name the name of the node
+     * @return the hash
+     */
+    private static long fnv(String name) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of a key over the ring, so consecutive ids land far apart.
+     *
+     * @param key the key
+     * @return the position of the key on the ring
+     */
+    static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+}
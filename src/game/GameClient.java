@@ -0,0 +1,729 @@
+package game;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.*;
+
+/**
+ * The GameClient class is a headless, non-blocking client of the game server.
+ * <p>
+ * {@link #connect()}, {@link #sendMove(int, int)} and {@link #quit()} return futures
+ * instead of blocking, and the messages of the server arrive as events on a
+ * {@link GameClientListener}. The I/O runs on a shared {@link GameClientLoop}, so bots
+ * and test harnesses can run thousands of clients in one JVM. The client mirrors the
+ * board of its match in a {@link BitBoard}, so moves which cannot be legal are refused
+ * locally without a round trip. A client may also {@link #watch(int)} a match instead
+ * of playing.
+ * <p>
+ * With {@link #setReconnect(boolean)}, a player whose connection drops connects again
+ * with exponential backoff and resumes its seat with the token the server sent after its
+ * {@code ID}. The server sends only what the client has missed, so the listener sees the
+ * missing moves as usual, then {@link GameClientListener#onResumed}.
+ * <p>
+ * The client answers the heartbeat {@code PING} of the server by itself.
+ */
+public class GameClient {
+    private static final Logger logger = Logger.getLogger(GameClient.class.getName());
+
+    /**
+     * The maximum length of a single protocol line.
+     */
+    private static final int MAX_LINE = 256;
+
+    /**
+     * The delay before the first attempt to reconnect, doubled after every failed attempt.
+     */
+    private static final long RECONNECT_MIN_MILLIS = 100;
+
+    /**
+     * The longest delay between two attempts to reconnect.
+     */
+    private static final long RECONNECT_MAX_MILLIS = 5000;
+
+    private final String host;
+    private final int port;
+    private final GameClientListener listener;
+    private final GameClientLoop loop;
+    private final boolean requestBinary;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+    private ByteBuffer out = ByteBuffer.allocate(MAX_LINE);
+    private boolean flushScheduled;
+    private Runnable flushTask = this::flush;
+    private int[] message = new int[3];
+
+    private BitBoard board = new BitBoard();
+    private int boardSize = BitBoard.SIZE;
+    private int boardLength = BitBoard.SIZE;
+    private String name;
+    private boolean connecting;
+    private boolean spectating;
+    private int watched;
+    private int id;
+    private boolean binary;
+    private boolean finished;
+
+    /**
+     * The token which resumes the seat of the client, or null before it is seated.
+     */
+    private String token;
+
+    /**
+     * The number of games the client has seen end in its match.
+     */
+    private int games;
+    private boolean reconnect;
+    private boolean leaving;
+    private boolean resuming;
+    private int attempts;
+    private long reconnectDeadline;
+    private CompletableFuture<Boolean> pendingMove;
+    private final CompletableFuture<Integer> ready = new CompletableFuture<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+    /**
+     * Constructs a GameClient.
+     *
+     * @param host the host of the server
+     * @param port the port of the server
+     * @param listener the listener receiving the events of the server
+     * @param loop the loop running the I/O of the client
+     * @param requestBinary whether to ask the server for the binary protocol
+     */
+    public GameClient(String host, int port, GameClientListener listener, GameClientLoop loop, boolean requestBinary) {
+        this.host = host;
+        this.port = port;
+        this.listener = listener;
+        this.loop = loop;
+        this.requestBinary = requestBinary;
+    }
+
+    /**
+     * Connects to the server. The first message to the server names the player, if
+     * {@link #setName(String)} has been called, and the next asks for the board of
+     * {@link #requestBoard(int, int)}, the classic board by default, so the server queues
+     * the client without waiting for its greeting time to pass.
+     *
+     * @return a future completed with the player number once the client is seated and
+     *         the protocol is negotiated, or completed exceptionally if the connection fails
+     */
+    public CompletableFuture<Integer> connect() {
+        synchronized (this) {
+            connecting = true;
+            if (name != null) {
+                writeLine("NAME " + name);
+            }
+            write(Protocol.BOARD, boardSize, boardLength);
+        }
+        open();
+        return ready.copy();
+    }
+
+    /**
+     * Connects to the server to watch a match instead of playing. The listener receives
+     * the board and the marks of the current game, then the moves and results of the
+     * match as the players do. A match whose id does not fit in a frame, see
+     * {@link Protocol#MAX_FRAME_MATCH}, is watched in text even if the binary protocol
+     * was requested.
+     *
+     * @param match the id of the match, or 0 for the match opened last
+     * @return a future completed with 0 once the board of the match arrives, or completed
+     *         exceptionally if there is no such match or the connection fails
+     */
+    public CompletableFuture<Integer> watch(int match) {
+        synchronized (this) {
+            spectating = true;
+            watched = match;
+            if (requestBinary && match <= Protocol.MAX_FRAME_MATCH) {
+                // The server reads frames right after the request line, so the frame follows
+                // at once and the client is not queued as a player while the answer is on its way.
+                writeLine(Protocol.BINARY_HANDSHAKE);
+                reserve(Protocol.FRAME_SIZE);
+                Protocol.putFrame(out, Protocol.WATCH, 0, match >> 8, match & 0xFF);
+            } else {
+                write(Protocol.WATCH, match >> 8, match & 0xFF);
+            }
+        }
+        open();
+        return ready.copy();
+    }
+
+    /**
+     * Opens the connection on the loop and writes what has been queued before.
+     */
+    private void open() {
+        loop.execute(() -> {
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                if (channel.connect(new InetSocketAddress(host, port))) {
+                    key = loop.register(channel, SelectionKey.OP_READ, this);
+                    flush();
+                } else {
+                    key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException e) {
+                close(e);
+            }
+        });
+    }
+
+    /**
+     * Sets whether the client connects again and resumes its seat when its connection
+     * drops during a match. Attempts are spaced with exponential backoff and stop once the
+     * server no longer holds the seat; {@link GameClientListener#onReconnecting} is called
+     * before each of them.
+     *
+     * @param reconnect true to resume the match after a drop
+     */
+    public synchronized void setReconnect(boolean reconnect) {
+        this.reconnect = reconnect;
+    }
+
+    /**
+     * Asks the server to play a move.
+     *
+     * @param row the row of the move
+     * @param col the column of the move
+     * @return a future completed with true once the server broadcasts the move, or with
+     *         false if the move is refused, locally or by a WAIT from the server
+     */
+    public CompletableFuture<Boolean> sendMove(int row, int col) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        synchronized (this) {
+            int cell = board.indexOf(row, col);
+            if (!ready.isDone() || closed.isDone() || resuming || finished || pendingMove != null || !board.isLegal(id, cell)) {
+                result.complete(false);
+                return result;
+            }
+            pendingMove = result;
+            write(Protocol.MOVE, row, col);
+        }
+        return result;
+    }
+
+    /**
+     * Asks the server for a match against its bot instead of waiting for an opponent.
+     * It has no effect once the client has been paired.
+     */
+    public void playBot() {
+        synchronized (this) {
+            write(Protocol.BOT, 0, 0);
+        }
+    }
+
+    /**
+     * Asks the server for a match on another board instead of the classic one, either
+     * before {@link #connect()} or while waiting for an opponent. It has no effect once
+     * the client has been paired, and the board of the match arrives at
+     * {@link GameClientListener#onBoard} either way.
+     *
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     */
+    public void requestBoard(int size, int length) {
+        synchronized (this) {
+            boardSize = size;
+            boardLength = length;
+            if (connecting) {
+                write(Protocol.BOARD, size, length);
+            }
+        }
+    }
+
+    /**
+     * Sets the name of the player, which the server rates and ranks. It must be called
+     * before {@link #connect()}; the rating arrives at {@link GameClientListener#onRating}.
+     *
+     * @param name the name of the player
+     * @throws IllegalArgumentException if the server would refuse the name, see
+     *         {@link Protocol#isName(String)}
+     */
+    public synchronized void setName(String name) {
+        if (!Protocol.isName(name)) {
+            throw new IllegalArgumentException("Not a valid player name: " + name);
+        }
+        this.name = name;
+    }
+
+    /**
+     * Asks the server for the best move, which arrives at {@link GameClientListener#onHint}.
+     */
+    public void requestHint() {
+        synchronized (this) {
+            write(Protocol.HINT, 0, 0);
+        }
+    }
+
+    /**
+     * Asks the server for another game after a game has ended.
+     */
+    public void restart() {
+        synchronized (this) {
+            write(Protocol.RESTART, 0, 0);
+        }
+    }
+
+    /**
+     * Leaves the match.
+     *
+     * @return a future completed once the server has closed the connection
+     */
+    public CompletableFuture<Void> quit() {
+        synchronized (this) {
+            leaving = true;
+            if (!closed.isDone()) {
+                write(Protocol.QUIT, 0, 0);
+            }
+        }
+        return closed.copy();
+    }
+
+    /**
+     * Closes the connection without notifying the server.
+     */
+    public void close() {
+        synchronized (this) {
+            leaving = true;
+        }
+        loop.execute(() -> close(null));
+    }
+
+    /**
+     * Gets the future completed once the connection is closed.
+     *
+     * @return the future
+     */
+    public CompletableFuture<Void> closed() {
+        return closed.copy();
+    }
+
+    /**
+     * Gets the player number of this client.
+     *
+     * @return the player number (1 or 2), or 0 before the client is seated
+     */
+    public synchronized int getId() {
+        return id;
+    }
+
+    /**
+     * Checks if the client may move now, as far as it knows.
+     *
+     * @return true if it is the client's turn in a running game
+     */
+    public synchronized boolean isMyTurn() {
+        return ready.isDone() && !closed.isDone() && !resuming && !finished && pendingMove == null && board.getTurn() == id;
+    }
+
+    /**
+     * Gets the board of the match as seen by the client. It must only be read
+     * from listener callbacks, which run on the loop thread.
+     *
+     * @return the board
+     */
+    public BitBoard getBoard() {
+        return board;
+    }
+
+    /**
+     * Decodes a text message from the server.
+     *
+     * @param command the message line
+     * @param message the array receiving the player, row and column of the message
+     * @return the opcode of the message, or 0 if it is unknown
+     */
+    public static int decode(String command, int[] message) {
+        int opcode = Protocol.opcodeOf(command);
+        message[0] = 0;
+        message[1] = 0;
+        message[2] = 0;
+        if (opcode == Protocol.MOVE || opcode == Protocol.HINT) {
+            String[] parts = command.split(" ");
+            message[0] = Integer.parseInt(parts[1]);
+            message[1] = Integer.parseInt(parts[2]);
+            message[2] = Integer.parseInt(parts[3]);
+        } else if (opcode == Protocol.BOARD || opcode == Protocol.RATING) {
+            String[] parts = command.split(" ");
+            message[1] = Integer.parseInt(parts[1]);
+            message[2] = Integer.parseInt(parts[2]);
+        } else if (opcode == Protocol.ID || opcode == Protocol.WIN || opcode == Protocol.QUIT) {
+            int space = command.indexOf(' ');
+            if (space > 0) {
+                message[0] = Integer.parseInt(command.substring(space + 1));
+            }
+        }
+        return opcode;
+    }
+
+    /**
+     * Connects again and asks the server for the seat of the client, with the number of
+     * games and marks the client has seen. Runs on the loop thread.
+     */
+    private void resume() {
+        synchronized (this) {
+            if (leaving) {
+                loop.execute(() -> close(null));
+                return;
+            }
+            binary = false;
+            in.clear();
+            out.clear();
+            channel = null;
+            key = null;
+            writeLine("RESUME " + token + " " + games + " " + board.getMoves());
+        }
+        open();
+    }
+
+    /**
+     * Completes a pending connection. Runs on the loop thread.
+     */
+    void finishConnect() {
+        try {
+            channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            flush();
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /**
+     * Reads the available bytes and handles every complete message. Runs on the loop thread.
+     */
+    void read() {
+        try {
+            if (channel.read(in) < 0) {
+                close(null);
+                return;
+            }
+        } catch (IOException e) {
+            close(e);
+            return;
+        }
+        byte[] bytes = in.array();
+        int start = 0;
+        int end = in.position();
+        while (start < end && !closed.isDone()) {
+            if (binary) {
+                if (end - start < Protocol.FRAME_SIZE) {
+                    break;
+                }
+                handle(Protocol.opcode(bytes[start]), Protocol.player(bytes[start]),
+                    Protocol.arg(bytes[start + 1]), Protocol.arg(bytes[start + 2]));
+                start += Protocol.FRAME_SIZE;
+            } else {
+                int newline = start;
+                while (newline < end && bytes[newline] != '\n') {
+                    newline++;
+                }
+                if (newline == end) {
+                    break;
+                }
+                int length = newline > start && bytes[newline - 1] == '\r' ? newline - 1 - start : newline - start;
+                String line = new String(bytes, start, length, StandardCharsets.US_ASCII);
+                start = newline + 1;
+                handleLine(line);
+            }
+        }
+        if (start == 0 && !in.hasRemaining()) {
+            close(new IOException("Line too long"));
+            return;
+        }
+        in.limit(end);
+        in.position(start);
+        in.compact();
+    }
+
+    /**
+     * Handles a text line from the server.
+     *
+     * @param line the line
+     */
+    private void handleLine(String line) {
+        if (line.equals(Protocol.BINARY_HANDSHAKE)) {
+            boolean watching;
+            synchronized (this) {
+                binary = true;
+                watching = spectating;
+            }
+            if (!watching) {
+                ready();
+            }
+            return;
+        }
+        if (line.startsWith("RESUME ")) {
+            synchronized (this) {
+                token = line.substring(7);
+            }
+            return;
+        }
+        try {
+            int opcode = decode(line, message);
+            handle(opcode, message[0], message[1], message[2]);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Invalid message from server: " + line, e);
+        }
+    }
+
+    /**
+     * Updates the state of the client with a decoded message and notifies the listener.
+     *
+     * @param opcode the message type
+     * @param player the player the message refers to
+     * @param row the row of a move
+     * @param col the column of a move
+     */
+    private void handle(int opcode, int player, int row, int col) {
+        CompletableFuture<Boolean> move = null;
+        boolean accepted = false;
+        synchronized (this) {
+            switch (opcode) {
+                case Protocol.ID:
+                    id = player;
+                    if (requestBinary) {
+                        writeLine(Protocol.BINARY_HANDSHAKE);
+                    }
+                    break;
+                case Protocol.MOVE:
+                    int result = board.move(player, board.indexOf(row, col));
+                    finished = result == BitBoard.WIN || result == BitBoard.DRAW;
+                    if (player == id) {
+                        move = pendingMove;
+                        pendingMove = null;
+                        accepted = true;
+                    }
+                    break;
+                case Protocol.WAIT:
+                    move = pendingMove;
+                    pendingMove = null;
+                    break;
+                case Protocol.BOARD:
+                    board = new BitBoard(row, col);
+                    finished = false;
+                    break;
+                case Protocol.WIN:
+                case Protocol.DRAW:
+                    games++;
+                    break;
+                case Protocol.QUIT:
+                    // The match is over, or the seat could not be resumed.
+                    leaving = true;
+                    break;
+                case Protocol.PING:
+                    write(Protocol.PING, 0, 0);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (move != null) {
+            move.complete(accepted);
+        }
+        switch (opcode) {
+            case Protocol.ID:
+                if (!requestBinary) {
+                    ready();
+                }
+                break;
+            case Protocol.MOVE:
+                listener.onMove(this, player, row, col);
+                break;
+            case Protocol.WAIT:
+                listener.onWait(this);
+                break;
+            case Protocol.WIN:
+                resetBoard();
+                listener.onWin(this, player);
+                break;
+            case Protocol.DRAW:
+                resetBoard();
+                listener.onDraw(this);
+                break;
+            case Protocol.QUIT:
+                if (spectating && !ready.isDone()) {
+                    ready.completeExceptionally(new IOException("No match " + watched + " to watch"));
+                }
+                listener.onQuit(this, player);
+                break;
+            case Protocol.HINT:
+                listener.onHint(this, row, col);
+                break;
+            case Protocol.BOARD:
+                listener.onBoard(this, row, col);
+                if (spectating && !ready.isDone()) {
+                    ready();
+                }
+                break;
+            case Protocol.RATING:
+                listener.onRating(this, row, col);
+                break;
+            case Protocol.NAME:
+                listener.onNameRefused(this);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Completes the connection future and notifies the listener that the client is seated,
+     * or that it has its seat back after reconnecting.
+     */
+    private void ready() {
+        int player;
+        boolean resumed;
+        synchronized (this) {
+            player = id;
+            resumed = resuming;
+            resuming = false;
+            attempts = 0;
+        }
+        if (resumed) {
+            listener.onResumed(this);
+        } else {
+            ready.complete(player);
+            listener.onId(this, player);
+        }
+    }
+
+    /**
+     * Resets the board for the next game.
+     */
+    private synchronized void resetBoard() {
+        board.reset();
+        finished = false;
+    }
+
+    /**
+     * Encodes a command in the negotiated protocol and schedules a flush.
+     *
+     * @param opcode the command type
+     * @param a the first argument
+     * @param b the second argument
+     */
+    private void write(int opcode, int a, int b) {
+        if (binary) {
+            reserve(Protocol.FRAME_SIZE);
+            Protocol.putFrame(out, opcode, 0, a, b);
+            scheduleFlush();
+        } else {
+            writeLine(Protocol.toText(opcode, 0, a, b));
+        }
+    }
+
+    /**
+     * Encodes a text line and schedules a flush.
+     *
+     * @param line the line without terminator
+     */
+    private void writeLine(String line) {
+        reserve(line.length() + 1);
+        for (int i = 0; i < line.length(); i++) {
+            out.put((byte) line.charAt(i));
+        }
+        out.put((byte) '\n');
+        scheduleFlush();
+    }
+
+    /**
+     * Makes room for the specified number of bytes in the output buffer.
+     *
+     * @param bytes the number of bytes about to be written
+     */
+    private void reserve(int bytes) {
+        if (out.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+    }
+
+    /**
+     * Asks the loop to write the output buffer, unless it is already asked to.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            loop.execute(flushTask);
+        }
+    }
+
+    /**
+     * Writes as much output as the socket accepts. Runs on the loop thread.
+     */
+    synchronized void flush() {
+        flushScheduled = false;
+        if (key == null || !key.isValid() || !channel.isConnected()) {
+            return;
+        }
+        try {
+            out.flip();
+            channel.write(out);
+            boolean pending = out.hasRemaining();
+            out.compact();
+            key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        } catch (IOException e) {
+            loop.execute(() -> close(e));
+        }
+    }
+
+    /**
+     * Closes the channel and notifies the listener once. Runs on the loop thread.
+     *
+     * @param cause the error which closed the connection, or null
+     */
+    private void close(Throwable cause) {
+        if (closed.isDone()) {
+            return;
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing client channel", e);
+        }
+        CompletableFuture<Boolean> move;
+        long delay = -1;
+        int attempt = 0;
+        synchronized (this) {
+            move = pendingMove;
+            pendingMove = null;
+            if (reconnect && token != null && !leaving) {
+                long now = System.nanoTime();
+                if (attempts == 0) {
+                    reconnectDeadline = now + TimeUnit.MILLISECONDS.toNanos(GameServer.GRACE_MILLIS);
+                }
+                if (now - reconnectDeadline < 0) {
+                    delay = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_MIN_MILLIS << Math.min(attempts, 16));
+                    attempt = ++attempts;
+                    resuming = true;
+                }
+            }
+        }
+        if (move != null) {
+            move.complete(false);
+        }
+        if (delay >= 0) {
+            logger.fine("Connection lost, reconnecting in " + delay + " ms: " + cause);
+            listener.onReconnecting(this, attempt, delay);
+            Executor later = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, loop::execute);
+            later.execute(this::resume);
+            return;
+        }
+        ready.completeExceptionally(cause != null ? cause : new EOFException("Connection closed"));
+        closed.complete(null);
+        listener.onClosed(this, cause);
+    }
+}
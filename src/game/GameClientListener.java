@@ -0,0 +1,135 @@
+package game;
+
+/**
+ * The GameClientListener interface receives the events of a {@link GameClient}.
+ * <p>
+ * Callbacks run on the thread of the client's {@link GameClientLoop}, which serves many
+ * clients, so they must return quickly and must not block. Every method has an empty
+ * default implementation, so a listener only overrides the events it cares about.
+ * A single listener may serve many clients; the client is passed to every callback.
+ */
+public interface GameClientListener {
+    /**
+     * Called once the server has seated the client and the protocol has been negotiated.
+     *
+     * @param client the client
+     * @param player the player number of the client (1 or 2)
+     */
+    default void onId(GameClient client, int player) {
+    }
+
+    /**
+     * Called when the server answers the name of the player with its rating.
+     *
+     * @param client the client
+     * @param rating the Elo rating of the player
+     * @param rank the rank of the player on the leaderboard, starting at 1
+     */
+    default void onRating(GameClient client, int rating, int rank) {
+    }
+
+    /**
+     * Called when the server refuses the name of the player, because the statistics of
+     * the server are full. The client plays unrated.
+     *
+     * @param client the client
+     */
+    default void onNameRefused(GameClient client) {
+    }
+
+    /**
+     * Called when a match opens, right before {@link #onId}, with the board of the match.
+     * The board of the client has already been replaced by an empty board of that size.
+     *
+     * @param client the client
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     */
+    default void onBoard(GameClient client, int size, int length) {
+    }
+
+    /**
+     * Called when the server broadcasts a move, after it has been applied to the board of the client.
+     *
+     * @param client the client
+     * @param player the player who moved
+     * @param row the row of the move
+     * @param col the column of the move
+     */
+    default void onMove(GameClient client, int player, int row, int col) {
+    }
+
+    /**
+     * Called when the server answers a hint request with the best move.
+     *
+     * @param client the client
+     * @param row the row of the best move
+     * @param col the column of the best move
+     */
+    default void onHint(GameClient client, int row, int col) {
+    }
+
+    /**
+     * Called when the server rejects a move or a hint request because it is not the client's turn.
+     *
+     * @param client the client
+     */
+    default void onWait(GameClient client) {
+    }
+
+    /**
+     * Called when a game has been won. The board of the client is already reset for the next game.
+     *
+     * @param client the client
+     * @param winner the winning player
+     */
+    default void onWin(GameClient client, int winner) {
+    }
+
+    /**
+     * Called when a game has ended in a draw. The board of the client is already reset for the next game.
+     *
+     * @param client the client
+     */
+    default void onDraw(GameClient client) {
+    }
+
+    /**
+     * Called when a player has left the match. The match is over.
+     *
+     * @param client the client
+     * @param player the player who left
+     */
+    default void onQuit(GameClient client, int player) {
+    }
+
+    /**
+     * Called when the connection of a player has dropped and the client is about to
+     * connect again to resume its seat, if {@link GameClient#setReconnect(boolean)} is on.
+     *
+     * @param client the client
+     * @param attempt the number of the attempt, starting at 1
+     * @param delayMillis the time until the attempt
+     */
+    default void onReconnecting(GameClient client, int attempt, long delayMillis) {
+    }
+
+    /**
+     * Called when the client has its seat back after reconnecting. The moves it missed
+     * have been passed to {@link #onMove} before, or to {@link #onBoard} and then
+     * {@link #onMove} if its board had to be rebuilt.
+     *
+     * @param client the client
+     */
+    default void onResumed(GameClient client) {
+    }
+
+    /**
+     * Called once when the connection is closed.
+     *
+     * @param client the client
+     * @param cause the error which closed the connection, or null if it was closed normally
+     */
+    default void onClosed(GameClient client, Throwable cause) {
+    }
+}
@@ -0,0 +1,113 @@
+package game;
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.*;
+
+/**
+ * The GameClientLoop class runs the I/O of many {@link GameClient}s on a single thread.
+ * It owns a Selector, so thousands of clients in one JVM need neither a thread nor a
+ * blocking socket each.
+ */
+public class GameClientLoop implements Runnable, AutoCloseable {
+    private static final Logger logger = Logger.getLogger(GameClientLoop.class.getName());
+
+    private Selector selector;
+    private Thread thread;
+    private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a GameClientLoop and starts its daemon thread.
+     *
+     * @param name the name of the thread
+     * @throws IOException if the selector cannot be opened
+     */
+    public GameClientLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs a task on the loop thread.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Checks if the calling thread is the loop thread.
+     *
+     * @return true on the loop thread, false otherwise
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Registers a channel of a client with the selector. Must run on the loop thread.
+     *
+     * @param channel the channel
+     * @param ops the interest set
+     * @param client the client owning the channel
+     * @return the selection key
+     * @throws ClosedChannelException if the channel is closed
+     */
+    SelectionKey register(SelectableChannel channel, int ops, GameClient client) throws ClosedChannelException {
+        return channel.register(selector, ops, client);
+    }
+
+    /**
+     * Runs the selector loop.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    GameClient client = (GameClient) key.attachment();
+                    if (key.isValid() && key.isConnectable()) {
+                        client.finishConnect();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        client.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        client.flush();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.SEVERE, "Error in client loop", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the loop and closes its selector. Open clients are not closed gracefully.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+            selector.close();
+        } catch (IOException | InterruptedException e) {
+            logger.log(Level.FINE, "Error closing client loop", e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package game;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.*;
+
+/**
+ * The GameLoops class runs the matches of the server on a fixed set of single-threaded
+ * game loops, by default one per core.
+ * <p>
+ * Every match is hashed by its id to one loop, which applies all the commands of the
+ * match one after the other: the moves and hints of its players, their arrivals and
+ * departures, its spectators, its clock and the answers of its bot. The state of a match
+ * is therefore only ever touched by one thread, and needs no lock. The threads which read
+ * from the clients only decode commands and hand them to the loop of their match, so they
+ * never wait on each other, and matches on different loops run in parallel.
+ * <p>
+ * A loop takes its tasks from a lock-free queue and parks when it is empty. Tasks must be
+ * short and must not block, as every match of the loop waits for them.
+ */
+public class GameLoops implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(GameLoops.class.getName());
+
+    private final Loop[] loops;
+
+    /**
+     * Constructs GameLoops and starts their threads.
+     *
+     * @param name the prefix of the names of the threads
+     * @param count the number of loops, or 0 to run every task on the thread which submits
+     *              it, for a caller which drives the server from a single thread
+     */
+    public GameLoops(String name, int count) {
+        this.loops = new Loop[count];
+        for (int i = 0; i < count; i++) {
+            loops[i] = new Loop(name + "-" + i);
+        }
+    }
+
+    /**
+     * Gets the loops shared by the whole server, one per core.
+     *
+     * @return the shared loops
+     */
+    public static GameLoops shared() {
+        return Holder.LOOPS;
+    }
+
+    /**
+     * Holds the shared loops, so they are started when they are first used.
+     */
+    private static final class Holder {
+        static final GameLoops LOOPS = new GameLoops("game-loop", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Gets the loop of a match. Ids are handed out in sequence, so consecutive matches go
+     * to consecutive loops.
+     *
+     * @param matchId the id of the match
+     * @return the executor running the tasks of the match in order
+     */
+    public Executor loopOf(int matchId) {
+        if (loops.length == 0) {
+            return Runnable::run;
+        }
+        return loops[Math.floorMod(matchId, loops.length)];
+    }
+
+    /**
+     * Gets the number of loops.
+     *
+     * @return the number of loops, or 0 if tasks run on the threads which submit them
+     */
+    public int size() {
+        return loops.length;
+    }
+
+    /**
+     * Stops the loops once they have run the tasks already submitted.
+     */
+    @Override
+    public void close() {
+        for (Loop loop : loops) {
+            loop.running = false;
+            LockSupport.unpark(loop.thread);
+        }
+    }
+
+    /**
+     * The Loop class is a single thread running the tasks of its matches in order.
+     */
+    private static final class Loop implements Executor {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Whether the thread is parked or about to park, so a new task must wake it.
+         */
+        private final AtomicBoolean idle = new AtomicBoolean();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        /**
+         * Constructs a Loop and starts its thread.
+         *
+         * @param name the name of the thread
+         */
+        Loop(String name) {
+            this.thread = Thread.ofPlatform().name(name).daemon().start(this::run);
+        }
+
+        /**
+         * Queues a task, and wakes the thread if it is idle.
+         *
+         * @param task the task
+         */
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            if (idle.get() && idle.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /**
+         * Runs the queued tasks, and parks whenever there are none.
+         */
+        private void run() {
+            while (running || !tasks.isEmpty()) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "Game loop task failed", e);
+                    }
+                }
+                idle.set(true);
+                // A task queued before the flag was set would not wake the thread.
+                if (tasks.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                idle.set(false);
+            }
+        }
+    }
+}
@@ -1,60 +1,200 @@
 package game;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
 import java.util.logging.*;
 
 /**
- * The GameServer class represents a server for a two-player game.
- * It handles client connections, game state, and communication between clients.
+ * The GameServer class represents a server for two-player games.
+ * It hosts many independent matches at once. Incoming clients are queued in a
+ * {@link Matchmaker}, which pairs every two of them into a new match. The game protocol is handled here independently of the
+ * transport, which is either the blocking thread-per-connection transport of
+ * {@link #start()} or the non-blocking {@link NioServer}. Clients may also watch
+ * a match instead of playing.
+ * <p>
+ * The threads of the transport only decode commands. Every command for a match is handed
+ * to the {@link GameLoops} loop of the match, which applies the commands of its matches
+ * one at a time, so the state of a match is never shared between threads.
+ * <p>
+ * A player whose connection drops keeps its seat for {@link #GRACE_MILLIS} and may take
+ * it back on a new connection with the resume token it received after its {@code ID}.
+ * Only a {@code QUIT}, or the end of the grace period, ends the match.
+ * <p>
+ * Held seats, the heartbeats of the connections and the turn clocks of the matches all
+ * run on the shared {@link HashedWheelTimer}, with one timeout per connection and per
+ * match at a time. A client which stops answering {@code PING} is disconnected, which
+ * also frees a blocking handler stuck reading from it.
+ * <p>
+ * No client can hold up another: the output of every connection is bounded, and a client
+ * which reads too slowly to keep up is dealt with by the {@link Backpressure} policy of
+ * the players or of the spectators.
  */
 public class GameServer {
     private static final Logger logger = Logger.getLogger(GameServer.class.getName());
 
+    /**
+     * The time a new client has to ask for a board before it is queued for the classic one.
+     */
+    public static final int GREETING_MILLIS = 100;
+
+    /**
+     * The most bytes a blocking handler reads ahead while it waits for the greeting.
+     */
+    private static final int MAX_GREETING_BYTES = 4096;
+
+    /**
+     * The number of players listed by {@code TOP} without a count.
+     */
+    private static final int DEFAULT_TOP = 10;
+
+    /**
+     * The most players listed by {@code TOP}.
+     */
+    private static final int MAX_TOP = 100;
+
+    /**
+     * The rating range of a matchmaking bucket.
+     */
+    private static final int RATING_BUCKET = 100;
+
+    /**
+     * The waiting time after which a player may be paired from a neighbouring rating bucket.
+     */
+    private static final long WIDEN_MILLIS = 2000;
+
+    /**
+     * The time the seat of a player whose connection has dropped is held for it.
+     */
+    public static final long GRACE_MILLIS = 30_000;
+
+    /**
+     * The interval between two checks of a connection. A client which has sent nothing
+     * for one interval gets {@code PING}, and is disconnected if it has not answered by
+     * the next.
+     */
+    public static final long HEARTBEAT_MILLIS = 15_000;
+
+    /**
+     * What is done with a client whose pending output has overflowed
+     * {@link Connection#MAX_PENDING_BYTES}. Its pending output has been dropped already.
+     */
+    public enum Backpressure {
+        /**
+         * A spectator stops watching and gets {@code QUIT}. A player cannot miss events
+         * and stay in its game, so it is disconnected instead.
+         */
+        DROP,
+        /**
+         * The connection is closed. A player keeps its seat and may resume the match
+         * with exactly what it has missed.
+         */
+        DISCONNECT,
+        /**
+         * The client gets the latest state of its match in place of what it has missed:
+         * the {@code BOARD} and every mark of the current game. Results of the games which
+         * have ended meanwhile are skipped.
+         */
+        COALESCE
+    }
+
     private ServerSocket serverSocket;
-    private Set<PrintWriter> writers = new HashSet<>();
-    private Map<Integer, Handler> player2Handlers = new HashMap<>();
-    
-    private int[][] board = new int[3][3];
-    private boolean isPlayer1Turn = true;
-    private int clientCount = 0;
+    private ExecutorService executor;
+    private Executor flusher;
+    private GameLoops loops = GameLoops.shared();
+    private Map<Integer, Match> matches = new ConcurrentHashMap<>();
+    private AtomicInteger nextMatchId = new AtomicInteger(1);
+
+    /**
+     * The number of this server in its {@link NodeList}, or -1 unless it is a node behind
+     * a {@link Gateway}.
+     */
+    private int node = -1;
+
+    /**
+     * The matchmakers of the board variants, keyed by {@link #variant(int, int)}. Players
+     * are only paired with players who asked for the same board.
+     */
+    private Map<Integer, Matchmaker> matchmakers = new ConcurrentHashMap<>();
+    private Matchmaker matchmaker = matchmakerOf(BitBoard.SIZE, BitBoard.SIZE);
+    private GameServerMetrics metrics = new GameServerMetrics(this::getMatchCount, this::getJournalDropped);
+    private MatchJournal journal;
+    private PlayerStats stats = new PlayerStats(PlayerStats.DEFAULT_CAPACITY);
+    private SessionTokens tokens = new SessionTokens();
+    private boolean sharedTokens;
+    private volatile Backpressure playerBackpressure = Backpressure.DISCONNECT;
+    private volatile Backpressure spectatorBackpressure = Backpressure.DROP;
+
+    /**
+     * Constructs a GameServer without a ServerSocket, for use with another transport.
+     */
+    public GameServer() {
+    }
+
+    /**
+     * Constructs a GameServer without a ServerSocket whose matches run on the specified
+     * game loops.
+     *
+     * @param loops the game loops of the matches
+     */
+    public GameServer(GameLoops loops) {
+        this.loops = loops;
+    }
 
     /**
-     * Constructs a GameServer with the specified ServerSocket.
+     * Constructs a GameServer with the specified ServerSocket, running its handlers
+     * on a fixed pool of 100 platform threads.
      * 
      * @param serverSocket the ServerSocket to accept client connections
      */
     public GameServer(ServerSocket serverSocket) {
+        this(serverSocket, Executors.newFixedThreadPool(100));
+    }
+
+    /**
+     * Constructs a GameServer with the specified ServerSocket and handler executor.
+     * Outbound writes run on a cached thread pool.
+     * 
+     * @param serverSocket the ServerSocket to accept client connections
+     * @param executor the executor running one Handler per client
+     */
+    public GameServer(ServerSocket serverSocket, ExecutorService executor) {
+        this(serverSocket, executor, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Constructs a GameServer with the specified ServerSocket, handler executor and writer executor.
+     * 
+     * @param serverSocket the ServerSocket to accept client connections
+     * @param executor the executor running one Handler per client, e.g. a virtual thread per task executor
+     * @param flusher the executor writing the outbound batches of the handlers
+     */
+    public GameServer(ServerSocket serverSocket, ExecutorService executor, Executor flusher) {
         this.serverSocket = serverSocket;
+        this.executor = executor;
+        this.flusher = flusher;
     }
 
     /**
      * Starts the game server to accept client connections and handle game logic.
      */
     public void start() {
-        var pool = Executors.newFixedThreadPool(100);
-        int currentPlayer = 1;
         while (true) {
             try {
                 Socket socket = serverSocket.accept();
-                if(clientCount < 2) {
-                    if(player2Handlers.isEmpty() || player2Handlers.get(1) == null) {
-                        currentPlayer = 1;
-                    } else {
-                        currentPlayer = 2;
-                    }
-                    Handler handler = new Handler(socket, currentPlayer);
-                    pool.execute(handler);
-                    player2Handlers.put(currentPlayer, handler);
-                    clientCount++;
-                    logger.info("Connected to client " + currentPlayer);
-                } else {
-                    PrintWriter output = new PrintWriter(socket.getOutputStream(), true);
-                    output.println("BUSY");
-                    socket.close();
-                }
+                executor.execute(new Handler(socket));
             } catch (IOException e) {
                 logger.log(Level.SEVERE, "Error in server socket", e);
                 e.printStackTrace();
@@ -63,163 +203,950 @@ public class GameServer {
     }
 
     /**
-     * The Handler class handles communication with a single client.
+     * Queues a new connection for an opponent of similar rating on the classic board.
+     * <p>
+     * Every transport calls this once {@link #GREETING_MILLIS} have passed since a new
+     * client connected, whatever it has sent meanwhile, and the first command of a client
+     * queues it too, unless the command names the player, chooses a board or the bot, or
+     * watches a match. A connection which has been queued before, e.g. by {@code BOARD},
+     * {@code BOT}, {@code WATCH} or {@code RESUME}, is left alone.
+     *
+     * @param connection the connection of the new client
      */
-    public class Handler implements Runnable {
+    public void connect(Connection connection) {
+        connect(connection, skillOf(connection));
+    }
+
+    /**
+     * Queues a new connection for an opponent of similar skill on the classic board.
+     * The client receives its board and ID once it has been paired.
+     *
+     * @param connection the connection of the new client
+     * @param skill the skill of the player, e.g. its rating
+     */
+    public void connect(Connection connection, int skill) {
+        if (connection.queue()) {
+            matchmaker.enqueue(connection, skill);
+        }
+    }
+
+    /**
+     * Queues a connection for an opponent on another board, or moves it there if it is
+     * still waiting in another queue. The board is confirmed to the client when its match
+     * opens. An invalid board queues a new connection for the classic board.
+     *
+     * @param connection the connection asking for the board
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     */
+    private void chooseBoard(Connection connection, int size, int length) {
+        if (!BitBoard.isValid(size, length)) {
+            connect(connection);
+        } else if (connection.queue() || dequeue(connection) != 0) {
+            matchmakerOf(size, length).enqueue(connection, skillOf(connection));
+        }
+    }
+
+    /**
+     * Gets the matchmaker of a board variant, creating it on first use.
+     *
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @return the matchmaker
+     */
+    private Matchmaker matchmakerOf(int size, int length) {
+        return matchmakers.computeIfAbsent(variant(size, length),
+            key -> new Matchmaker((waiting, arriving) -> open(waiting, arriving, size, length),
+                RATING_BUCKET, PlayerStats.MAX_RATING / RATING_BUCKET + 1, WIDEN_MILLIS));
+    }
+
+    /**
+     * Gets the skill by which a connection is paired: the rating of its player, or the
+     * initial rating if the client has not sent {@code NAME}.
+     *
+     * @param connection the connection
+     * @return the skill
+     */
+    private int skillOf(Connection connection) {
+        int profile = connection.getProfile();
+        return profile < 0 ? PlayerStats.INITIAL_RATING : stats.getRating(profile);
+    }
+
+    /**
+     * Looks up or registers the player of a connection and answers with the rating and
+     * rank of the player. The client is not queued, so its board request may follow. A
+     * name which is not {@link Protocol#isName(String) valid}, or which cannot be added
+     * because the statistics are full, is answered with {@code NAME} alone.
+     *
+     * @param connection the connection which sent {@code NAME}
+     * @param name the name of the player
+     */
+    private void identify(Connection connection, String name) {
+        int profile = Protocol.isName(name) ? stats.login(name) : -1;
+        if (profile >= 0) {
+            connection.setProfile(profile);
+        }
+        if (!connection.isBinary()) {
+            if (profile < 0) {
+                connection.send(Protocol.NAME, 0, 0, 0);
+            } else {
+                connection.send(Protocol.RATING, 0, stats.getRating(profile), stats.getRank(profile));
+            }
+            connection.commit();
+        }
+    }
+
+    /**
+     * Answers with the best players, highest rating first: {@code TOP n} with the number
+     * of players listed, then {@code PLAYER rank rating name} for each of them. The client
+     * is not queued, like by {@code NAME}.
+     *
+     * @param connection the connection which sent {@code TOP}
+     * @param k the number of players asked for, at most {@link #MAX_TOP} are listed
+     */
+    private void leaders(Connection connection, int k) {
+        if (connection.isBinary()) {
+            return;
+        }
+        int[] ids = stats.top(Math.max(0, Math.min(k, MAX_TOP)));
+        connection.sendLine("TOP " + ids.length);
+        for (int id : ids) {
+            connection.sendLine("PLAYER " + stats.getRank(id) + " " + stats.getRating(id) + " " + stats.getName(id));
+        }
+        connection.commit();
+    }
+
+    /**
+     * Gets the key of a board variant.
+     *
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @return the key
+     */
+    private static int variant(int size, int length) {
+        return size << 8 | length;
+    }
+
+    /**
+     * Removes a connection from the queue it is waiting in.
+     *
+     * @param connection the connection
+     * @return the variant of the queue the connection was waiting in, or 0 if it has been paired
+     */
+    private int dequeue(Connection connection) {
+        for (Map.Entry<Integer, Matchmaker> queue : matchmakers.entrySet()) {
+            if (queue.getValue().cancel(connection)) {
+                return queue.getKey();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Opens a match for two paired connections and sends both clients the board and their ID.
+     *
+     * @param waiting the connection which has waited longer, seated as player 1
+     * @param arriving the other connection, seated as player 2
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @return false if either connection has gone meanwhile, true otherwise
+     */
+    private boolean open(Connection waiting, Connection arriving, int size, int length) {
+        Match match = newMatch(allocateMatchId(), size, length);
+        // Both join before either is seated, as a seated client may send commands to the loop at once.
+        int first = match.join(waiting);
+        int second = match.join(arriving);
+        // A sweep pairs two waiting connections, either of which may be closing, so both are seated or neither.
+        if (!Connection.seat(match, waiting, first, arriving, second)) {
+            return false;
+        }
+        journal(Protocol.BOARD, match.getId(), 0, size, length);
+        matches.put(match.getId(), match);
+        match.execute(match::start);
+        welcome(waiting, match);
+        welcome(arriving, match);
+        logger.info("Opened match " + match.getId() + " on a " + size + "x" + size + " board");
+        return true;
+    }
+
+    /**
+     * Takes the next match id of this server. The ids of a node are its number plus a
+     * multiple of {@link NodeList#MAX_NODES}.
+     *
+     * @return the id of a new match
+     */
+    private int allocateMatchId() {
+        int sequence = nextMatchId.getAndIncrement();
+        return node < 0 ? sequence : sequence * NodeList.MAX_NODES + node;
+    }
+
+    /**
+     * Constructs a match which runs on the game loop of its id.
+     *
+     * @param id the id of the match
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @return the match
+     */
+    private Match newMatch(int id, int size, int length) {
+        return new Match(id, size, length, metrics, journal, stats, loops.loopOf(id));
+    }
+
+    /**
+     * Sends a newly seated client the board of its match, its ID and the token which
+     * resumes its seat.
+     *
+     * @param connection the connection of the client
+     * @param match the match of the client
+     */
+    private void welcome(Connection connection, Match match) {
+        connection.send(Protocol.BOARD, 0, match.getSize(), match.getLength());
+        connection.send(Protocol.ID, connection.getPlayer(), 0, 0);
+        connection.sendLine("RESUME " + tokens.issue(match.getId(), connection.getPlayer(), connection.getProfile()));
+        connection.commit();
+    }
+
+    /**
+     * Takes a connection out of the matchmaking queue and opens a match against the
+     * server-side bot, on the board the connection was waiting for. A connection which
+     * has already been paired keeps its match.
+     *
+     * @param connection the connection asking for the bot
+     */
+    private void playBot(Connection connection) {
+        int variant = connection.queue() ? variant(BitBoard.SIZE, BitBoard.SIZE) : dequeue(connection);
+        if (variant == 0) {
+            return;
+        }
+        Match match = newMatch(allocateMatchId(), variant >> 8, variant & 0xFF);
+        match.addBot();
+        if (!connection.seat(match, match.join(connection))) {
+            return;
+        }
+        journal(Protocol.BOARD, match.getId(), 0, match.getSize(), match.getLength());
+        journal(Protocol.BOT, match.getId(), 2, 0, 0);
+        matches.put(match.getId(), match);
+        match.execute(match::start);
+        welcome(connection, match);
+        logger.info("Opened match " + match.getId() + " against the bot");
+    }
+
+    /**
+     * Lets a connection watch a match instead of playing. A connection still waiting for
+     * an opponent leaves its queue and stays a spectator from then on, and may watch
+     * another match later. A seated player is answered with {@code WAIT}, and a match
+     * which does not exist with {@code QUIT}.
+     *
+     * @param connection the connection asking to watch
+     * @param id the id of the match, or 0 for the match opened last
+     */
+    private void watch(Connection connection, int id) {
+        if (connection.getMatch() != null
+                || !connection.queue() && connection.getWatched() == null && dequeue(connection) == 0) {
+            connection.send(Protocol.WAIT, 0, 0, 0);
+            connection.commit();
+            return;
+        }
+        Match match = matches.get(id == 0 ? newestMatchId() : id);
+        if (match == null) {
+            connection.send(Protocol.QUIT, 0, 0, 0);
+            connection.commit();
+        } else if (connection.watch(match)) {
+            match.execute(() -> match.watch(connection));
+        }
+    }
+
+    /**
+     * Seats a new connection again in the match named by a resume token, and sends it
+     * what it has missed. A token which is not valid, or whose match has ended, is
+     * answered with {@code QUIT}, and a connection which has been queued before with
+     * {@code WAIT}. The match is checked on its game loop before the connection is
+     * claimed, so a match which has closed but is not removed yet leaves the connection
+     * unseated and free to be queued, as an unknown match does.
+     *
+     * @param connection the new connection of the player
+     * @param token the resume token
+     * @param games the number of games the client has seen end in the match
+     * @param moves the number of marks on the board of the client
+     */
+    private void resume(Connection connection, String token, int games, int moves) {
+        SessionTokens.Session session = tokens.verify(token);
+        Match match = session == null ? null : matches.get(session.match());
+        if (match == null) {
+            connection.send(Protocol.QUIT, 0, 0, 0);
+            connection.commit();
+            return;
+        }
+        match.execute(() -> {
+            if (!match.canRejoin(session.player())) {
+                connection.send(Protocol.QUIT, 0, 0, 0);
+                connection.commit();
+            } else if (!connection.queue()) {
+                connection.send(Protocol.WAIT, 0, 0, 0);
+                connection.commit();
+            } else {
+                connection.setProfile(session.profile());
+                if (connection.seat(match, session.player())) {
+                    match.rejoin(session.player(), connection, games, moves);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ends the match of a player who has sent {@code QUIT}.
+     *
+     * @param connection the connection of the player
+     */
+    private void leave(Connection connection) {
+        Match match = connection.detach();
+        if (match != null) {
+            int player = connection.getPlayer();
+            match.execute(() -> match.leave(player));
+            matches.remove(match.getId());
+        }
+    }
+
+    /**
+     * Ends the match of a player whose seat has been held for it, unless it has come back.
+     *
+     * @param match the match
+     * @param player the player who is away
+     */
+    private void expire(Match match, int player) {
+        match.execute(() -> {
+            if (match.expire(player)) {
+                matches.remove(match.getId());
+                logger.info("Player " + player + " has not come back to match " + match.getId());
+            }
+        });
+    }
+
+    /**
+     * Asks the timer to end the match once the grace period of a held seat has passed.
+     *
+     * @param match the match
+     * @param player the player who is away
+     */
+    private void scheduleExpiry(Match match, int player) {
+        HashedWheelTimer.shared().schedule(() -> expire(match, player), GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the deadline of a seat held from now on.
+     *
+     * @return the {@link System#nanoTime()} at which the grace period ends
+     */
+    private static long graceDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS);
+    }
+
+    /**
+     * Gets the id of the match opened last.
+     *
+     * @return the id, or 0 if there are no matches
+     */
+    private int newestMatchId() {
+        int newest = 0;
+        for (int id : matches.keySet()) {
+            newest = Math.max(newest, id);
+        }
+        return newest;
+    }
+
+    /**
+     * Rebuilds the matches which were in progress when the server stopped from their
+     * journal, and journals the matches of this run to it. Call it before starting the
+     * transport.
+     * <p>
+     * The journal is first compacted to the events of the matches still in progress:
+     * their opening, their bot seat and the moves of their current game. The compacted
+     * journal replaces the old one atomically and is then replayed into new matches, which
+     * keep their ids. A rebuilt match holds the seats of its players for
+     * {@link #GRACE_MILLIS}, so they can resume it with their tokens; a bot whose answer was
+     * lost is asked again. Unless the tokens are shared, see {@link #setTokens(SessionTokens)},
+     * their secret is kept beside the journal, in a file with the suffix {@code .key}.
+     *
+     * @param path the file of the journal, created if it does not exist
+     * @param sync the policy for forcing the journal to the device
+     * @return the number of matches rebuilt
+     * @throws IOException if the journal cannot be read or written
+     */
+    public int recover(Path path, MatchJournal.Sync sync) throws IOException {
+        Map<Integer, List<Long>> openings = new TreeMap<>();
+        Map<Integer, List<Long>> games = new HashMap<>();
+        int[] lastId = {0};
+        long records = MatchJournal.replay(path, (opcode, id, player, a, b) -> {
+            long record = MatchJournal.record(opcode, id, player, a, b);
+            if (opcode == Protocol.BOARD) {
+                openings.put(id, new ArrayList<>(List.of(record)));
+                games.put(id, new ArrayList<>());
+                lastId[0] = Math.max(lastId[0], id);
+            } else if (!openings.containsKey(id)) {
+                return;
+            } else if (opcode == Protocol.BOT) {
+                openings.get(id).add(record);
+            } else if (opcode == Protocol.MOVE) {
+                games.get(id).add(record);
+            } else if (opcode == Protocol.WIN || opcode == Protocol.DRAW) {
+                games.get(id).clear();
+            } else if (opcode == Protocol.QUIT) {
+                openings.remove(id);
+                games.remove(id);
+            }
+        });
+        List<Long> compacted = new ArrayList<>();
+        for (Map.Entry<Integer, List<Long>> opening : openings.entrySet()) {
+            compacted.addAll(opening.getValue());
+            compacted.addAll(games.get(opening.getKey()));
+        }
+        MatchJournal.rewrite(path, compacted);
+        if (!sharedTokens) {
+            tokens = SessionTokens.open(path.resolveSibling(path.getFileName() + ".key"));
+        }
+        journal = new MatchJournal(path, sync);
+        nextMatchId.set((node < 0 ? lastId[0] : lastId[0] / NodeList.MAX_NODES) + 1);
+        MatchJournal.replay(path, (opcode, id, player, a, b) -> {
+            if (opcode == Protocol.BOARD && BitBoard.isValid(a, b)) {
+                matches.put(id, newMatch(id, a, b));
+            } else if (opcode == Protocol.BOT && matches.containsKey(id)) {
+                matches.get(id).addBot();
+            } else if (opcode == Protocol.MOVE && matches.containsKey(id)) {
+                matches.get(id).replay(player, a, b);
+            }
+        });
+        long deadline = graceDeadline();
+        for (Match match : matches.values()) {
+            match.execute(() -> {
+                match.resume();
+                match.holdSeats(deadline);
+            });
+            scheduleExpiry(match, 1);
+            scheduleExpiry(match, 2);
+        }
+        logger.info("Recovered " + matches.size() + " matches from " + records + " journal records in " + path);
+        return matches.size();
+    }
+
+    /**
+     * Replaces the player statistics on the heap with statistics kept in a file, which
+     * survive a restart. Call it before starting the transport.
+     *
+     * @param path the file of the statistics, created if it does not exist
+     * @throws IOException if the file cannot be opened
+     */
+    public void openStats(Path path) throws IOException {
+        stats = new PlayerStats(path, PlayerStats.DEFAULT_CAPACITY);
+        logger.info("Loaded " + stats.size() + " players from " + path);
+    }
+
+    /**
+     * Gets the player statistics of the server.
+     *
+     * @return the statistics
+     */
+    public PlayerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Gets the journal of the server.
+     *
+     * @return the journal, or null if the matches are not journaled
+     */
+    public MatchJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Appends an event to the journal, if there is one.
+     *
+     * @param opcode the event
+     * @param match the id of the match
+     * @param player the player the event refers to, or 0
+     * @param a the first argument, or 0
+     * @param b the second argument, or 0
+     */
+    private void journal(int opcode, int match, int player, int a, int b) {
+        if (journal != null) {
+            journal.append(opcode, match, player, a, b);
+        }
+    }
+
+    /**
+     * Processes a single text command received from a client. A command whose arguments
+     * are malformed is handled like an unknown command.
+     *
+     * @param connection the connection the command was received on
+     * @param command the command line
+     * @return false if the client has quit, true otherwise
+     */
+    public boolean dispatch(Connection connection, String command) {
+        if (command.startsWith("NAME ")) {
+            identify(connection, command.substring(5).trim());
+            return true;
+        } else if (command.equals("TOP") || command.startsWith("TOP ")) {
+            String count = command.substring(3).trim();
+            try {
+                leaders(connection, count.isEmpty() ? DEFAULT_TOP : Integer.parseInt(count));
+            } catch (NumberFormatException e) {
+                return dispatch(connection, 0, 0, 0);
+            }
+            return true;
+        } else if (command.startsWith("MOVE") || command.startsWith("BOARD")) {
+            String[] parts = command.split(" ");
+            int a;
+            int b;
+            try {
+                a = Integer.parseInt(parts[1]);
+                b = Integer.parseInt(parts[2]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                return dispatch(connection, 0, 0, 0);
+            }
+            return dispatch(connection, Protocol.opcodeOf(command), a, b);
+        } else if (command.startsWith("RESUME ")) {
+            String[] parts = command.split(" ");
+            try {
+                resume(connection, parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            } catch (RuntimeException e) {
+                resume(connection, "", 0, 0);
+            }
+            return true;
+        } else if (command.equals("WATCH") || command.startsWith("WATCH ")) {
+            String id = command.substring(5).trim();
+            try {
+                watch(connection, id.isEmpty() ? 0 : Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                return dispatch(connection, 0, 0, 0);
+            }
+            return true;
+        } else if (command.equals(Protocol.BINARY_HANDSHAKE)) {
+            // The events a spectator receives are already encoded for its protocol.
+            if (connection.getWatched() == null) {
+                connection.switchToBinary();
+            }
+            return true;
+        }
+        return dispatch(connection, Protocol.opcodeOf(command), 0, 0);
+    }
+
+    /**
+     * Processes a single decoded command received from a client.
+     *
+     * @param connection the connection the command was received on
+     * @param opcode the command type, one of the {@link Protocol} opcodes
+     * @param a the first argument of the command
+     * @param b the second argument of the command
+     * @return false if the client has quit, true otherwise
+     */
+    public boolean dispatch(Connection connection, int opcode, int a, int b) {
+        if (!connection.isQueued() && opcode != Protocol.BOARD && opcode != Protocol.BOT && opcode != Protocol.WATCH
+                && opcode != Protocol.PING) {
+            connect(connection);
+        }
+        if (opcode == Protocol.MOVE) {
+            Match match = connection.getMatch();
+            if (match == null) {
+                metrics.busyRejected();
+                connection.send(Protocol.WAIT, 0, 0, 0);
+                connection.commit();
+            } else {
+                int player = connection.getPlayer();
+                long receivedAt = System.nanoTime();
+                match.execute(() -> match.move(player, a, b, receivedAt));
+            }
+        } else if (opcode == Protocol.HINT) {
+            Match match = connection.getMatch();
+            if (match == null) {
+                metrics.busyRejected();
+                connection.send(Protocol.WAIT, 0, 0, 0);
+                connection.commit();
+            } else {
+                int player = connection.getPlayer();
+                match.execute(() -> match.hint(player));
+            }
+        } else if (opcode == Protocol.BOT) {
+            playBot(connection);
+        } else if (opcode == Protocol.BOARD) {
+            chooseBoard(connection, a, b);
+        } else if (opcode == Protocol.WATCH) {
+            watch(connection, a << 8 | b);
+        } else if (opcode == Protocol.QUIT) {
+            leave(connection);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a connection which a transport has just accepted and starts its heartbeat.
+     * The transport calls {@link #disconnect(Connection)} once when the connection is closed.
+     *
+     * @param connection the new connection
+     */
+    public void accept(Connection connection) {
+        metrics.connectionOpened();
+        connection.setOverflowHandler(this::overflow);
+        scheduleHeartbeat(connection);
+    }
+
+    /**
+     * Makes this server a node behind a {@link Gateway}: its matches get ids whose
+     * remainder by {@link NodeList#MAX_NODES} is the number of the node, so the ids are
+     * unique across the nodes and the gateway maps an id back to its node. Call it before
+     * {@link #recover(Path, MatchJournal.Sync)} and before starting the transport.
+     *
+     * @param number the number of the node in its {@link NodeList}
+     * @throws IllegalArgumentException if the number is not below {@link NodeList#MAX_NODES}
+     */
+    public void setNode(int number) {
+        if (number < 0 || number >= NodeList.MAX_NODES) {
+            throw new IllegalArgumentException("Invalid node number " + number);
+        }
+        node = number;
+    }
+
+    /**
+     * Replaces the secret of the resume tokens with one shared by every node behind a
+     * gateway, so a token stays valid whichever node checks it. Call it before
+     * {@link #recover(Path, MatchJournal.Sync)}, which then keeps it.
+     *
+     * @param tokens the tokens
+     */
+    public void setTokens(SessionTokens tokens) {
+        this.tokens = tokens;
+        sharedTokens = true;
+    }
+
+    /**
+     * Sets what is done with the clients which read too slowly to keep up. By default a
+     * player is disconnected, and may resume its match, and a spectator is dropped.
+     *
+     * @param players the policy for the players
+     * @param spectators the policy for the spectators
+     */
+    public void setBackpressure(Backpressure players, Backpressure spectators) {
+        this.playerBackpressure = players;
+        this.spectatorBackpressure = spectators;
+    }
+
+    /**
+     * Asks the timer to apply the backpressure policy to a connection whose output has
+     * overflowed. Called with the lock of the connection held, maybe on the loop of a
+     * match too, so the policy is not applied here.
+     *
+     * @param connection the connection
+     */
+    private void overflow(Connection connection) {
+        HashedWheelTimer.shared().schedule(() -> relieve(connection), 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Applies the backpressure policy to a connection whose output has overflowed.
+     *
+     * @param connection the connection
+     */
+    private void relieve(Connection connection) {
+        Match watched = connection.getWatched();
+        Backpressure policy = watched != null ? spectatorBackpressure : playerBackpressure;
+        Match match = connection.getMatch();
+        logger.info("Applying " + policy + " to a client which reads too slowly");
+        if (policy == Backpressure.COALESCE) {
+            metrics.slowConsumerCoalesced();
+            if (watched != null) {
+                watched.execute(() -> {
+                    if (watched.isClosed()) {
+                        connection.unwatch(watched);
+                    } else {
+                        watched.watch(connection);
+                    }
+                });
+            } else if (match == null) {
+                connection.resync();
+            } else {
+                int player = connection.getPlayer();
+                match.execute(() -> {
+                    if (!match.resync(player, connection)) {
+                        connection.closeIdle();
+                    }
+                });
+            }
+        } else if (policy == Backpressure.DROP && watched != null) {
+            metrics.slowConsumerDropped();
+            if (!connection.unwatch(watched)) {
+                connection.resync();
+            }
+        } else {
+            metrics.slowConsumerDisconnected();
+            connection.closeIdle();
+        }
+    }
+
+    /**
+     * Asks the timer to check on a connection after the heartbeat interval.
+     *
+     * @param connection the connection
+     */
+    private void scheduleHeartbeat(Connection connection) {
+        HashedWheelTimer.shared().schedule(() -> heartbeat(connection), HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks on a connection, and closes it if its client has not answered {@code PING}.
+     * The heartbeats of a connection end once it has been closed.
+     *
+     * @param connection the connection
+     */
+    private void heartbeat(Connection connection) {
+        if (connection.isDetached()) {
+            return;
+        }
+        if (connection.heartbeat()) {
+            scheduleHeartbeat(connection);
+        } else {
+            logger.info("Closing a connection which does not answer PING");
+            metrics.idleClosed();
+            connection.closeIdle();
+        }
+    }
+
+    /**
+     * Removes a connection from the matchmaking queue or from its match. The seat of a
+     * player is held for {@link #GRACE_MILLIS}; a match which has ended is removed from
+     * the server.
+     *
+     * @param connection the connection which has been closed
+     */
+    public void disconnect(Connection connection) {
+        metrics.connectionClosed();
+        Match match = connection.detach();
+        if (match == null) {
+            dequeue(connection);
+            return;
+        }
+        int player = connection.getPlayer();
+        long deadline = graceDeadline();
+        match.execute(() -> {
+            if (match.hold(player, connection, deadline)) {
+                metrics.seatHeld();
+                scheduleExpiry(match, player);
+            } else if (match.isClosed()) {
+                matches.remove(match.getId());
+            }
+        });
+    }
+
+    /**
+     * Gets the matchmaker pairing the clients of the server on the classic board.
+     *
+     * @return the matchmaker
+     */
+    public Matchmaker getMatchmaker() {
+        return matchmaker;
+    }
+
+    /**
+     * Gets the metrics of the server, which a controller may publish over JMX.
+     *
+     * @return the metrics
+     */
+    public GameServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the number of journal records dropped because the journal could not keep up.
+     *
+     * @return the number of records, 0 if the matches are not journaled
+     */
+    public long getJournalDropped() {
+        MatchJournal current = journal;
+        return current == null ? 0 : current.getDropped();
+    }
+
+    /**
+     * Gets the number of matches currently hosted by the server.
+     *
+     * @return the number of matches
+     */
+    public int getMatchCount() {
+        return matches.size();
+    }
+
+    /**
+     * The Handler class handles communication with a single client over a blocking socket.
+     */
+    public class Handler extends Connection implements Runnable {
         private Socket socket;
-        private Scanner input;
-        private PrintWriter output;
-        private int currentPlayer = 1;
+        private InputStream input;
+        private OutputStream output;
+        private WritableByteChannel outputChannel;
+        private ByteBuffer spare = ByteBuffer.allocate(256);
+        private ReentrantLock writeLock = new ReentrantLock();
+        private Runnable drainTask = this::drain;
+        private byte[] frame = new byte[Protocol.FRAME_SIZE];
         
         /**
-         * Constructs a Handler with the specified socket and player number.
+         * Constructs a Handler with the specified socket.
          * 
          * @param socket the socket for communication with the client
-         * @param currentPlayer the player number (1 or 2)
+         * @throws IOException if the output stream of the socket cannot be opened
          */
-        public Handler(Socket socket, int currentPlayer) {
+        public Handler(Socket socket) throws IOException {
             this.socket = socket;
-            this.currentPlayer = currentPlayer;
+            this.output = socket.getOutputStream();
+            this.outputChannel = Channels.newChannel(output);
         }
 
         /**
-         * Runs the handler to process client commands and update game state.
+         * Runs the handler to process client commands and update the state of its match.
          */
         @Override
         public void run() {
             logger.info("Connected: " + socket);
+            accept(this);
             try {
-                input = new Scanner(socket.getInputStream());
-                output = new PrintWriter(socket.getOutputStream(), true);
-                output.println("ID " + currentPlayer);
-
-                synchronized(writers) {
-                    writers.add(output);
-                }
-                while(input.hasNextLine()) {
-                    var command = input.nextLine();
-                    if(isPlayer1Turn && currentPlayer == 1 || !isPlayer1Turn && currentPlayer == 2) {
-                        if(command.startsWith("MOVE")) {
-                            int row = Integer.parseInt(command.split(" ")[1]);
-                            int col = Integer.parseInt(command.split(" ")[2]);
-                            logger.info("Received player " + currentPlayer + " move: " + row + " " + col);
-
-                            if(board[row][col] == 0) {
-                                board[row][col] = currentPlayer;
-                                for(PrintWriter writer : writers) {
-                                    writer.println("MOVE " + currentPlayer + " " + row + " " + col);
-                                }
-                                if(checkWin()) {
-                                    for(PrintWriter writer : writers) {
-                                        writer.println("WIN " + currentPlayer);
-                                    }
-                                    reset();
-                                } else if (isBoardFull()) {
-                                    for(PrintWriter writer : writers) {
-                                        writer.println("DRAW");
-                                    }
-                                    reset();
-                                } else {
-                                    isPlayer1Turn = !isPlayer1Turn;
-                                }
-                            }
-                        } else if (command.startsWith("QUIT")) {
-                            for(PrintWriter writer : writers) {
-                                writer.println("QUIT " + currentPlayer);
-                            }
-                            reset();
-                            return;
-                        }
-                    } else {
-                        if(command.startsWith("MOVE")) {
-                            logger.warning("Player " + currentPlayer + " is not allowed to move now.");
-                            output.println("WAIT");
-                        } else if (command.startsWith("QUIT")) {
-                            for(PrintWriter writer : writers) {
-                                writer.println("QUIT " + currentPlayer);
-                            }
-                            reset();
-                            return;
-                        }
+                input = new BufferedInputStream(socket.getInputStream());
+                if (greet()) {
+                    while (serve()) {
+                        // Every command has been dispatched by serve.
                     }
-                }           
+                }
             } catch (IOException e) {
-                logger.log(Level.SEVERE, "Error handling client", e);
-                e.printStackTrace();
-            } finally {
-                try {
-                    socket.close();
-                    logger.info("Connection closed: " + socket);
-                } catch (IOException e) {
-                    logger.log(Level.SEVERE, "Error closing socket", e);
+                if (!socket.isClosed()) {
+                    logger.log(Level.SEVERE, "Error handling client", e);
+                    e.printStackTrace();
                 }
-                if(output != null) {
-                    synchronized(writers) {
-                        writers.remove(output);
+            } finally {
+                disconnect(this);
+                close();
+            }
+        }
+
+        /**
+         * Serves the commands the client sends within {@link #GREETING_MILLIS}, then
+         * queues it for the classic board unless one of them has queued it already, e.g.
+         * {@code BOARD}, {@code BOT}, {@code WATCH} or {@code RESUME}. A client which only
+         * sends {@code NAME} is therefore queued at the deadline, as by the {@link NioServer}.
+         *
+         * @return false if the client has closed the connection or quit, true otherwise
+         * @throws IOException if the connection fails
+         */
+        private boolean greet() throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GREETING_MILLIS);
+            try {
+                while (!isQueued()) {
+                    long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (left <= 0) {
+                        break;
+                    }
+                    socket.setSoTimeout((int) left);
+                    // A command cut by the deadline is read again in full afterwards.
+                    input.mark(MAX_GREETING_BYTES);
+                    if (!serve()) {
+                        return false;
                     }
                 }
-                player2Handlers.remove(currentPlayer);
-                clientCount--;
-                reset();
+            } catch (SocketTimeoutException e) {
+                input.reset();
+            } finally {
+                socket.setSoTimeout(0);
             }
+            connect(this);
+            return true;
         }
 
         /**
-         * Checks if the current player has won the game.
-         * 
-         * @return true if the current player has won, false otherwise
+         * Reads the next command of the client, a text line or a binary frame, and
+         * dispatches it. A command which fails is logged and skipped.
+         *
+         * @return false if the client has closed the connection or quit, true otherwise
+         * @throws IOException if the connection fails
          */
-        private boolean checkWin() {
-            for (int i = 0; i < 3; i++) {
-                if (board[i][0] != 0 && board[i][0] == board[i][1] && board[i][1] == board[i][2]) {
-                    return true;
-                }
-                if (board[0][i] != 0 && board[0][i] == board[1][i] && board[1][i] == board[2][i]) {
-                    return true;
+        private boolean serve() throws IOException {
+            if (isBinary()) {
+                if (!Protocol.readFrame(input, frame)) {
+                    return false;
                 }
+                touch();
+                return dispatch(this, Protocol.opcode(frame[0]), Protocol.arg(frame[1]), Protocol.arg(frame[2]));
             }
-            if (board[0][0] != 0 && board[0][0] == board[1][1] && board[1][1] == board[2][2]) {
-                return true;
+            String line = Protocol.readLine(input);
+            if (line == null) {
+                return false;
             }
-            if (board[0][2] != 0 && board[0][2] == board[1][1] && board[1][1] == board[2][0]) {
+            touch();
+            try {
+                return dispatch(this, line);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Invalid command from " + socket + ": " + line, e);
                 return true;
             }
-            return false;
         }
 
         /**
-         * Resets the game state for a new game.
+         * Hands the pending output to the writer executor.
          */
-        private void reset() {
-            resetBoard();
-            isPlayer1Turn = true;
+        @Override
+        protected void scheduleFlush() {
+            flusher.execute(drainTask);
         }
 
         /**
-         * Checks if the game board is full.
-         * 
-         * @return true if the board is full, false otherwise
+         * Writes every pending batch to the socket, one write per batch. Shared batches
+         * of a watched match are read-only and written without being reused.
          */
-        private boolean isBoardFull() {
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    if (board[i][j] == 0) {
-                        return false;
+        private void drain() {
+            writeLock.lock();
+            try {
+                ByteBuffer batch;
+                while ((batch = takeOutput(spare)) != null) {
+                    try {
+                        if (batch.isReadOnly()) {
+                            while (batch.hasRemaining()) {
+                                outputChannel.write(batch);
+                            }
+                        } else {
+                            output.write(batch.array(), 0, batch.limit());
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Error writing to " + socket, e);
+                    }
+                    if (!batch.isReadOnly()) {
+                        batch.clear();
+                        spare = batch;
                     }
                 }
+            } finally {
+                writeLock.unlock();
             }
-            return true;
         }
 
         /**
-         * Resets the game board to its initial state.
+         * Closes the socket of an idle client at once. The handler, blocked reading from
+         * it, then leaves the match of the client.
          */
-        private void resetBoard() {
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    board[i][j] = 0;
-                }
+        @Override
+        public void closeIdle() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing socket", e);
+            }
+        }
+
+        /**
+         * Writes what is still pending and closes the socket of the client.
+         */
+        @Override
+        public void close() {
+            drain();
+            try {
+                socket.close();
+                logger.info("Connection closed: " + socket);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Error closing socket", e);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,316 @@
+package game;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The GameServerMetrics class counts what a {@link GameServer} does and exposes it as a
+ * standard MBean, see {@link GameServerMetricsMBean}.
+ * <p>
+ * Every counter is a {@link LongAdder}, which stripes concurrent increments over
+ * several cells, and the move latencies go into a {@link LatencyHistogram}, so recording
+ * never takes a lock. Only reading the rate of moves synchronizes, on the reader side.
+ */
+public class GameServerMetrics implements GameServerMetricsMBean {
+    /**
+     * The name under which {@link #register()} publishes the metrics.
+     */
+    public static final String OBJECT_NAME = "game:type=GameServerMetrics";
+
+    private final IntSupplier activeGames;
+    private final LongSupplier journalDropped;
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder rejectedMoves = new LongAdder();
+    private final LongAdder busyRejections = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder draws = new LongAdder();
+    private final LongAdder quits = new LongAdder();
+    private final LongAdder heldSeats = new LongAdder();
+    private final LongAdder resumes = new LongAdder();
+    private final LongAdder idleClosed = new LongAdder();
+    private final LongAdder turnTimeouts = new LongAdder();
+    private final LongAdder slowDropped = new LongAdder();
+    private final LongAdder slowDisconnected = new LongAdder();
+    private final LongAdder slowCoalesced = new LongAdder();
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+
+    private long rateMoves;
+    private long rateSince = System.nanoTime();
+    private double movesPerSecond;
+
+    /**
+     * Constructs GameServerMetrics which do not know the number of games.
+     */
+    public GameServerMetrics() {
+        this(() -> 0);
+    }
+
+    /**
+     * Constructs GameServerMetrics.
+     *
+     * @param activeGames the source of the number of matches hosted
+     */
+    public GameServerMetrics(IntSupplier activeGames) {
+        this(activeGames, () -> 0);
+    }
+
+    /**
+     * Constructs GameServerMetrics which know the records dropped by the journal.
+     *
+     * @param activeGames the source of the number of matches hosted
+     * @param journalDropped the source of the number of journal records dropped
+     */
+    public GameServerMetrics(IntSupplier activeGames, LongSupplier journalDropped) {
+        this.activeGames = activeGames;
+        this.journalDropped = journalDropped;
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server, under {@link #OBJECT_NAME}.
+     *
+     * @throws JMException if the metrics of another server are published already
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Counts a new client connection.
+     */
+    public void connectionOpened() {
+        opened.increment();
+    }
+
+    /**
+     * Counts a closed client connection.
+     */
+    public void connectionClosed() {
+        closed.increment();
+    }
+
+    /**
+     * Counts an applied move and records its latency.
+     *
+     * @param receivedAt the {@link System#nanoTime()} at which the MOVE was received
+     */
+    public void moveApplied(long receivedAt) {
+        moves.increment();
+        moveLatency.record(System.nanoTime() - receivedAt);
+    }
+
+    /**
+     * Counts a move answered with WAIT by its match.
+     */
+    public void moveRejected() {
+        rejectedMoves.increment();
+    }
+
+    /**
+     * Counts a command answered with WAIT because the client has no match yet.
+     */
+    public void busyRejected() {
+        busyRejections.increment();
+    }
+
+    /**
+     * Counts a game which has ended.
+     *
+     * @param opcode {@link Protocol#WIN}, {@link Protocol#DRAW} or {@link Protocol#QUIT}
+     */
+    public void gameFinished(int opcode) {
+        if (opcode == Protocol.WIN) {
+            wins.increment();
+        } else if (opcode == Protocol.DRAW) {
+            draws.increment();
+        } else if (opcode == Protocol.QUIT) {
+            quits.increment();
+        }
+    }
+
+    /**
+     * Counts a player whose connection has dropped during a match and whose seat is held.
+     */
+    public void seatHeld() {
+        heldSeats.increment();
+    }
+
+    /**
+     * Counts a player who has taken its seat back with its resume token.
+     */
+    public void sessionResumed() {
+        resumes.increment();
+    }
+
+    /**
+     * Counts a connection closed because its client did not answer {@code PING}.
+     */
+    public void idleClosed() {
+        idleClosed.increment();
+    }
+
+    /**
+     * Counts a player who has lost a game by running out of time.
+     */
+    public void turnTimedOut() {
+        turnTimeouts.increment();
+    }
+
+    /**
+     * Counts a spectator which has stopped watching because it read too slowly.
+     */
+    public void slowConsumerDropped() {
+        slowDropped.increment();
+    }
+
+    /**
+     * Counts a connection closed because its client read too slowly.
+     */
+    public void slowConsumerDisconnected() {
+        slowDisconnected.increment();
+    }
+
+    /**
+     * Counts a client which read too slowly and has been sent the latest state of its match.
+     */
+    public void slowConsumerCoalesced() {
+        slowCoalesced.increment();
+    }
+
+    /**
+     * Gets the live distribution of the move latency, in nanoseconds.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getMoveLatency() {
+        return moveLatency;
+    }
+
+    @Override
+    public long getLiveConnections() {
+        return opened.sum() - closed.sum();
+    }
+
+    @Override
+    public int getActiveGames() {
+        return activeGames.getAsInt();
+    }
+
+    @Override
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    @Override
+    public synchronized double getMovesPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - rateSince;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            long count = moves.sum();
+            movesPerSecond = (count - rateMoves) * 1e9 / elapsed;
+            rateMoves = count;
+            rateSince = now;
+        }
+        return movesPerSecond;
+    }
+
+    @Override
+    public long getRejectedMoves() {
+        return rejectedMoves.sum();
+    }
+
+    @Override
+    public long getBusyRejections() {
+        return busyRejections.sum();
+    }
+
+    @Override
+    public long getWins() {
+        return wins.sum();
+    }
+
+    @Override
+    public long getDraws() {
+        return draws.sum();
+    }
+
+    @Override
+    public long getQuits() {
+        return quits.sum();
+    }
+
+    @Override
+    public long getHeldSeats() {
+        return heldSeats.sum();
+    }
+
+    @Override
+    public long getResumes() {
+        return resumes.sum();
+    }
+
+    @Override
+    public long getIdleConnectionsClosed() {
+        return idleClosed.sum();
+    }
+
+    @Override
+    public long getTurnTimeouts() {
+        return turnTimeouts.sum();
+    }
+
+    @Override
+    public long getSlowConsumersDropped() {
+        return slowDropped.sum();
+    }
+
+    @Override
+    public long getSlowConsumersDisconnected() {
+        return slowDisconnected.sum();
+    }
+
+    @Override
+    public long getSlowConsumersCoalesced() {
+        return slowCoalesced.sum();
+    }
+
+    @Override
+    public long getJournalRecordsDropped() {
+        return journalDropped.getAsLong();
+    }
+
+    @Override
+    public long getMoveLatencyCount() {
+        return moveLatency.getCount();
+    }
+
+    @Override
+    public double getMoveLatencyP50() {
+        return moveLatency.getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getMoveLatencyP99() {
+        return moveLatency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getMoveLatencyP999() {
+        return moveLatency.getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMoveLatencyMax() {
+        return moveLatency.getMax() / 1000.0;
+    }
+
+    @Override
+    public void resetMoveLatency() {
+        moveLatency.snapshotAndReset();
+    }
+}
@@ -0,0 +1,171 @@
+package game;
+
+/**
+ * The management interface of {@link GameServerMetrics}, as seen by JMX clients such
+ * as JConsole. Latencies are reported in microseconds.
+ */
+public interface GameServerMetricsMBean {
+    /**
+     * Gets the number of client connections currently open.
+     *
+     * @return the number of live connections
+     */
+    long getLiveConnections();
+
+    /**
+     * Gets the number of matches currently hosted.
+     *
+     * @return the number of active games
+     */
+    int getActiveGames();
+
+    /**
+     * Gets the number of moves applied since the server started.
+     *
+     * @return the number of moves
+     */
+    long getMoves();
+
+    /**
+     * Gets the rate of applied moves since the previous call, measured over at least a second.
+     *
+     * @return the moves per second
+     */
+    double getMovesPerSecond();
+
+    /**
+     * Gets the number of moves answered with WAIT because it was not the player's turn
+     * or the opponent had not joined yet.
+     *
+     * @return the number of rejected moves
+     */
+    long getRejectedMoves();
+
+    /**
+     * Gets the number of MOVE and HINT commands answered with WAIT because the client
+     * was still waiting for an opponent.
+     *
+     * @return the number of busy rejections
+     */
+    long getBusyRejections();
+
+    /**
+     * Gets the number of games won.
+     *
+     * @return the number of games finished by WIN
+     */
+    long getWins();
+
+    /**
+     * Gets the number of games drawn.
+     *
+     * @return the number of games finished by DRAW
+     */
+    long getDraws();
+
+    /**
+     * Gets the number of matches ended by a player leaving.
+     *
+     * @return the number of games finished by QUIT
+     */
+    long getQuits();
+
+    /**
+     * Gets the number of players whose connection dropped during a match and whose
+     * seat was held for them.
+     *
+     * @return the number of held seats
+     */
+    long getHeldSeats();
+
+    /**
+     * Gets the number of players who took their seat back with their resume token.
+     *
+     * @return the number of resumed sessions
+     */
+    long getResumes();
+
+    /**
+     * Gets the number of connections closed because their client stopped answering {@code PING}.
+     *
+     * @return the number of idle connections closed
+     */
+    long getIdleConnectionsClosed();
+
+    /**
+     * Gets the number of games lost because the player to move ran out of time.
+     *
+     * @return the number of turn timeouts
+     */
+    long getTurnTimeouts();
+
+    /**
+     * Gets the number of spectators which stopped watching because they read too slowly.
+     *
+     * @return the number of slow spectators dropped
+     */
+    long getSlowConsumersDropped();
+
+    /**
+     * Gets the number of connections closed because their client read too slowly.
+     *
+     * @return the number of slow clients disconnected
+     */
+    long getSlowConsumersDisconnected();
+
+    /**
+     * Gets the number of slow clients which were sent the latest state of their match in
+     * place of what they had missed.
+     *
+     * @return the number of slow clients caught up
+     */
+    long getSlowConsumersCoalesced();
+
+    /**
+     * Gets the number of journal records dropped because the journal could not keep up.
+     * Their matches go on, but are not recovered after a crash.
+     *
+     * @return the number of records dropped
+     */
+    long getJournalRecordsDropped();
+
+    /**
+     * Gets the number of moves in the latency distribution.
+     *
+     * @return the number of recorded moves
+     */
+    long getMoveLatencyCount();
+
+    /**
+     * Gets the median time from receiving a MOVE to handing its broadcast to the transports.
+     *
+     * @return the p50 latency in microseconds
+     */
+    double getMoveLatencyP50();
+
+    /**
+     * Gets the 99th percentile of the move latency.
+     *
+     * @return the p99 latency in microseconds
+     */
+    double getMoveLatencyP99();
+
+    /**
+     * Gets the 99.9th percentile of the move latency.
+     *
+     * @return the p999 latency in microseconds
+     */
+    double getMoveLatencyP999();
+
+    /**
+     * Gets the highest move latency.
+     *
+     * @return the maximum latency in microseconds
+     */
+    double getMoveLatencyMax();
+
+    /**
+     * Clears the move latency distribution, e.g. before a measurement.
+     */
+    void resetMoveLatency();
+}
@@ -0,0 +1,658 @@
+package game;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.*;
+
+/**
+ * The Gateway class spreads the clients over several {@link GameServer} nodes, so the
+ * capacity of the game is no longer that of one JVM.
+ * <p>
+ * Clients connect to the gateway as they would to a server. The gateway reads their first
+ * commands, picks a node, connects to it, replays what it has read and from then on
+ * copies bytes both ways.
+ * <ul>
+ *   <li>A spectator ({@code WATCH id}) and a player resuming its seat ({@code RESUME
+ *   token}, whose token names the match) go to the node which opened the match. A node
+ *   numbers the ids of its matches by its number in the {@link NodeList}, so the id alone
+ *   finds the node, however the nodes have changed since the match opened.</li>
+ *   <li>A new player goes to the node where a new player of the same board waits alone,
+ *   so the two are paired there. If no one waits alone, it goes to the node of a fresh
+ *   ticket on the {@link ConsistentHashRing} and waits there for the next one. Until a
+ *   new player has its match, the gateway follows its commands and the answers of its
+ *   node: a player who leaves, or turns to the bot or to watching instead, no longer
+ *   counts as waiting, so a player left alone on a node always gets the next arrival.</li>
+ *   <li>A player of the bot, and {@code WATCH 0}, go to the node of a fresh ticket.</li>
+ * </ul>
+ * Adding a node only changes where new matches open. A match stays on its node for life.
+ * <p>
+ * Like the {@link NioServer}, a few I/O loops each multiplex their links over one Selector.
+ * Each direction of a link has a fixed buffer, and the gateway stops reading from a side
+ * whose buffer the other side has not drained, so a slow client or node holds back only
+ * its own link.
+ */
+public class Gateway {
+    private static final Logger logger = Logger.getLogger(Gateway.class.getName());
+
+    /**
+     * The most bytes read from a client before it is routed as a new player anyway.
+     */
+    private static final int MAX_HEADER = 512;
+
+    /**
+     * The size of the buffer of each direction of a link.
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The key of a client which has not sent enough to be routed yet.
+     */
+    static final long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * The bit which marks the key of a new player, whose low bits are its board variant.
+     */
+    static final long NEW_PLAYER = 1L << 62;
+
+    /**
+     * The key of a client which may go to any node, such as a player of the bot.
+     */
+    static final long ANY_NODE = 1L << 61;
+
+    private static final int CLASSIC = BitBoard.SIZE << 8 | BitBoard.SIZE;
+
+    private final ServerSocketChannel serverChannel;
+    private final NodeList nodes;
+    private final ConsistentHashRing<String> ring;
+    private final ProxyLoop[] loops;
+
+    /**
+     * The number of tickets taken so far, which spread the clients free to go to any
+     * node over the ring.
+     */
+    private final AtomicLong tickets = new AtomicLong();
+
+    /**
+     * The new players routed to a node and not settled yet, by board variant. Guarded by
+     * itself.
+     */
+    private final Map<Integer, List<ProxyLoop.Link>> waiting = new HashMap<>();
+
+    /**
+     * Constructs a Gateway with the specified channel and nodes.
+     *
+     * @param serverChannel the bound channel to accept client connections on
+     * @param nodes the nodes
+     * @param ioThreads the number of I/O loops
+     */
+    public Gateway(ServerSocketChannel serverChannel, NodeList nodes, int ioThreads) {
+        this.serverChannel = serverChannel;
+        this.nodes = nodes;
+        this.ring = nodes.getRing();
+        this.loops = new ProxyLoop[ioThreads];
+    }
+
+    /**
+     * Opens a Gateway listening on the specified port.
+     *
+     * @param port the port to listen on
+     * @param nodes the nodes
+     * @param ioThreads the number of I/O loops
+     * @return the gateway, not started yet
+     * @throws IOException if the port cannot be bound
+     */
+    public static Gateway open(int port, NodeList nodes, int ioThreads) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port), 1024);
+        return new Gateway(channel, nodes, ioThreads);
+    }
+
+    /**
+     * Starts the I/O loops and accepts client connections on the calling thread.
+     */
+    public void start() {
+        for (int i = 0; i < loops.length; i++) {
+            try {
+                loops[i] = new ProxyLoop(Selector.open());
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Error opening selector", e);
+                throw new UncheckedIOException(e);
+            }
+            Thread thread = new Thread(loops[i], "gateway-loop-" + i);
+            thread.start();
+        }
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Error in gateway channel", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the key of a client from the commands it has sent so far, the way a node
+     * reads them: the id of the match it watches or resumes, {@link #ANY_NODE} for a
+     * player of the bot, or {@link #NEW_PLAYER} with the board variant of a player who
+     * has been queued. {@code NAME}, {@code TOP} and {@code PING} queue no one, and
+     * {@code BOARD} queues a player who may still turn to the bot, so the commands after
+     * it are read too.
+     *
+     * @param bytes the bytes received from the client
+     * @param length the number of bytes received
+     * @param greeted whether the client has had its greeting time, or has sent as much as
+     *                may be read before routing, so it is queued as a new player if its
+     *                commands do not say otherwise
+     * @return the key, or {@link #UNKNOWN} if more commands are needed
+     */
+    long keyOf(byte[] bytes, int length, boolean greeted) {
+        int start = 0;
+        boolean binary = false;
+        int variant = -1;
+        while (start < length) {
+            if (binary) {
+                if (length - start < Protocol.FRAME_SIZE) {
+                    break;
+                }
+                int opcode = Protocol.opcode(bytes[start]);
+                int a = Protocol.arg(bytes[start + 1]);
+                int b = Protocol.arg(bytes[start + 2]);
+                start += Protocol.FRAME_SIZE;
+                if (opcode == Protocol.WATCH) {
+                    return a << 8 | b;
+                } else if (opcode == Protocol.BOT) {
+                    return ANY_NODE;
+                } else if (opcode == Protocol.BOARD) {
+                    variant = BitBoard.isValid(a, b) ? a << 8 | b : CLASSIC;
+                } else if (opcode != Protocol.PING) {
+                    return NEW_PLAYER | (variant < 0 ? CLASSIC : variant);
+                }
+                continue;
+            }
+            int newline = start;
+            while (newline < length && bytes[newline] != '\n') {
+                newline++;
+            }
+            if (newline == length) {
+                break;
+            }
+            String command = new String(bytes, start, newline - start, StandardCharsets.US_ASCII).trim();
+            start = newline + 1;
+            if (command.startsWith("NAME ") || command.equals("TOP") || command.startsWith("TOP ")
+                    || Protocol.opcodeOf(command) == Protocol.PING) {
+                continue;
+            } else if (command.equals(Protocol.BINARY_HANDSHAKE)) {
+                // A spectator asks for the binary protocol and watches in a frame at once.
+                binary = true;
+                continue;
+            }
+            try {
+                if (command.startsWith("BOARD ")) {
+                    String[] parts = command.split(" ");
+                    int size = Integer.parseInt(parts[1]);
+                    int marks = Integer.parseInt(parts[2]);
+                    variant = BitBoard.isValid(size, marks) ? size << 8 | marks : CLASSIC;
+                    continue;
+                } else if (command.startsWith("RESUME ")) {
+                    // The token starts with the match id, in hexadecimal.
+                    return Integer.parseUnsignedInt(command.split(" ")[1].substring(0, 8), 16) & 0xFFFF_FFFFL;
+                } else if (command.equals("WATCH") || command.startsWith("WATCH ")) {
+                    String id = command.substring(5).trim();
+                    return id.isEmpty() ? 0 : Integer.parseInt(id) & 0xFFFF_FFFFL;
+                } else if (Protocol.opcodeOf(command) == Protocol.BOT) {
+                    return ANY_NODE;
+                }
+            } catch (RuntimeException e) {
+                logger.fine("Routing a malformed command as a new player: " + command);
+            }
+            // A node queues a client for any other command, as for a malformed one.
+            return NEW_PLAYER | (variant < 0 ? CLASSIC : variant);
+        }
+        return variant >= 0 || greeted || length >= MAX_HEADER ? NEW_PLAYER | (variant < 0 ? CLASSIC : variant) : UNKNOWN;
+    }
+
+    /**
+     * Picks the node of a client from its key.
+     *
+     * @param link the link of the client
+     * @param key the key of the client, see {@link #keyOf(byte[], int, boolean)}
+     * @return the node, as {@code host:port}, or null if there is no node
+     */
+    private String nodeFor(ProxyLoop.Link link, long key) {
+        if ((key & NEW_PLAYER) != 0) {
+            return place(link, (int) key);
+        } else if (key == ANY_NODE || key == 0) {
+            return ticket();
+        }
+        String node = nodes.nodeOf((int) key);
+        // A match of a node which has left the list is gone, which any node answers.
+        return node != null ? node : ticket();
+    }
+
+    /**
+     * Takes a fresh ticket on the ring.
+     *
+     * @return the node of the ticket, or null if there is no node
+     */
+    private String ticket() {
+        return ring.nodeFor(tickets.getAndIncrement());
+    }
+
+    /**
+     * Picks the node of a new player: the node of a player of the same board who waits
+     * there alone, who then counts on the new player as its partner, or else the node of
+     * a fresh ticket, where the new player waits alone.
+     *
+     * @param link the link of the new player
+     * @param variant the board variant, its size in the high byte and its line length in the low byte
+     * @return the node, or null if there is no node
+     */
+    private String place(ProxyLoop.Link link, int variant) {
+        synchronized (waiting) {
+            List<ProxyLoop.Link> links = waiting.computeIfAbsent(variant, v -> new ArrayList<>());
+            links.removeIf(ProxyLoop.Link::isSettled);
+            String node = null;
+            for (ProxyLoop.Link alone : links) {
+                if (alone.isAlone()) {
+                    alone.partner = link;
+                    link.partner = alone;
+                    node = alone.node;
+                    break;
+                }
+            }
+            if (node == null) {
+                node = ticket();
+            }
+            if (node != null) {
+                link.node = node;
+                links.add(link);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * The ProxyLoop class runs one Selector and all the links registered with it.
+     */
+    private class ProxyLoop implements Runnable {
+        private Selector selector;
+        private Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The links in order of arrival, routed as new players once their greeting time
+         * has passed if they have not been routed before. Only used by the loop thread.
+         */
+        private Deque<Link> greetings = new ArrayDeque<>();
+
+        /**
+         * Constructs a ProxyLoop with the specified selector.
+         *
+         * @param selector the selector of the loop
+         */
+        ProxyLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Hands a new client channel to this loop.
+         *
+         * @param channel the accepted channel
+         */
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs the selector loop.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Link oldest = greetings.peek();
+                    if (oldest == null) {
+                        selector.select();
+                    } else {
+                        selector.select(Math.max(1, (oldest.routeBy - System.nanoTime()) / 1_000_000));
+                    }
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        Link link = new Link(channel);
+                        link.clientKey = channel.register(selector, SelectionKey.OP_READ, link);
+                        link.routeBy = System.nanoTime() + GameServer.GREETING_MILLIS * 1_000_000L;
+                        greetings.add(link);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((Link) key.attachment()).handle(key);
+                    }
+                    long now = System.nanoTime();
+                    while (!greetings.isEmpty() && greetings.peek().routeBy - now <= 0) {
+                        Link link = greetings.poll();
+                        if (link.nodeChannel == null && !link.closed) {
+                            link.route(true);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Error in gateway loop", e);
+                }
+            }
+        }
+
+        /**
+         * The Link class joins a client to its node. Bytes from the client are kept in
+         * {@code up} until the node takes them, and bytes from the node in {@code down}
+         * until the client does; both buffers stay in write mode.
+         * <p>
+         * The link of a new player is settled once the player has its match, has left,
+         * or has sent a command which takes it out of the queue of its node. Its fields
+         * of that state are read by the other loops when they place new players.
+         */
+        private class Link {
+            private final SocketChannel clientChannel;
+            private SelectionKey clientKey;
+            private SocketChannel nodeChannel;
+            private SelectionKey nodeKey;
+            private boolean connected;
+            private volatile boolean closed;
+            private final ByteBuffer up = ByteBuffer.allocate(BUFFER_SIZE);
+            private final ByteBuffer down = ByteBuffer.allocate(BUFFER_SIZE);
+
+            /**
+             * The node of a new player, as {@code host:port}.
+             */
+            private volatile String node;
+
+            /**
+             * The new player the node of this one was picked with, or null.
+             */
+            private volatile Link partner;
+
+            private volatile boolean matched;
+            private volatile boolean gone;
+
+            /**
+             * The followers of the commands of a new player and of the answers of its
+             * node, until it is settled, or null for other clients.
+             */
+            private Follower commands;
+            private Follower answers;
+
+            /**
+             * The time by which the client is routed as a new player if it has not sent
+             * enough to be routed, in {@link System#nanoTime()} units.
+             */
+            private long routeBy;
+
+            /**
+             * Constructs a Link for a new client.
+             *
+             * @param clientChannel the channel of the client
+             */
+            Link(SocketChannel clientChannel) {
+                this.clientChannel = clientChannel;
+            }
+
+            /**
+             * Handles a selected key of either side of the link.
+             *
+             * @param key the key
+             */
+            void handle(SelectionKey key) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    if (key == clientKey) {
+                        int from = up.position();
+                        if (key.isValid() && key.isReadable() && !read(clientChannel, up)) {
+                            return;
+                        }
+                        if (nodeChannel == null) {
+                            route(false);
+                        } else if (isFollowed() && commands.find(up.array(), from, up.position()) != 0) {
+                            gone = true;
+                        }
+                    } else {
+                        if (key.isValid() && key.isConnectable()) {
+                            try {
+                                connected = nodeChannel.finishConnect();
+                            } catch (IOException e) {
+                                logger.warning("Error connecting to node " + nodeChannel + ": " + e);
+                                close();
+                                return;
+                            }
+                        }
+                        int from = down.position();
+                        if (key.isValid() && key.isReadable() && !read(nodeChannel, down)) {
+                            return;
+                        }
+                        if (isFollowed() && answers.find(down.array(), from, down.position()) != 0) {
+                            matched = true;
+                        }
+                    }
+                    flush();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Link closed: " + clientChannel, e);
+                    close();
+                }
+            }
+
+            /**
+             * Reads from one side into the buffer of the other, and closes the link at
+             * the end of the stream.
+             *
+             * @param channel the side to read from
+             * @param buffer the buffer of the other side
+             * @return false if the link has been closed, true otherwise
+             * @throws IOException if the read fails
+             */
+            private boolean read(SocketChannel channel, ByteBuffer buffer) throws IOException {
+                if (channel.read(buffer) < 0) {
+                    close();
+                    return false;
+                }
+                return true;
+            }
+
+            /**
+             * Checks if the link is of a new player which is not settled yet.
+             *
+             * @return true if the commands and answers of the link are followed
+             */
+            private boolean isFollowed() {
+                return commands != null && !isSettled();
+            }
+
+            /**
+             * Checks if the player of the link has its match, has left, or has left the
+             * queue of its node.
+             *
+             * @return true if the link is settled
+             */
+            boolean isSettled() {
+                return closed || matched || gone;
+            }
+
+            /**
+             * Checks if the new player of the link waits on its node with no one to be
+             * paired with, as its partner has settled or it never had one.
+             *
+             * @return true if the player waits alone
+             */
+            boolean isAlone() {
+                Link other = partner;
+                return !isSettled() && (other == null || other.isSettled());
+            }
+
+            /**
+             * Routes the client once its first commands name its node, and connects to it.
+             *
+             * @param greeted whether the greeting time of the client has passed
+             */
+            void route(boolean greeted) {
+                long key = keyOf(up.array(), up.position(), greeted || !up.hasRemaining());
+                if (key == UNKNOWN) {
+                    return;
+                }
+                if ((key & NEW_PLAYER) != 0) {
+                    commands = new Follower(1L << Protocol.BOT | 1L << Protocol.WATCH | 1L << Protocol.RESUME);
+                    answers = new Follower(1L << Protocol.ID);
+                    // The commands read so far have been routed already.
+                    commands.find(up.array(), 0, up.position());
+                }
+                String node = nodeFor(this, key);
+                if (node == null) {
+                    logger.warning("No node to route " + clientChannel + " to");
+                    close();
+                    return;
+                }
+                int colon = node.lastIndexOf(':');
+                try {
+                    nodeChannel = SocketChannel.open();
+                    nodeChannel.configureBlocking(false);
+                    nodeChannel.socket().setTcpNoDelay(true);
+                    connected = nodeChannel.connect(new InetSocketAddress(node.substring(0, colon),
+                        Integer.parseInt(node.substring(colon + 1))));
+                    nodeKey = nodeChannel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+                    logger.fine("Routed " + clientChannel + " to " + node + ((key & (NEW_PLAYER | ANY_NODE)) != 0 ? "" : " for match " + (int) key));
+                    flush();
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.WARNING, "Error connecting to node " + node, e);
+                    close();
+                }
+            }
+
+            /**
+             * Writes as much as each side accepts, and reads from a side only while the
+             * buffer it fills has room.
+             *
+             * @throws IOException if a write fails
+             */
+            private void flush() throws IOException {
+                if (closed) {
+                    return;
+                }
+                if (connected) {
+                    write(nodeChannel, up);
+                    nodeKey.interestOps((down.hasRemaining() ? SelectionKey.OP_READ : 0)
+                        | (up.position() > 0 ? SelectionKey.OP_WRITE : 0));
+                }
+                write(clientChannel, down);
+                clientKey.interestOps((up.hasRemaining() ? SelectionKey.OP_READ : 0)
+                    | (down.position() > 0 ? SelectionKey.OP_WRITE : 0));
+            }
+
+            /**
+             * Writes a buffer to a side, keeping what the socket does not accept.
+             *
+             * @param channel the side to write to
+             * @param buffer the buffer, in write mode
+             * @throws IOException if the write fails
+             */
+            private void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+                if (buffer.position() > 0) {
+                    buffer.flip();
+                    channel.write(buffer);
+                    buffer.compact();
+                }
+            }
+
+            /**
+             * Writes what is still pending without waiting for the sockets, and closes both sides.
+             */
+            void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    if (connected) {
+                        write(nodeChannel, up);
+                    }
+                    write(clientChannel, down);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Dropped pending output of " + clientChannel, e);
+                }
+                try {
+                    clientChannel.close();
+                    if (nodeChannel != null) {
+                        nodeChannel.close();
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Error closing link", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The Follower class follows the commands of one direction of a link, text lines and
+     * then binary frames once {@code PROTO BIN} has passed, as they arrive in pieces, to
+     * find the first of some opcodes.
+     */
+    private static final class Follower {
+        private final long opcodes;
+        private final byte[] line = new byte[MAX_HEADER];
+        private int length;
+        private boolean binary;
+        private int offset;
+
+        /**
+         * Constructs a Follower.
+         *
+         * @param opcodes the opcodes to find, as a mask of {@code 1L << opcode}
+         */
+        Follower(long opcodes) {
+            this.opcodes = opcodes;
+        }
+
+        /**
+         * Reads the next bytes of the direction.
+         *
+         * @param bytes the bytes
+         * @param from the index of the first new byte
+         * @param to the index after the last new byte
+         * @return the first opcode found, or 0 if none is found
+         */
+        int find(byte[] bytes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (binary) {
+                    int opcode = Protocol.opcode(bytes[i]);
+                    if (offset == 0 && (opcodes & 1L << opcode) != 0) {
+                        return opcode;
+                    }
+                    offset = (offset + 1) % Protocol.FRAME_SIZE;
+                } else if (bytes[i] == '\n') {
+                    String command = new String(line, 0, length, StandardCharsets.US_ASCII).trim();
+                    length = 0;
+                    int opcode = Protocol.opcodeOf(command);
+                    if (command.equals(Protocol.BINARY_HANDSHAKE)) {
+                        binary = true;
+                    } else if (opcode != 0 && (opcodes & 1L << opcode) != 0) {
+                        return opcode;
+                    }
+                } else if (length < line.length) {
+                    line[length++] = bytes[i];
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package game;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.*;
+
+/**
+ * The HashedWheelTimer class runs the timeouts of the server: heartbeats, idle
+ * connections, turn clocks and held seats, on a single thread.
+ * <p>
+ * Timeouts are kept in a wheel of buckets, one per tick. A timeout due in more than one
+ * turn of the wheel counts down the turns left in its bucket. Scheduling only appends
+ * the timeout to a lock-free queue, and cancelling only marks it, and queues it for
+ * removal if it is in a bucket already, so both are O(1). The worker takes the queued
+ * timeouts at every tick, drops those cancelled before they reached a bucket and removes
+ * the others from their buckets at once, so cancelled timeouts do not pile up. Unlike
+ * a {@link java.util.concurrent.ScheduledThreadPoolExecutor}, whose heap makes every
+ * schedule and cancel O(log n) under one lock, the cost stays flat with hundreds of
+ * thousands of pending timeouts. The price is precision: a timeout fires up to one tick
+ * late.
+ * <p>
+ * Tasks run on the worker thread, so they must be short and must not block.
+ */
+public class HashedWheelTimer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(HashedWheelTimer.class.getName());
+
+    /**
+     * The tick of the shared timer.
+     */
+    public static final long TICK_MILLIS = 100;
+
+    /**
+     * The number of buckets of the shared timer, one turn of the wheel being 51.2 seconds.
+     */
+    public static final int WHEEL_SIZE = 512;
+
+    /**
+     * The most queued timeouts moved into the wheel per tick, so a burst cannot stall it.
+     */
+    private static final int MAX_TRANSFERS = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * The number of ticks which have passed. Only used by the worker.
+     */
+    private long tick;
+
+    /**
+     * Constructs a HashedWheelTimer and starts its worker thread.
+     *
+     * @param name the name of the worker thread
+     * @param tickMillis the duration of a tick
+     * @param wheelSize the number of buckets, a power of two
+     */
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("The wheel size must be a power of two: " + wheelSize);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+        this.worker = Thread.ofPlatform().name(name).daemon().start(this::run);
+    }
+
+    /**
+     * Gets the timer shared by the whole server.
+     *
+     * @return the shared timer
+     */
+    public static HashedWheelTimer shared() {
+        return Holder.TIMER;
+    }
+
+    /**
+     * Holds the shared timer, so it is started when it is first used.
+     */
+    private static final class Holder {
+        static final HashedWheelTimer TIMER = new HashedWheelTimer("wheel-timer", TICK_MILLIS, WHEEL_SIZE);
+    }
+
+    /**
+     * Schedules a task to run once after a delay.
+     *
+     * @param task the task, which runs on the worker thread
+     * @param delay the delay
+     * @param unit the unit of the delay
+     * @return the timeout, which may be cancelled
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Gets the number of timeouts which have been scheduled and have neither run nor
+     * been cancelled.
+     *
+     * @return the number of pending timeouts
+     */
+    public int size() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the worker. Pending timeouts never run.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Runs the wheel: once per tick, takes the queued timeouts and runs those which are due.
+     */
+    private void run() {
+        while (running) {
+            long deadline = (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime() - startTime) < deadline && running) {
+                LockSupport.parkNanos(deadline - now);
+            }
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire(tick);
+            tick++;
+        }
+    }
+
+    /**
+     * Removes the cancelled timeouts from their buckets.
+     */
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * Puts the queued timeouts into the buckets of their ticks. A timeout which is due
+     * already goes into the current bucket.
+     */
+    private void transferScheduled() {
+        int transferred = 0;
+        while (transferred < MAX_TRANSFERS) {
+            Timeout timeout = scheduled.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long due = timeout.deadline / tickNanos;
+            timeout.rounds = Math.max(0, (due - tick) / wheel.length);
+            wheel[(int) (Math.max(due, tick) & mask)].add(timeout);
+            // A timeout cancelled before this is seen is left for its bucket to drop.
+            timeout.inBucket = true;
+            transferred++;
+        }
+    }
+
+    /**
+     * The Timeout class is a task scheduled on a HashedWheelTimer.
+     */
+    public static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(Timeout.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+
+        /**
+         * The time the task is due, in nanoseconds since the timer started.
+         */
+        private final long deadline;
+        private volatile int state = WAITING;
+
+        /**
+         * Whether the worker has put the timeout into a bucket, so a cancel must remove it.
+         */
+        private volatile boolean inBucket;
+
+        /**
+         * The turns of the wheel left before the timeout is due, and its place in its
+         * bucket. Only used by the worker.
+         */
+        private long rounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        /**
+         * Constructs a Timeout.
+         *
+         * @param timer the timer running it
+         * @param task the task
+         * @param deadline the time the task is due, in nanoseconds since the timer started
+         */
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task, unless it has run already.
+         *
+         * @return true if the task will not run, false if it has run or been cancelled before
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, WAITING, CANCELLED)) {
+                return false;
+            }
+            timer.pending.decrementAndGet();
+            if (inBucket) {
+                timer.cancelled.add(this);
+            }
+            return true;
+        }
+
+        /**
+         * Checks if the task has been cancelled.
+         *
+         * @return true if it has been cancelled, false otherwise
+         */
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /**
+         * Checks if the task has run or is running.
+         *
+         * @return true if it has expired, false otherwise
+         */
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        /**
+         * Runs the task, unless it has been cancelled meanwhile.
+         */
+        private void expire() {
+            if (!STATE.compareAndSet(this, WAITING, EXPIRED)) {
+                return;
+            }
+            timer.pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Timer task failed", e);
+            }
+        }
+    }
+
+    /**
+     * The Bucket class is a doubly linked list of the timeouts of one slot of the wheel.
+     * Only used by the worker.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        /**
+         * Appends a timeout.
+         *
+         * @param timeout the timeout
+         */
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        /**
+         * Runs the timeouts which are due at this tick, and counts down the turns of the others.
+         *
+         * @param tick the current tick
+         */
+        void expire(long tick) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        /**
+         * Unlinks a timeout.
+         *
+         * @param timeout the timeout, which is in this bucket
+         */
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+        }
+    }
+}
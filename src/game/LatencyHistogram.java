@@ -0,0 +1,141 @@
+package game;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class records a distribution of non-negative values, such as
+ * latencies in nanoseconds, with a bounded relative error in the spirit of HdrHistogram.
+ * <p>
+ * Values below 32 have their own bucket. Above that, every power of two is split into
+ * 32 linear sub-buckets, so a reported value is within about 3% of the recorded one.
+ * Recording is a single atomic increment, so many threads can record concurrently
+ * without locks.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a single value.
+     *
+     * @param value the value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the number of values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the value below or at which the specified percentage of the values fall.
+     *
+     * @param percentile the percentage, between 0 and 100
+     * @return the highest value equivalent to the percentile, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+
+    /**
+     * Gets the highest recorded value, within the precision of the histogram.
+     *
+     * @return the maximum value, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    /**
+     * Moves the recorded values into a new histogram and clears this one.
+     * Values recorded concurrently end up in exactly one of the two.
+     *
+     * @return the histogram of the values recorded until now
+     */
+    public LatencyHistogram snapshotAndReset() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) > 0) {
+                snapshot.counts.set(i, counts.getAndSet(i, 0));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the index of the bucket of a value.
+     *
+     * @param value the non-negative value
+     * @return the bucket index
+     */
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the highest value which falls into a bucket.
+     *
+     * @param index the bucket index
+     * @return the highest value of the bucket
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long) (index % SUB_COUNT + SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,128 @@
+package game;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * The Leaderboard class orders players by rating and is updated one rating change at a time.
+ * <p>
+ * A Fenwick tree counts the players of every rating, so the rank of a rating is a prefix
+ * sum in O(log R) steps, R being the number of possible ratings. A sorted set of
+ * {@code (rating, id)} keys gives the best players in order, so the top K are read in
+ * O(K + log n). A rating change moves one key and updates two counts.
+ * <p>
+ * The class is not thread-safe; {@link PlayerStats} guards it with its lock.
+ */
+public class Leaderboard {
+    private final int maxRating;
+    private final int[] counts;
+    private final TreeSet<Long> order = new TreeSet<>();
+
+    /**
+     * Constructs an empty Leaderboard.
+     *
+     * @param maxRating the highest rating, ratings range from 0 to it
+     */
+    public Leaderboard(int maxRating) {
+        this.maxRating = maxRating;
+        this.counts = new int[maxRating + 2];
+    }
+
+    /**
+     * Adds a player.
+     *
+     * @param id the id of the player
+     * @param rating the rating of the player
+     */
+    public void add(int id, int rating) {
+        order.add(key(id, rating));
+        count(rating, 1);
+    }
+
+    /**
+     * Moves a player to a new rating.
+     *
+     * @param id the id of the player
+     * @param oldRating the rating the player was added or last updated with
+     * @param newRating the new rating
+     */
+    public void update(int id, int oldRating, int newRating) {
+        if (oldRating == newRating) {
+            return;
+        }
+        order.remove(key(id, oldRating));
+        order.add(key(id, newRating));
+        count(oldRating, -1);
+        count(newRating, 1);
+    }
+
+    /**
+     * Gets the rank of a rating: 1 plus the number of players rated higher.
+     *
+     * @param rating the rating
+     * @return the rank, starting at 1
+     */
+    public int rankOf(int rating) {
+        return 1 + size() - countUpTo(rating);
+    }
+
+    /**
+     * Gets the best players, highest rating first and earliest id first among equals.
+     *
+     * @param k the maximum number of players
+     * @return the ids of at most {@code k} players
+     */
+    public int[] top(int k) {
+        int[] ids = new int[Math.min(k, order.size())];
+        Iterator<Long> keys = order.iterator();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) (long) keys.next();
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the number of players.
+     *
+     * @return the number of players
+     */
+    public int size() {
+        return order.size();
+    }
+
+    /**
+     * Gets the sort key of a player, which orders higher ratings first.
+     *
+     * @param id the id of the player
+     * @param rating the rating of the player
+     * @return the key
+     */
+    private long key(int id, int rating) {
+        return (long) (maxRating - rating) << 32 | id;
+    }
+
+    /**
+     * Adds to the count of a rating.
+     *
+     * @param rating the rating
+     * @param delta the change of the count
+     */
+    private void count(int rating, int delta) {
+        for (int i = rating + 1; i < counts.length; i += i & -i) {
+            counts[i] += delta;
+        }
+    }
+
+    /**
+     * Counts the players rated at or below a rating.
+     *
+     * @param rating the rating
+     * @return the number of players
+     */
+    private int countUpTo(int rating) {
+        int sum = 0;
+        for (int i = rating + 1; i > 0; i -= i & -i) {
+            sum += counts[i];
+        }
+        return sum;
+    }
+}
@@ -1,6 +1,8 @@
 package game;
 import javax.swing.*;
 import java.awt.*;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * The MainWindow class represents the main window of the Tic Tac Toe game application.
@@ -20,11 +22,21 @@ public class MainWindow {
 
     private String name;
 
+    /**
+     * Receives the name once the player has entered it, or null.
+     */
+    private Consumer<String> nameListener;
+
     /**
      * The JFrame that constitutes the main window.
      */
     private JFrame frame;
 
+    /**
+     * The end game dialog which is open, or null.
+     */
+    private JDialog endGameDialog;
+
     /**
      * The menu panel containing the application's menus.
      */
@@ -78,54 +90,85 @@ public class MainWindow {
     public void setName(String name) {
         this.name = name;
         frame.setTitle("Tic Tac Toe - Player: " + name);
+        if (nameListener != null) {
+            nameListener.accept(name);
+        }
+    }
+
+    /**
+     * Sets the receiver of the name of the player, which is called once the player has entered it.
+     *
+     * @param nameListener the receiver of the name
+     */
+    public void setNameListener(Consumer<String> nameListener) {
+        this.nameListener = nameListener;
     }
 
     /**
      * Shows the end game dialog with the specified command.
      *
      * @param cmd The command indicating the end game state.
-     * @return The user's response to the dialog.
+     * @param onAnswer Receives the user's response once the dialog is closed.
      */
-    public int showEndGameDialog(String cmd) {
-        return showEndGameDialog(cmd, false);
+    public void showEndGameDialog(String cmd, IntConsumer onAnswer) {
+        showEndGameDialog(cmd, false, onAnswer);
     }
 
     /**
      * Shows the end game dialog with the specified command and player state.
+     * <p>
+     * The dialog is not modal: it returns at once, and the events of the server keep
+     * updating the window while it is open. A dialog which is still open when the next
+     * one is shown is closed without an answer.
      *
      * @param cmd The command indicating the end game state.
      * @param isCurrentPlayer Whether the current player is the one who won.
-     * @return The user's response to the dialog.
+     * @param onAnswer Receives the user's response once the dialog is closed:
+     *                 {@link JOptionPane#YES_OPTION}, {@link JOptionPane#NO_OPTION} or
+     *                 {@link JOptionPane#CLOSED_OPTION}.
      */
-    public int showEndGameDialog(String cmd, boolean isCurrentPlayer) {
+    public void showEndGameDialog(String cmd, boolean isCurrentPlayer, IntConsumer onAnswer) {
         String title = "Game Over";
+        JOptionPane pane;
         if(cmd.equals("WIN")) {
             if(isCurrentPlayer) {
                 String msg = "Congratulations. You win! Do you want to play again?";
-                return JOptionPane.showConfirmDialog(frame, msg, title, JOptionPane.YES_NO_OPTION);
+                pane = new JOptionPane(msg, JOptionPane.QUESTION_MESSAGE, JOptionPane.YES_NO_OPTION);
             } else {
                 String msg = "You lose. Do you want to play again?";
-                return JOptionPane.showConfirmDialog(frame, msg, title, JOptionPane.YES_NO_OPTION);
+                pane = new JOptionPane(msg, JOptionPane.QUESTION_MESSAGE, JOptionPane.YES_NO_OPTION);
             }
         } else if (cmd.equals("DRAW")){
             String msg = "It's a draw! Do you want to play again?";
-            return JOptionPane.showConfirmDialog(frame, msg, title, JOptionPane.YES_NO_OPTION);
+            pane = new JOptionPane(msg, JOptionPane.QUESTION_MESSAGE, JOptionPane.YES_NO_OPTION);
         } else if (cmd.equals("QUIT")) {
             String msg = "Game Ends. One of the players left.";
             Object[] options = {"Okay"};
-            JOptionPane.showOptionDialog(
-                this.frame,
-                msg,
-                title,
-                JOptionPane.DEFAULT_OPTION,
-                JOptionPane.INFORMATION_MESSAGE,
-                (Icon) null,
-                options,
-                options[0]
-            );
-            return JOptionPane.CLOSED_OPTION;
+            pane = new JOptionPane(msg, JOptionPane.INFORMATION_MESSAGE, JOptionPane.DEFAULT_OPTION,
+                null, options, options[0]);
+        } else {
+            onAnswer.accept(JOptionPane.CLOSED_OPTION);
+            return;
         }
-        return JOptionPane.CLOSED_OPTION;
+
+        if (endGameDialog != null) {
+            endGameDialog.dispose();
+        }
+        JDialog dialog = pane.createDialog(frame, title);
+        dialog.setModal(false);
+        pane.addPropertyChangeListener(JOptionPane.VALUE_PROPERTY, e -> {
+            Object value = e.getNewValue();
+            if (value == JOptionPane.UNINITIALIZED_VALUE || endGameDialog != dialog) {
+                return;
+            }
+            endGameDialog = null;
+            dialog.dispose();
+            // Only the yes/no dialogs answer with an option index.
+            onAnswer.accept(value instanceof Integer && pane.getOptions() == null
+                ? (Integer) value : JOptionPane.CLOSED_OPTION);
+        });
+        endGameDialog = dialog;
+        dialog.setVisible(true);
     }
 
     /**
@@ -0,0 +1,797 @@
+package game;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.*;
+
+/**
+ * The Match class represents a single game between two players.
+ * Every match owns its own board, turn and player handles, so a single
+ * GameServer can host many independent matches at the same time.
+ * Any number of {@link Spectators} may watch a match without slowing its players down.
+ * <p>
+ * A match runs on one of the {@link GameLoops}: every method which reads or changes its
+ * state must be called on its loop, through {@link #execute(Runnable)}, and so the match
+ * needs no lock. Only the server which opens a match sets it up on its own thread, before
+ * any other thread can see it. The clock and the bot hand their work to the loop too.
+ * <p>
+ * When the connection of a player drops, its seat is held for a grace period instead of
+ * ending the match. Nothing can be played meanwhile, and the player may take the seat
+ * back on a new connection with {@link #rejoin}, which sends it only what it has missed.
+ * <p>
+ * Every turn has a clock of {@link #TURN_MILLIS}. A player who does not move in time loses
+ * the game, and a player who loses {@link #MAX_TIMEOUTS} games in a row that way leaves
+ * the match. The clock is a single timeout on the {@link HashedWheelTimer} per match,
+ * which a move only pushes back, so moves schedule nothing; when the timeout fires before
+ * the turn is over, it schedules itself again for the time left.
+ */
+public class Match {
+    private static final Logger logger = Logger.getLogger(Match.class.getName());
+
+    /**
+     * The time a player has for a move.
+     */
+    public static final long TURN_MILLIS = 30_000;
+
+    /**
+     * The number of games in a row a player may lose by running out of time before it
+     * is removed from the match.
+     */
+    public static final int MAX_TIMEOUTS = 2;
+
+    private final int id;
+    private final Connection[] players = new Connection[2];
+
+    /**
+     * The game loop which runs every command of the match.
+     */
+    private final Executor loop;
+
+    private final BitBoard board;
+    private final GameServerMetrics metrics;
+    private final MatchJournal journal;
+    private final PlayerStats stats;
+    private boolean closed = false;
+
+    /**
+     * The player number of the server-side bot seat, or 0 if both players are clients.
+     */
+    private int bot = 0;
+
+    /**
+     * The search of the bot on a board other than the classic one, or null.
+     */
+    private MonteCarloSearch search;
+
+    /**
+     * The spectators of the match, created when the first one arrives, or null.
+     */
+    private Spectators spectators;
+
+    /**
+     * The number of games finished in this match, so a bot move searched for an earlier
+     * game is dropped.
+     */
+    private int games = 0;
+
+    /**
+     * The cells of the marks of the current game, in the order they were played.
+     */
+    private final int[] history;
+
+    /**
+     * The result of the last game which has ended, as {@code opcode << 4 | player}, or 0.
+     */
+    private int lastResult = 0;
+
+    /**
+     * Whether the seat of each player is held for it while it is away.
+     */
+    private final boolean[] held = new boolean[2];
+
+    /**
+     * The {@link System#nanoTime()} until which each held seat is kept.
+     */
+    private final long[] heldUntil = new long[2];
+
+    /**
+     * The ids of the players in the {@link PlayerStats}, or -1, kept while a seat is held.
+     */
+    private final int[] profiles = {-1, -1};
+
+    /**
+     * The {@link System#nanoTime()} by which the player to move must move.
+     */
+    private long turnDeadline;
+
+    /**
+     * Whether the clock has a timeout on the timer.
+     */
+    private boolean clockArmed;
+    private final Runnable clockTask = () -> execute(this::checkClock);
+
+    /**
+     * The games each player has lost in a row by running out of time.
+     */
+    private final int[] timeouts = new int[2];
+
+    /**
+     * Constructs an empty Match on the classic board with the specified id.
+     *
+     * @param id the id of the match inside its server
+     */
+    public Match(int id) {
+        this(id, BitBoard.SIZE, BitBoard.SIZE);
+    }
+
+    /**
+     * Constructs an empty Match with the specified id and board, counted by metrics of its own.
+     *
+     * @param id the id of the match inside its server
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     */
+    public Match(int id, int size, int length) {
+        this(id, size, length, new GameServerMetrics());
+    }
+
+    /**
+     * Constructs an empty Match with the specified id and board.
+     *
+     * @param id the id of the match inside its server
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @param metrics the metrics of the server hosting the match
+     */
+    public Match(int id, int size, int length, GameServerMetrics metrics) {
+        this(id, size, length, metrics, null);
+    }
+
+    /**
+     * Constructs an empty Match with the specified id and board, which journals its moves
+     * and the end of its games. Opening the match is journaled by the server.
+     *
+     * @param id the id of the match inside its server
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @param metrics the metrics of the server hosting the match
+     * @param journal the journal of the server, or null
+     */
+    public Match(int id, int size, int length, GameServerMetrics metrics, MatchJournal journal) {
+        this(id, size, length, metrics, journal, null);
+    }
+
+    /**
+     * Constructs an empty Match with the specified id and board, which journals its moves
+     * and rates the players of its games.
+     *
+     * @param id the id of the match inside its server
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @param metrics the metrics of the server hosting the match
+     * @param journal the journal of the server, or null
+     * @param stats the player statistics of the server, or null
+     */
+    public Match(int id, int size, int length, GameServerMetrics metrics, MatchJournal journal, PlayerStats stats) {
+        this(id, size, length, metrics, journal, stats, GameLoops.shared().loopOf(id));
+    }
+
+    /**
+     * Constructs an empty Match with the specified id and board, which runs on the
+     * specified game loop.
+     *
+     * @param id the id of the match inside its server
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @param metrics the metrics of the server hosting the match
+     * @param journal the journal of the server, or null
+     * @param stats the player statistics of the server, or null
+     * @param loop the game loop of the match
+     */
+    public Match(int id, int size, int length, GameServerMetrics metrics, MatchJournal journal, PlayerStats stats,
+            Executor loop) {
+        this.loop = loop;
+        this.id = id;
+        this.board = new BitBoard(size, length);
+        this.history = new int[size * size];
+        this.metrics = metrics;
+        this.journal = journal;
+        this.stats = stats;
+    }
+
+    /**
+     * Gets the id of this match.
+     *
+     * @return the id of the match
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Runs a task on the game loop of this match, after the tasks handed to it before.
+     *
+     * @param task the task, which must not block
+     */
+    public void execute(Runnable task) {
+        loop.execute(task);
+    }
+
+    /**
+     * Seats the connection at the first free player slot. The clock is started by
+     * {@link #start()}.
+     *
+     * @param connection the connection of the joining player
+     * @return the player number (1 or 2), or 0 if the match is full or closed
+     */
+    public int join(Connection connection) {
+        if (closed) {
+            return 0;
+        }
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] == null && bot != i + 1) {
+                players[i] = connection;
+                profiles[i] = connection.getProfile();
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Starts the clock of the first turn, once both players have been seated.
+     */
+    public void start() {
+        if (!closed && isFull()) {
+            restartClock(System.nanoTime());
+        }
+    }
+
+    /**
+     * Gets the number of rows and columns of the board of this match.
+     *
+     * @return the size of the board
+     */
+    public int getSize() {
+        return board.getSize();
+    }
+
+    /**
+     * Gets the number of marks in a row which wins a game of this match.
+     *
+     * @return the length of a winning line
+     */
+    public int getLength() {
+        return board.getLength();
+    }
+
+    /**
+     * Seats the server-side bot in the second player slot. On the classic board the bot
+     * answers every move of its opponent at once with the best move of the
+     * {@link PositionTable}. On other boards it answers with a {@link MonteCarloSearch},
+     * which runs on its own pool within a time budget, so the game loop which applied the
+     * opponent's move is not held up.
+     *
+     * @return true if the bot has been seated, false if the slot is taken
+     */
+    public boolean addBot() {
+        if (closed || players[1] != null || bot != 0) {
+            return false;
+        }
+        bot = 2;
+        search = board.isClassic() ? null : new MonteCarloSearch();
+        return true;
+    }
+
+    /**
+     * Adds a spectator, which receives a snapshot of the current game and then every
+     * move and result, or only {@code QUIT} if the match has been closed. The connection
+     * must watch this match already.
+     *
+     * @param connection the connection of the spectator
+     */
+    public void watch(Connection connection) {
+        if (closed) {
+            connection.send(Protocol.QUIT, 0, 0, 0);
+            connection.commit();
+            return;
+        }
+        if (spectators == null) {
+            spectators = new Spectators(this);
+        }
+        spectators.add(connection, board);
+    }
+
+    /**
+     * Gets the number of spectators of this match.
+     *
+     * @return the number of spectators
+     */
+    public int getSpectatorCount() {
+        return spectators == null ? 0 : spectators.size();
+    }
+
+    /**
+     * Sends a player the best move of the current position, or WAIT if it is not
+     * the player's turn or the board is not classic.
+     *
+     * @param player the player asking for a hint
+     */
+    public void hint(int player) {
+        Connection connection = players[player - 1];
+        if (closed || connection == null) {
+            return;
+        }
+        int cell = isFull() && board.getTurn() == player ? PositionTable.shared().bestMove(board) : -1;
+        if (cell < 0) {
+            connection.send(Protocol.WAIT, 0, 0, 0);
+        } else {
+            connection.send(Protocol.HINT, player, cell / BitBoard.SIZE, cell % BitBoard.SIZE);
+        }
+        connection.commit();
+    }
+
+    /**
+     * Checks if both player slots are taken.
+     *
+     * @return true if the match has two players, false otherwise
+     */
+    public boolean isFull() {
+        return (players[0] != null || bot == 1) && (players[1] != null || bot == 2);
+    }
+
+    /**
+     * Checks if the match has been torn down.
+     *
+     * @return true if the match is closed, false otherwise
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Applies a MOVE of the specified player. Until the opponent has joined,
+     * every move is answered with WAIT.
+     *
+     * @param player the player who moves (1 or 2)
+     * @param row the row of the move
+     * @param col the column of the move
+     * @param receivedAt the {@link System#nanoTime()} at which the move was received, from
+     *                   which its latency is measured
+     */
+    public void move(int player, int row, int col, long receivedAt) {
+        Connection connection = players[player - 1];
+        if (closed || connection == null) {
+            return;
+        }
+        int result = isFull() ? board.move(player, board.indexOf(row, col)) : BitBoard.WAIT;
+        if (result == BitBoard.WAIT) {
+            logger.fine("Player " + player + " is not allowed to move now in match " + id + ".");
+            metrics.moveRejected();
+            connection.send(Protocol.WAIT, 0, 0, 0);
+            connection.commit();
+            return;
+        }
+        if (result == BitBoard.ILLEGAL) {
+            return;
+        }
+        logger.fine("Received player " + player + " move in match " + id + ": " + row + " " + col);
+        timeouts[player - 1] = 0;
+        if (announce(player, row, col, result) && bot != 0) {
+            answerBot();
+        }
+        restartClock(receivedAt);
+        commit();
+        metrics.moveApplied(receivedAt);
+    }
+
+    /**
+     * Applies a journaled move while the match is rebuilt after a restart, without
+     * telling anyone or journaling it again. Called before the match is handed to its loop.
+     *
+     * @param player the player who moved (1 or 2)
+     * @param row the row of the move
+     * @param col the column of the move
+     */
+    void replay(int player, int row, int col) {
+        int cell = board.indexOf(row, col);
+        int result = board.move(player, cell);
+        if (result == BitBoard.WIN || result == BitBoard.DRAW) {
+            board.reset();
+            games++;
+        } else if (result != BitBoard.WAIT && result != BitBoard.ILLEGAL) {
+            history[board.getMoves() - 1] = cell;
+        }
+    }
+
+    /**
+     * Lets the bot answer a move which was journaled before the restart without its answer.
+     */
+    void resume() {
+        if (!closed && bot != 0 && board.getTurn() == bot) {
+            answerBot();
+        }
+    }
+
+    /**
+     * Answers the move of the bot's opponent: at once from the {@link PositionTable} on the
+     * classic board, otherwise by starting a search.
+     */
+    private void answerBot() {
+        if (search == null) {
+            int cell = PositionTable.shared().bestMove(board);
+            announce(bot, cell / BitBoard.SIZE, cell % BitBoard.SIZE, board.move(bot, cell));
+        } else {
+            searchBotMove();
+        }
+    }
+
+    /**
+     * Starts the search of the bot's answer on a copy of the board, with the budget
+     * counted from now. The move is applied when the search ends, unless the match has
+     * been closed or the game has ended meanwhile.
+     */
+    private void searchBotMove() {
+        BitBoard position = new BitBoard(board);
+        int game = games;
+        long deadline = System.nanoTime() + search.getBudgetNanos();
+        CompletableFuture.supplyAsync(() -> search.bestMove(position, deadline), MonteCarloSearch.pool())
+            .whenComplete((cell, error) -> {
+                if (error != null) {
+                    logger.log(Level.SEVERE, "Bot search failed in match " + id, error);
+                } else {
+                    execute(() -> playBot(game, cell));
+                }
+            });
+    }
+
+    /**
+     * Applies a move searched by the bot.
+     *
+     * @param game the number of the game the move was searched for
+     * @param cell the cell index of the move
+     */
+    private void playBot(int game, int cell) {
+        if (closed || game != games) {
+            return;
+        }
+        int result = board.move(bot, cell);
+        if (result == BitBoard.WAIT || result == BitBoard.ILLEGAL) {
+            return;
+        }
+        logger.fine("Bot move in match " + id + " after " + search.getLastPlayouts() + " playouts: " + cell);
+        announce(bot, cell / board.getSize(), cell % board.getSize(), result);
+        restartClock(System.nanoTime());
+        commit();
+    }
+
+    /**
+     * Handles a player leaving the match, either by QUIT or by disconnecting.
+     * The remaining player is notified and the match is closed. A player who leaves a
+     * game in progress loses it.
+     *
+     * @param player the player who leaves (1 or 2)
+     */
+    public void leave(int player) {
+        if (!closed) {
+            closed = true;
+            metrics.gameFinished(Protocol.QUIT);
+            journal(Protocol.QUIT, player, 0, 0);
+            if (board.getMoves() > 0) {
+                rate(3 - player);
+            }
+            broadcast(Protocol.QUIT, player, 0, 0);
+            board.reset();
+            commit();
+        }
+        players[player - 1] = null;
+    }
+
+    /**
+     * Holds the seat of a player whose connection has dropped, so it may
+     * {@link #rejoin} the match until the deadline. The seat is empty meanwhile, so
+     * moves are answered with {@code WAIT}.
+     *
+     * @param player the player who is away (1 or 2)
+     * @param connection the connection which has dropped
+     * @param deadline the {@link System#nanoTime()} until which the seat is held
+     * @return true if the seat is held, false if the match is closed or the connection
+     *         no longer holds the seat
+     */
+    public boolean hold(int player, Connection connection, long deadline) {
+        if (closed || players[player - 1] != connection) {
+            return false;
+        }
+        players[player - 1] = null;
+        held[player - 1] = true;
+        heldUntil[player - 1] = deadline;
+        logger.fine("Holding the seat of player " + player + " in match " + id);
+        return true;
+    }
+
+    /**
+     * Holds every empty seat of a match rebuilt after a restart, whose players have not
+     * come back yet.
+     *
+     * @param deadline the {@link System#nanoTime()} until which the seats are held
+     */
+    void holdSeats(long deadline) {
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] == null && bot != i + 1) {
+                held[i] = true;
+                heldUntil[i] = deadline;
+            }
+        }
+    }
+
+    /**
+     * Ends the match as if the player had left, if its seat is still held and its
+     * deadline has passed.
+     *
+     * @param player the player who is away (1 or 2)
+     * @return true if the match has been closed, false otherwise
+     */
+    public boolean expire(int player) {
+        if (closed || !held[player - 1] || System.nanoTime() - heldUntil[player - 1] < 0) {
+            return false;
+        }
+        held[player - 1] = false;
+        leave(player);
+        return true;
+    }
+
+    /**
+     * Checks if a player may take its seat back: the match is open and the seat is not the
+     * bot's. Call it on the game loop of the match, where the answer holds until the task
+     * ends.
+     *
+     * @param player the player number (1 or 2)
+     * @return true if {@link #rejoin} would seat the player, false otherwise
+     */
+    public boolean canRejoin(int player) {
+        return !closed && bot != player;
+    }
+
+    /**
+     * Seats a player again on a new connection and sends it what it has missed, ending
+     * with its {@code ID}. A connection which still holds the seat, e.g. one whose drop the
+     * server has not noticed yet, is detached and closed without waiting on its socket.
+     * <p>
+     * If the client has seen every game which has ended and has no more marks than the
+     * board, it gets the marks it is missing. Otherwise it gets the result of the last
+     * game, if that is the only one it has missed, and then the {@code BOARD} and every
+     * mark of the current game.
+     *
+     * @param player the player number (1 or 2)
+     * @param connection the new connection of the player, seated in this match
+     * @param seenGames the number of games the client has seen end in this match
+     * @param seenMoves the number of marks on the board of the client
+     * @return true if the player has its seat back, false if the match is closed
+     */
+    public boolean rejoin(int player, Connection connection, int seenGames, int seenMoves) {
+        if (!canRejoin(player)) {
+            connection.send(Protocol.QUIT, 0, 0, 0);
+            connection.commit();
+            return false;
+        }
+        Connection displaced = players[player - 1];
+        players[player - 1] = connection;
+        profiles[player - 1] = connection.getProfile();
+        held[player - 1] = false;
+        if (displaced != null) {
+            displaced.detach();
+            displaced.closeIdle();
+        }
+        int from = seenMoves;
+        if (seenGames != games || seenMoves < 0 || seenMoves > board.getMoves()) {
+            if (seenGames == games - 1 && lastResult != 0) {
+                connection.send(lastResult >> 4, lastResult & 0xF, 0, 0);
+            }
+            connection.send(Protocol.BOARD, 0, board.getSize(), board.getLength());
+            from = 0;
+        }
+        // Player 1 always moves first, so the marks alternate.
+        for (int i = from; i < board.getMoves(); i++) {
+            connection.send(Protocol.MOVE, 1 + i % 2, history[i] / board.getSize(), history[i] % board.getSize());
+        }
+        connection.send(Protocol.ID, player, 0, 0);
+        connection.commit();
+        if (isFull()) {
+            restartClock(System.nanoTime());
+        }
+        metrics.sessionResumed();
+        logger.fine("Player " + player + " has rejoined match " + id + " from move " + from);
+        return true;
+    }
+
+    /**
+     * Sends a player whose output has overflowed the latest state of the match in place
+     * of what it has missed: the {@code BOARD} and every mark of the current game. The
+     * results of the games which have ended meanwhile are skipped.
+     *
+     * @param player the player number (1 or 2)
+     * @param connection the connection of the player
+     * @return true if the player has been sent the state, false if the connection no
+     *         longer holds the seat or the match is closed
+     */
+    public boolean resync(int player, Connection connection) {
+        if (closed || players[player - 1] != connection) {
+            return false;
+        }
+        connection.resync();
+        connection.send(Protocol.BOARD, 0, board.getSize(), board.getLength());
+        for (int i = 0; i < board.getMoves(); i++) {
+            connection.send(Protocol.MOVE, 1 + i % 2, history[i] / board.getSize(), history[i] % board.getSize());
+        }
+        connection.commit();
+        logger.fine("Player " + player + " has been sent the state of match " + id);
+        return true;
+    }
+
+    /**
+     * Sends a message to every player and spectator of this match.
+     *
+     * @param opcode the message type
+     * @param player the player the message refers to, or 0
+     * @param a the first argument, or 0
+     * @param b the second argument, or 0
+     */
+    private void broadcast(int opcode, int player, int a, int b) {
+        for (Connection connection : players) {
+            if (connection != null) {
+                connection.send(opcode, player, a, b);
+            }
+        }
+        if (spectators != null) {
+            spectators.publish(opcode, player, a, b);
+        }
+    }
+
+    /**
+     * Broadcasts a valid move and the end of the game it may cause.
+     *
+     * @param player the player who moved
+     * @param row the row of the move
+     * @param col the column of the move
+     * @param result the result of the move on the board
+     * @return true if the game goes on, false if it has ended and the board has been reset
+     */
+    private boolean announce(int player, int row, int col, int result) {
+        history[board.getMoves() - 1] = board.indexOf(row, col);
+        broadcast(Protocol.MOVE, player, row, col);
+        journal(Protocol.MOVE, player, row, col);
+        if (result == BitBoard.WIN) {
+            endGame(player);
+        } else if (result == BitBoard.DRAW) {
+            endGame(0);
+        } else {
+            if (search != null) {
+                search.advance(board.indexOf(row, col));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Broadcasts, journals and rates the end of the current game and resets the board
+     * for the next one.
+     *
+     * @param winner the player who won (1 or 2), or 0 for a draw
+     */
+    private void endGame(int winner) {
+        int opcode = winner == 0 ? Protocol.DRAW : Protocol.WIN;
+        lastResult = opcode << 4 | winner;
+        broadcast(opcode, winner, 0, 0);
+        journal(opcode, winner, 0, 0);
+        rate(winner);
+        metrics.gameFinished(opcode);
+        board.reset();
+        games++;
+        if (search != null) {
+            search.reset();
+        }
+    }
+
+    /**
+     * Starts the clock of the player to move.
+     *
+     * @param now the {@link System#nanoTime()} at which the turn starts
+     */
+    private void restartClock(long now) {
+        turnDeadline = now + TimeUnit.MILLISECONDS.toNanos(TURN_MILLIS);
+        if (!clockArmed) {
+            clockArmed = true;
+            HashedWheelTimer.shared().schedule(clockTask, TURN_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs on the loop when the clock may have run out. The clock stops while a seat is
+     * held or the bot is to move, and is started again by the next move or rejoin.
+     */
+    private void checkClock() {
+        clockArmed = false;
+        if (closed || !isFull() || board.getTurn() == bot) {
+            return;
+        }
+        long left = turnDeadline - System.nanoTime();
+        if (left > 0) {
+            clockArmed = true;
+            HashedWheelTimer.shared().schedule(clockTask, left, TimeUnit.NANOSECONDS);
+            return;
+        }
+        forfeit(board.getTurn());
+    }
+
+    /**
+     * Ends the game of a player who has run out of time with a win for its opponent, or
+     * removes the player from the match if it has run out of time too often in a row.
+     *
+     * @param player the player who has run out of time
+     */
+    private void forfeit(int player) {
+        metrics.turnTimedOut();
+        logger.info("Player " + player + " ran out of time in match " + id);
+        if (++timeouts[player - 1] >= MAX_TIMEOUTS) {
+            leave(player);
+            return;
+        }
+        endGame(3 - player);
+        restartClock(System.nanoTime());
+        commit();
+    }
+
+    /**
+     * Records the result of a game between two named players in the player statistics.
+     * Games against the bot and games of unnamed players are not rated.
+     *
+     * @param winner the player who won (1 or 2), or 0 for a draw
+     */
+    private void rate(int winner) {
+        if (stats == null || bot != 0) {
+            return;
+        }
+        int first = profiles[0];
+        int second = profiles[1];
+        if (first < 0 || second < 0) {
+            return;
+        }
+        if (winner == 0) {
+            stats.recordDraw(first, second);
+        } else if (winner == 1) {
+            stats.recordWin(first, second);
+        } else {
+            stats.recordWin(second, first);
+        }
+    }
+
+    /**
+     * Appends an event of this match to the journal, if there is one.
+     *
+     * @param opcode the event
+     * @param player the player the event refers to, or 0
+     * @param a the first argument, or 0
+     * @param b the second argument, or 0
+     */
+    private void journal(int opcode, int player, int a, int b) {
+        if (journal != null) {
+            journal.append(opcode, id, player, a, b);
+        }
+    }
+
+    /**
+     * Hands the messages produced by the current command to the transports
+     * of the players, so each of them gets a single write, and to the spectators.
+     */
+    private void commit() {
+        for (Connection connection : players) {
+            if (connection != null) {
+                connection.commit();
+            }
+        }
+        if (spectators != null) {
+            spectators.commit();
+        }
+    }
+}
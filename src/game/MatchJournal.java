@@ -0,0 +1,483 @@
+package game;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.*;
+import java.util.zip.CRC32C;
+
+/**
+ * The MatchJournal class appends the events of every match to a file, so the matches
+ * in progress can be rebuilt after the server has died.
+ * <p>
+ * An event is a 12-byte record: the match id, a {@link Protocol} opcode, a player and
+ * two arguments packed into a {@code long}, followed by a CRC32C of those 8 bytes, so a
+ * record torn by a crash is detected and ends the replay. {@link #append} only puts the
+ * record into a lock-free ring and never touches the file. A single writer thread drains
+ * whatever has accumulated into one buffer and writes it with one call, which commits the
+ * records of many moves as a group.
+ * <p>
+ * An append never waits, so a slow disk never stalls the game loops. When the ring is
+ * full the record is dropped and counted instead, and the writer then ends every match
+ * which has lost a record with a {@code QUIT} record of its own, so a match is never
+ * rebuilt from an incomplete journal: it is played on, but not recovered after a crash.
+ * <p>
+ * The {@link Sync} policy decides when written records are forced to the device. Records
+ * which have been written survive a crash of the process with any policy; forcing them
+ * makes them survive a crash of the machine as well.
+ */
+public class MatchJournal implements Closeable {
+    private static final Logger logger = Logger.getLogger(MatchJournal.class.getName());
+
+    /**
+     * When the writer forces the journal to the storage device.
+     */
+    public enum Sync {
+        /**
+         * Never; the operating system writes the pages back when it sees fit.
+         */
+        NONE,
+
+        /**
+         * At most once per sync interval, after a write.
+         */
+        INTERVAL,
+
+        /**
+         * After every group write, before the next one starts.
+         */
+        ALWAYS
+    }
+
+    /**
+     * Receives the records of a journal in the order they were appended.
+     */
+    public interface Replayer {
+        /**
+         * Handles a single record.
+         *
+         * @param opcode the {@link Protocol} opcode of the event
+         * @param match the id of the match
+         * @param player the player the event refers to, or 0
+         * @param a the first argument of the event
+         * @param b the second argument of the event
+         */
+        void replay(int opcode, int match, int player, int a, int b);
+    }
+
+    /**
+     * The size of a record in the file.
+     */
+    public static final int RECORD_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * The default number of records the ring holds.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * The default time between two forces of the {@link Sync#INTERVAL} policy.
+     */
+    public static final long DEFAULT_SYNC_MILLIS = 100;
+
+    /**
+     * The largest number of records written with one call.
+     */
+    private static final int BATCH = 4096;
+
+    private final FileChannel channel;
+    private final Sync sync;
+    private final long syncNanos;
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+    private final Thread writer;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(2 * BATCH * RECORD_SIZE);
+    private final CRC32C crc = new CRC32C();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The ids of the matches which have lost a record and are not ended in the file yet,
+     * with the sequence at which the last record was lost.
+     */
+    private final Map<Integer, Long> damaged = new ConcurrentHashMap<>();
+    private final AtomicLong forces = new AtomicLong();
+    private long lastForce = System.nanoTime();
+    private boolean unforced;
+
+    /**
+     * Opens a journal for appending, with the default ring capacity and sync interval.
+     *
+     * @param path the file of the journal, created if it does not exist
+     * @param sync the policy for forcing records to the device
+     * @throws IOException if the file cannot be opened
+     */
+    public MatchJournal(Path path, Sync sync) throws IOException {
+        this(path, sync, DEFAULT_SYNC_MILLIS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens a journal for appending.
+     *
+     * @param path the file of the journal, created if it does not exist
+     * @param sync the policy for forcing records to the device
+     * @param syncMillis the time between two forces of the {@link Sync#INTERVAL} policy
+     * @param capacity the number of records the ring holds, a power of two
+     * @throws IOException if the file cannot be opened
+     */
+    public MatchJournal(Path path, Sync sync, long syncMillis, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is not a power of two");
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.sync = sync;
+        this.syncNanos = TimeUnit.MILLISECONDS.toNanos(syncMillis);
+        this.slots = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.writer = new Thread(this::drain, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Appends an event without waiting for it to be written. An event which finds the
+     * ring full is dropped, and its match is no longer recovered. Events appended after
+     * the journal has been closed, or after the writer has failed, are dropped too.
+     *
+     * @param opcode the {@link Protocol} opcode of the event
+     * @param match the id of the match
+     * @param player the player the event refers to, or 0
+     * @param a the first argument of the event, a byte
+     * @param b the second argument of the event, a byte
+     */
+    public void append(int opcode, int match, int player, int a, int b) {
+        append(record(opcode, match, player, a, b));
+    }
+
+    /**
+     * Appends an encoded record.
+     *
+     * @param record the record, see {@link #record(int, int, int, int, int)}
+     */
+    private void append(long record) {
+        if (closed) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head > mask) {
+                drop(record, sequence);
+                return;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        slots.set((int) (sequence & mask), record);
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Counts a record which found the ring full, and marks its match to be ended in the
+     * file by the writer.
+     *
+     * @param record the record
+     * @param sequence the sequence the record would have had
+     */
+    private void drop(long record, long sequence) {
+        long count = dropped.incrementAndGet();
+        damaged.merge((int) (record >>> 32), sequence, Math::max);
+        if (Long.bitCount(count) == 1) {
+            logger.warning("Journal ring full, " + count + " records dropped so far; their matches will not be recovered");
+        }
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Encodes an event into a record, which is never 0 because no opcode is.
+     *
+     * @param opcode the opcode
+     * @param match the id of the match
+     * @param player the player, or 0
+     * @param a the first argument
+     * @param b the second argument
+     * @return the record
+     */
+    public static long record(int opcode, int match, int player, int a, int b) {
+        return (long) match << 32 | (opcode & 0xFF) << 24 | (player & 0xFF) << 16 | (a & 0xFF) << 8 | (b & 0xFF);
+    }
+
+    /**
+     * Reads a journal and hands every intact record to a replayer. The replay stops at
+     * the first record which is incomplete or fails its checksum, which is where the
+     * process died while writing.
+     *
+     * @param path the file of the journal
+     * @param replayer the receiver of the records
+     * @return the number of records replayed, 0 if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public static long replay(Path path, Replayer replayer) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH * RECORD_SIZE);
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0 || buffer.position() > 0) {
+                buffer.flip();
+                if (buffer.remaining() < RECORD_SIZE) {
+                    return count;
+                }
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    long record = buffer.getLong();
+                    if (buffer.getInt() != checksum(crc, record)) {
+                        logger.warning("Journal " + path + " ends with a damaged record after " + count + " records");
+                        return count;
+                    }
+                    replayer.replay((int) (record >>> 24) & 0xFF, (int) (record >>> 32), (int) (record >>> 16) & 0xFF,
+                        (int) (record >>> 8) & 0xFF, (int) record & 0xFF);
+                    count++;
+                }
+                buffer.compact();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Replaces a journal with the specified records, e.g. the events of the matches still
+     * in progress. The records are written and forced to a new file, which then takes
+     * the place of the old one atomically, so a crash leaves either journal intact.
+     *
+     * @param path the file of the journal
+     * @param records the encoded records, see {@link #record(int, int, int, int, int)}
+     * @throws IOException if the file cannot be written
+     */
+    public static void rewrite(Path path, List<Long> records) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, records.size()) * RECORD_SIZE);
+        for (long record : records) {
+            buffer.putLong(record).putInt(checksum(crc, record));
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gets the number of records written to the file so far.
+     *
+     * @return the number of records
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Gets the number of records dropped because the ring was full.
+     *
+     * @return the number of records
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of records appended but not taken by the writer yet.
+     *
+     * @return the number of records in the ring
+     */
+    public long getBacklog() {
+        return Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * Gets the number of times the journal has been forced to the device.
+     *
+     * @return the number of forces
+     */
+    public long getForces() {
+        return forces.get();
+    }
+
+    /**
+     * Gets the policy for forcing records to the device.
+     *
+     * @return the policy
+     */
+    public Sync getSync() {
+        return sync;
+    }
+
+    /**
+     * Writes and forces every appended record, stops the writer and closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * Runs the writer: drains the ring in batches until the journal is closed.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                int count = take();
+                count += endDamaged();
+                if (count > 0) {
+                    write();
+                    if (sync == Sync.ALWAYS || sync == Sync.INTERVAL && System.nanoTime() - lastForce >= syncNanos) {
+                        force();
+                    }
+                    continue;
+                }
+                if (closed && slots.get((int) (head & mask)) == 0) {
+                    if (sync != Sync.NONE) {
+                        force();
+                    }
+                    return;
+                }
+                sleeping = true;
+                if (slots.get((int) (head & mask)) == 0 && !closed) {
+                    LockSupport.parkNanos(this, sync == Sync.INTERVAL ? syncNanos : TimeUnit.MILLISECONDS.toNanos(10));
+                }
+                sleeping = false;
+                if (sync == Sync.INTERVAL && System.nanoTime() - lastForce >= syncNanos) {
+                    force();
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Journal writer failed, matches are no longer journaled", e);
+            closed = true;
+        }
+    }
+
+    /**
+     * Moves the published records at the head of the ring into the buffer.
+     *
+     * @return the number of records taken
+     */
+    private int take() {
+        long position = head;
+        int count = 0;
+        buffer.clear();
+        while (count < BATCH) {
+            int slot = (int) (position & mask);
+            long record = slots.get(slot);
+            if (record == 0) {
+                break;
+            }
+            slots.set(slot, 0);
+            buffer.putLong(record).putInt(checksum(crc, record));
+            position++;
+            count++;
+        }
+        head = position;
+        return count;
+    }
+
+    /**
+     * Adds to the buffer a {@code QUIT} record for every match which has lost a record
+     * and whose records from before the loss have all been taken, so the replay drops
+     * the match and ignores its later records. The first record taken after a loss is
+     * therefore written together with the {@code QUIT} of its match.
+     *
+     * @return the number of records added
+     */
+    private int endDamaged() {
+        if (damaged.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        Iterator<Map.Entry<Integer, Long>> entries = damaged.entrySet().iterator();
+        while (entries.hasNext() && buffer.remaining() >= RECORD_SIZE) {
+            Map.Entry<Integer, Long> entry = entries.next();
+            if (entry.getValue() <= head && damaged.remove(entry.getKey(), entry.getValue())) {
+                long record = record(Protocol.QUIT, entry.getKey(), 0, 0, 0);
+                buffer.putLong(record).putInt(checksum(crc, record));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the buffer to the file.
+     *
+     * @throws IOException if the write fails
+     */
+    private void write() throws IOException {
+        buffer.flip();
+        int records = buffer.remaining() / RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        written.addAndGet(records);
+        unforced = true;
+    }
+
+    /**
+     * Forces the written records to the device, if anything has been written since the last force.
+     *
+     * @throws IOException if the force fails
+     */
+    private void force() throws IOException {
+        if (!unforced) {
+            return;
+        }
+        unforced = false;
+        channel.force(false);
+        forces.incrementAndGet();
+        lastForce = System.nanoTime();
+    }
+
+    /**
+     * Computes the checksum stored after a record.
+     *
+     * @param crc the checksum to reuse
+     * @param record the record
+     * @return the checksum
+     */
+    private static int checksum(CRC32C crc, long record) {
+        crc.reset();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (record >>> shift));
+        }
+        return (int) crc.getValue();
+    }
+}
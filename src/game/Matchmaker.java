@@ -0,0 +1,283 @@
+package game;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Matchmaker class pairs waiting connections into matches as they arrive.
+ * <p>
+ * Connections are queued by skill into buckets of {@code bucketWidth} points. Every
+ * bucket holds at most one waiting connection, because the next arrival in the same
+ * bucket is paired with it right away. Queueing and pairing are a single compare-and-set
+ * on the slot of the bucket, so a burst of logins never contends on a lock. Players
+ * who have not sent {@code NAME} are queued at {@link PlayerStats#INITIAL_RATING}, in
+ * the same bucket as new players.
+ * <p>
+ * The search widens as a connection waits: after {@code widenAfter} it may be paired
+ * one bucket away, after twice that two buckets away, and so on, the nearest bucket
+ * first. Arrivals only look at the buckets the waiting connections may be paired from,
+ * so while connections are waiting the matchmaker also sweeps the buckets on the
+ * {@link HashedWheelTimer} and pairs waiting connections with each other once they have
+ * waited long enough. Two players never wait for each other forever, however far apart
+ * their skills.
+ * <p>
+ * The matchmaker keeps the number of waiting connections, the number of pairs made and
+ * a histogram of the time from queueing to pairing, in nanoseconds.
+ */
+public class Matchmaker {
+    /**
+     * Receives the pairs made by the matchmaker.
+     */
+    public interface Pairer {
+        /**
+         * Opens a match for two connections. It is called on the thread of the arrival, or
+         * on the timer when a sweep pairs two waiting connections.
+         *
+         * @param waiting the connection which has waited longer, player 1 of the match
+         * @param arriving the other connection, player 2 of the match
+         * @return false if either connection has gone meanwhile and no match was opened,
+         *         in which case the one still there is queued again
+         */
+        boolean pair(Connection waiting, Connection arriving);
+    }
+
+    /**
+     * A connection waiting in a bucket.
+     */
+    private static final class Ticket {
+        final Connection connection;
+        final int bucket;
+        final long queuedAt;
+
+        Ticket(Connection connection, int bucket, long queuedAt) {
+            this.connection = connection;
+            this.bucket = bucket;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final Pairer pairer;
+    private final int bucketWidth;
+    private final long widenAfter;
+    private final long sweepMillis;
+    private final AtomicReferenceArray<Ticket> buckets;
+    private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder pairs = new LongAdder();
+    private final LatencyHistogram timeToMatch = new LatencyHistogram();
+
+    /**
+     * Constructs a Matchmaker with a single bucket, which pairs connections in arrival order.
+     *
+     * @param pairer the receiver of the pairs
+     */
+    public Matchmaker(Pairer pairer) {
+        this(pairer, Integer.MAX_VALUE, 1, 0);
+    }
+
+    /**
+     * Constructs a Matchmaker with skill buckets.
+     *
+     * @param pairer the receiver of the pairs
+     * @param bucketWidth the skill range of a bucket
+     * @param bucketCount the number of buckets, higher skills share the last bucket
+     * @param widenAfterMillis the waiting time after which a connection may be paired
+     *        with a neighbouring bucket, and by which the search widens by one more
+     *        bucket on each side from then on
+     */
+    public Matchmaker(Pairer pairer, int bucketWidth, int bucketCount, long widenAfterMillis) {
+        this.pairer = pairer;
+        this.bucketWidth = bucketWidth;
+        this.widenAfter = TimeUnit.MILLISECONDS.toNanos(widenAfterMillis);
+        this.sweepMillis = Math.max(HashedWheelTimer.TICK_MILLIS, widenAfterMillis / 2);
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    /**
+     * Pairs a connection with a waiting one of similar skill, or queues it.
+     *
+     * @param connection the arriving connection
+     * @param skill the skill of its player, the initial rating if it has none
+     */
+    public void enqueue(Connection connection, int skill) {
+        offer(new Ticket(connection, bucketOf(skill), System.nanoTime()));
+    }
+
+    /**
+     * Pairs a ticket with the nearest waiting one it may be paired with, or queues it in
+     * its bucket, until it is paired or its connection has gone.
+     *
+     * @param ticket the ticket
+     */
+    private void offer(Ticket ticket) {
+        while (!ticket.connection.isDetached()) {
+            Ticket waiting = take(ticket, System.nanoTime());
+            if (waiting == null) {
+                if (buckets.compareAndSet(ticket.bucket, null, ticket)) {
+                    depth.incrementAndGet();
+                    scheduleSweep();
+                    return;
+                }
+            } else if (pair(waiting, ticket)) {
+                return;
+            } else if (!waiting.connection.isDetached()) {
+                offer(waiting);
+            }
+        }
+    }
+
+    /**
+     * Hands two tickets to the pairer, the one which has waited longer first.
+     *
+     * @param a a ticket
+     * @param b the other ticket
+     * @return true if a match was opened, false if a connection has gone
+     */
+    private boolean pair(Ticket a, Ticket b) {
+        Ticket waiting = a.queuedAt - b.queuedAt <= 0 ? a : b;
+        Ticket arriving = waiting == a ? b : a;
+        long now = System.nanoTime();
+        if (!pairer.pair(waiting.connection, arriving.connection)) {
+            return false;
+        }
+        pairs.increment();
+        timeToMatch.record(now - waiting.queuedAt);
+        timeToMatch.record(now - arriving.queuedAt);
+        return true;
+    }
+
+    /**
+     * Pairs the connections which have waited long enough to be paired from another
+     * bucket, and sweeps again later while connections are waiting. Runs on the timer.
+     */
+    void sweep() {
+        sweepScheduled.set(false);
+        long widenBefore = System.nanoTime() - widenAfter;
+        for (int bucket = 0; bucket < buckets.length(); bucket++) {
+            Ticket waiting = buckets.get(bucket);
+            if (waiting != null && waiting.queuedAt - widenBefore <= 0 && buckets.compareAndSet(bucket, waiting, null)) {
+                depth.decrementAndGet();
+                offer(waiting);
+            }
+        }
+        if (depth.get() > 0) {
+            scheduleSweep();
+        }
+    }
+
+    /**
+     * Asks the timer to sweep the buckets, unless it is asked to already. A matchmaker
+     * with a single bucket pairs every arrival at once and never sweeps.
+     */
+    private void scheduleSweep() {
+        if (buckets.length() > 1 && sweepScheduled.compareAndSet(false, true)) {
+            HashedWheelTimer.shared().schedule(this::sweep, sweepMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Removes a connection from the queue, e.g. when its client leaves before it is paired.
+     *
+     * @param connection the connection
+     * @return true if the connection was waiting, false otherwise
+     */
+    public boolean cancel(Connection connection) {
+        for (int i = 0; i < buckets.length(); i++) {
+            Ticket waiting = buckets.get(i);
+            if (waiting != null && waiting.connection == connection && buckets.compareAndSet(i, waiting, null)) {
+                depth.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of connections waiting for an opponent.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Gets the number of pairs made so far.
+     *
+     * @return the number of pairs
+     */
+    public long getPairCount() {
+        return pairs.sum();
+    }
+
+    /**
+     * Gets the distribution of the time from queueing to pairing, in nanoseconds.
+     * It holds one value per paired connection.
+     *
+     * @return the live histogram
+     */
+    public LatencyHistogram getTimeToMatch() {
+        return timeToMatch;
+    }
+
+    /**
+     * Takes the nearest waiting connection a ticket may be paired with: one in its own
+     * bucket, or one {@code d} buckets away if either of the two has waited at least
+     * {@code d} times {@code widenAfter}.
+     *
+     * @param ticket the ticket looking for an opponent, which is not in a bucket
+     * @param now the current {@link System#nanoTime()}
+     * @return the waiting connection, or null if there is none
+     */
+    private Ticket take(Ticket ticket, long now) {
+        for (int distance = 0; distance < buckets.length(); distance++) {
+            long widenBefore = now - distance * widenAfter;
+            // A ticket which has waited long enough itself takes any connection at this distance.
+            long queuedBefore = ticket.queuedAt - widenBefore <= 0 ? now : widenBefore;
+            Ticket waiting = null;
+            if (ticket.bucket - distance >= 0) {
+                waiting = takeIf(ticket.bucket - distance, queuedBefore);
+            }
+            if (waiting == null && distance > 0 && ticket.bucket + distance < buckets.length()) {
+                waiting = takeIf(ticket.bucket + distance, queuedBefore);
+            }
+            if (waiting != null) {
+                return waiting;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the connection waiting in a bucket if it was queued before the specified time.
+     *
+     * @param bucket the bucket
+     * @param queuedBefore the latest qualifying queueing time
+     * @return the waiting connection, or null if there is none
+     */
+    private Ticket takeIf(int bucket, long queuedBefore) {
+        while (true) {
+            Ticket waiting = buckets.get(bucket);
+            if (waiting == null || waiting.queuedAt - queuedBefore > 0) {
+                return null;
+            }
+            if (buckets.compareAndSet(bucket, waiting, null)) {
+                depth.decrementAndGet();
+                return waiting;
+            }
+        }
+    }
+
+    /**
+     * Gets the bucket of a skill.
+     *
+     * @param skill the skill
+     * @return the bucket index
+     */
+    private int bucketOf(int skill) {
+        return Math.min(Math.max(skill, 0) / bucketWidth, buckets.length() - 1);
+    }
+}
@@ -27,6 +27,21 @@ public class MenuPanel extends JPanel {
      */
     private JMenuItem exitButton;
 
+    /**
+     * The menu item to play against the server's bot instead of waiting for an opponent.
+     */
+    private JMenuItem botButton;
+
+    /**
+     * The menu item to choose the size of the board before a match opens.
+     */
+    private JMenuItem boardButton;
+
+    /**
+     * The menu item to ask the server for the best move.
+     */
+    private JMenuItem hintButton;
+
     /**
      * The menu item to display game instructions.
      */
@@ -40,6 +55,9 @@ public class MenuPanel extends JPanel {
         helpMenu = new JMenu("Help");
         menuBar = new JMenuBar();
         exitButton = new JMenuItem("Exit");
+        botButton = new JMenuItem("Play against computer");
+        hintButton = new JMenuItem("Hint");
+        boardButton = new JMenuItem("Board size...");
         instructionButton = new JMenuItem("Instruction");
         init();
     }
@@ -50,6 +68,9 @@ public class MenuPanel extends JPanel {
     private void init() {
         setLayout(new BorderLayout());
 
+        controlMenu.add(boardButton);
+        controlMenu.add(botButton);
+        controlMenu.add(hintButton);
         controlMenu.add(exitButton);
         helpMenu.add(instructionButton);
         menuBar.add(controlMenu);
@@ -73,7 +94,9 @@ public class MenuPanel extends JPanel {
                            + "Criteria for a valid move:\n"
                            + "- The move is not occupied by any mark.\n"
                            + "- The move is made in the player's turn.\n"
-                           + "- The move is made within the 3 x 3 board.\n\n"
+                           + "- The move is made within the board (3 x 3 unless another size was chosen).\n\n"
+                           + "A player wins with a full row, column or diagonal, or on a larger board\n"
+                           + "with the chosen number of marks in a row.\n\n"
                            + "The game would continue and switch among the opposite player until it reaches either one of the following conditions:\n"
                            + "- Player 1 wins.\n"
                            + "- Player 2 wins.\n"
@@ -98,4 +121,28 @@ public class MenuPanel extends JPanel {
     public JMenuItem getExitButton() {
         return exitButton;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the menu item to play against the computer.
+     * @return the bot menu item
+     */
+    public JMenuItem getBotButton() {
+        return botButton;
+    }
+
+    /**
+     * Gets the board size menu item.
+     * @return the board size menu item
+     */
+    public JMenuItem getBoardButton() {
+        return boardButton;
+    }
+
+    /**
+     * Gets the hint menu item.
+     * @return the hint menu item
+     */
+    public JMenuItem getHintButton() {
+        return hintButton;
+    }
+}
@@ -18,26 +18,21 @@ public class MiddlePanel extends JPanel {
     private JLabel infoLabel;
 
     /**
-     * The 2D array representing the game board.
+     * The game board, shared with the rules used by the server.
      * <p>
      * Each cell can have the following values:
      * <ul>
      *   <li><b>0</b>: Empty cell.</li>
-     *   <li><b>1</b>: Player's move.</li>
-     *   <li><b>2</b>: Computer's move.</li>
+     *   <li><b>1</b>: Player 1's move.</li>
+     *   <li><b>2</b>: Player 2's move.</li>
      * </ul>
      */
-    private int[][] board;
-
-    /**
-     * The size of each cell in the game board.
-     */
-    private int cellSize;
+    private BitBoard board;
 
     /**
      * The panel where the game board is drawn and interacted with.
      */
-    private JPanel boardPanel;
+    private BoardPanel boardPanel;
 
     /**
      * The panel displaying game statistics such as wins and draws.
@@ -71,7 +66,7 @@ public class MiddlePanel extends JPanel {
     public MiddlePanel() {
         setLayout(new BorderLayout());
 
-        this.board = new int[3][3];
+        this.board = new BitBoard();
         this.infoLabel = new JLabel("Enter your name...", SwingConstants.CENTER);
         add(infoLabel, BorderLayout.NORTH);
 
@@ -108,54 +103,39 @@ public class MiddlePanel extends JPanel {
     /**
      * Initializes the panel where the game board is drawn and interacted with.
      * <p>
-     * This panel handles mouse clicks to register player moves and manages the
-     * computer's moves using a SwingWorker to perform actions in the background.
+     * Mouse clicks on this panel are registered as moves by the client.
      */
     private void initBoardPanel() {
-        this.boardPanel = new JPanel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                Graphics2D g2d = (Graphics2D) g;
-                cellSize = getWidth() / 3;
-
-                for (int row = 0; row < 3; row++) {
-                    for (int col = 0; col < 3; col++) {
-                        int x = col * cellSize;
-                        int y = row * cellSize;
-                        g2d.setColor(Color.WHITE);
-                        g2d.fillRect(x, y, cellSize, cellSize);
-                        g2d.setColor(Color.BLACK);
-                        g2d.drawRect(x, y, cellSize, cellSize);
-
-                        if (board[row][col] == 1) {
-                            g2d.setColor(Color.GREEN);
-                            g2d.drawLine(x, y, x + cellSize, y + cellSize);
-                            g2d.drawLine(x + cellSize, y, x, y + cellSize);
-                        } else if (board[row][col] == 2) {
-                            g2d.setColor(Color.RED);
-                            g2d.drawOval(x, y, cellSize, cellSize);
-                        }
-                    }
-                }
-            }
-        };
-
+        this.boardPanel = new BoardPanel(board);
         boardPanel.setPreferredSize(new Dimension(200, 200));
     }
 
     /**
-     * Resets the game board to its initial empty state.
-     * <p>
-     * Clears all marks on the board, resets the count of valid cells, and repaints the board.
+     * Replaces the game board with an empty board of another size and repaints it.
+     *
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
      */
-    public void resetBoard() {
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                board[i][j] = 0;
-            }
-        }
-        boardPanel.repaint();
+    public void setBoard(int size, int length) {
+        board = new BitBoard(size, length);
+        boardPanel.setBoard(board);
+    }
+
+    /**
+     * Ends the game on the board. The rules start the next game at once, so the player who
+     * moves first may click before the end of the last game is dismissed, while the panel
+     * keeps showing the final position until {@link #showNextGame()}.
+     */
+    public void finishGame() {
+        boardPanel.setBoard(new BitBoard(board));
+        board.reset();
+    }
+
+    /**
+     * Shows the board of the next game in place of the final position of the last one.
+     */
+    public void showNextGame() {
+        boardPanel.setBoard(board);
         infoLabel.setText("Game reset. Enter your move.");
     }
 
@@ -174,29 +154,38 @@ public class MiddlePanel extends JPanel {
      * @return the size of a cell
      */
     public int getCellSize() {
-        return cellSize;
+        return boardPanel.getCellSize();
     }
 
     /**
-     * Returns the JPanel representing the board.
+     * Returns the panel representing the board.
      *
-     * @return the board JPanel
+     * @return the board panel
      */
-    public JPanel getBoardPanel() {
+    public BoardPanel getBoardPanel() {
         return boardPanel;
     }
 
     /**
-     * Updates the board at the specified row and column with the given value.
-     * Repaints the board panel after updating.
+     * Returns the game board.
+     *
+     * @return the game board
+     */
+    public BitBoard getBoard() {
+        return board;
+    }
+
+    /**
+     * Applies a move confirmed by the server to the board.
+     * Repaints only the cell of the move.
      *
      * @param row the row to update
      * @param col the column to update
-     * @param value the value to set at the specified row and column
+     * @param value the player who made the move
      */
     public void updateBoard(int row, int col, int value) {
-        board[row][col] = value;
-        boardPanel.repaint();
+        board.move(value, board.indexOf(row, col));
+        boardPanel.repaintCell(row, col);
     }
 
     /**
@@ -225,9 +214,9 @@ public class MiddlePanel extends JPanel {
      * to the console for debugging purposes.
      */
     private void printBoard() {
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                System.out.print(board[i][j] + " ");
+        for (int i = 0; i < board.getSize(); i++) {
+            for (int j = 0; j < board.getSize(); j++) {
+                System.out.print(board.get(i, j) + " ");
             }
             System.out.println();
         }
@@ -0,0 +1,484 @@
+package game;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The MonteCarloSearch class picks the moves of the server-side bot on boards too large
+ * for the {@link PositionTable}, by Monte-Carlo tree search within a time budget.
+ * <p>
+ * The search is root-parallel: it keeps one tree per worker of its {@link ForkJoinPool},
+ * grows all of them at once until the budget is spent and plays the move with the most
+ * visits over all trees. The trees share nothing, so the workers never synchronize.
+ * Every iteration selects a leaf by UCT, adds one child for a move next to an existing
+ * mark and finishes the game with random moves on a scratch {@link BitBoard}, so a
+ * playout allocates nothing. After a move has been played the trees keep the subtree
+ * below it, with the visits it has already collected.
+ * <p>
+ * A winning move, or else a move which stops the opponent from winning at once, is played
+ * without searching. A search is not thread-safe: {@link #bestMove(BitBoard)},
+ * {@link #advance(int)} and {@link #reset()} must be called one after another.
+ */
+public class MonteCarloSearch {
+    /**
+     * The default time budget of a move.
+     */
+    public static final long DEFAULT_BUDGET_MILLIS = 200;
+
+    /**
+     * The weight of the exploration term of UCT.
+     */
+    private static final double EXPLORATION = 1.4;
+
+    /**
+     * The number of iterations between two checks of the clock.
+     */
+    private static final int BATCH = 16;
+
+    /**
+     * The number of nodes after which a tree stops growing and only runs playouts.
+     */
+    private static final int MAX_NODES = 1 << 18;
+
+    private final ForkJoinPool pool;
+    private final long budgetNanos;
+    private final Tree[] trees;
+    private final LongAdder playouts = new LongAdder();
+    private long lastPlayouts;
+    private long lastNanos;
+
+    /**
+     * Constructs a MonteCarloSearch on the shared pool with the default time budget.
+     */
+    public MonteCarloSearch() {
+        this(pool(), DEFAULT_BUDGET_MILLIS);
+    }
+
+    /**
+     * Constructs a MonteCarloSearch with one tree per worker of a pool.
+     *
+     * @param pool the pool running the playouts
+     * @param budgetMillis the time budget of a move
+     */
+    public MonteCarloSearch(ForkJoinPool pool, long budgetMillis) {
+        this.pool = pool;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.trees = new Tree[pool.getParallelism()];
+        for (int i = 0; i < trees.length; i++) {
+            trees[i] = new Tree(new SplittableRandom(System.nanoTime() + i));
+        }
+    }
+
+    /**
+     * Gets the pool shared by the bots of the server, with one worker per core.
+     *
+     * @return the shared pool
+     */
+    public static ForkJoinPool pool() {
+        return Holder.POOL;
+    }
+
+    /**
+     * Holds the shared pool, so it is started when it is first used.
+     */
+    private static final class Holder {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Searches the best move for the player to move, returning when the time budget is spent.
+     *
+     * @param board the board, which is not modified
+     * @return the cell index of the move, or -1 if the board is full
+     */
+    public int bestMove(BitBoard board) {
+        return bestMove(board, System.nanoTime() + budgetNanos);
+    }
+
+    /**
+     * Searches the best move for the player to move, returning at a deadline. A search
+     * which has waited in the pool past its deadline still runs one batch of playouts
+     * per tree, so the bot's answer is late by at most that under load.
+     *
+     * @param board the board, which is not modified
+     * @param deadline the {@link System#nanoTime()} at which the search ends
+     * @return the cell index of the move, or -1 if the board is full
+     */
+    public int bestMove(BitBoard board, long deadline) {
+        long start = System.nanoTime();
+        int cell = forcedMove(board);
+        if (cell >= 0 || board.isFull()) {
+            lastPlayouts = 0;
+            lastNanos = System.nanoTime() - start;
+            return cell;
+        }
+        Search[] searches = new Search[trees.length];
+        for (int i = 0; i < trees.length; i++) {
+            trees[i].prepare(board);
+            searches[i] = new Search(trees[i], deadline);
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(searches);
+            }
+        });
+        int[] votes = new int[board.getCells()];
+        long count = 0;
+        for (int i = 0; i < trees.length; i++) {
+            count += searches[i].playouts;
+            Node root = trees[i].root;
+            for (int c = 0; c < root.childCount; c++) {
+                votes[root.children[c].move] += root.children[c].visits;
+            }
+        }
+        for (int c = 0; c < votes.length; c++) {
+            if (board.isEmpty(c) && (cell < 0 || votes[c] > votes[cell])) {
+                cell = c;
+            }
+        }
+        playouts.add(count);
+        lastPlayouts = count;
+        lastNanos = System.nanoTime() - start;
+        return cell;
+    }
+
+    /**
+     * Moves the roots of the trees to the position after a move, keeping the subtree
+     * which has been searched below it.
+     *
+     * @param cell the cell index of the move, by either player
+     */
+    public void advance(int cell) {
+        for (Tree tree : trees) {
+            tree.advance(cell);
+        }
+    }
+
+    /**
+     * Drops the trees, e.g. when a new game starts.
+     */
+    public void reset() {
+        for (Tree tree : trees) {
+            tree.root = null;
+        }
+    }
+
+    /**
+     * Gets the time budget of a move.
+     *
+     * @return the budget in nanoseconds
+     */
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * Gets the number of trees searched in parallel.
+     *
+     * @return the parallelism of the search
+     */
+    public int getParallelism() {
+        return trees.length;
+    }
+
+    /**
+     * Gets the number of playouts run since this search was constructed.
+     *
+     * @return the total number of playouts
+     */
+    public long getPlayouts() {
+        return playouts.sum();
+    }
+
+    /**
+     * Gets the number of playouts run by the last call to {@link #bestMove(BitBoard)}.
+     *
+     * @return the number of playouts, 0 if the move was forced
+     */
+    public long getLastPlayouts() {
+        return lastPlayouts;
+    }
+
+    /**
+     * Gets the time taken by the last call to {@link #bestMove(BitBoard)}.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    /**
+     * Finds a move which wins at once, or else a move which stops the opponent from
+     * winning with the next move.
+     *
+     * @param board the board
+     * @return the cell index of the move, or -1 if there is none
+     */
+    private static int forcedMove(BitBoard board) {
+        int player = board.getTurn();
+        int block = -1;
+        for (int cell = 0; cell < board.getCells(); cell++) {
+            if (board.isWinningMove(player, cell)) {
+                return cell;
+            }
+            if (block < 0 && board.isWinningMove(3 - player, cell)) {
+                block = cell;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * A position of a search tree, reached by a move.
+     */
+    private static final class Node {
+        Node parent;
+        final int move;
+        final int player;
+        final int result;
+        Node[] children;
+        int childCount;
+
+        /**
+         * The candidate moves which have no child yet, in the first {@code untriedCount} slots.
+         */
+        int[] untried;
+        int untriedCount;
+        int visits;
+
+        /**
+         * The outcome of the playouts for {@code player}, 2 per win and 1 per draw.
+         */
+        int score;
+
+        Node(Node parent, int move, int player, int result) {
+            this.parent = parent;
+            this.move = move;
+            this.player = player;
+            this.result = result;
+        }
+    }
+
+    /**
+     * The tree of one worker, with its scratch board and random numbers.
+     */
+    private static final class Tree {
+        final SplittableRandom random;
+        BitBoard rootBoard;
+        BitBoard scratch;
+        int[] free;
+        Node root;
+        int rootMoves;
+        int nodes;
+
+        Tree(SplittableRandom random) {
+            this.random = random;
+        }
+
+        /**
+         * Sets the position to search from, keeping the tree if it is still rooted there.
+         *
+         * @param board the position
+         */
+        void prepare(BitBoard board) {
+            if (rootBoard == null || rootBoard.getSize() != board.getSize() || rootBoard.getLength() != board.getLength()) {
+                rootBoard = new BitBoard(board);
+                scratch = new BitBoard(board);
+                free = new int[board.getCells()];
+                root = null;
+            } else {
+                rootBoard.copyFrom(board);
+            }
+            if (root == null || rootMoves != board.getMoves()) {
+                root = new Node(null, -1, 3 - board.getTurn(), BitBoard.PLAYING);
+                rootMoves = board.getMoves();
+                nodes = 1;
+            }
+        }
+
+        /**
+         * Moves the root to the child of a move, or drops the tree if it has none.
+         *
+         * @param cell the cell index of the move
+         */
+        void advance(int cell) {
+            Node next = null;
+            for (int c = 0; root != null && c < root.childCount; c++) {
+                if (root.children[c].move == cell) {
+                    next = root.children[c];
+                }
+            }
+            if (next != null) {
+                next.parent = null;
+                nodes = next.visits + 1;
+            }
+            root = next;
+            rootMoves++;
+        }
+
+        /**
+         * Runs one iteration: selection, expansion, playout and backpropagation.
+         */
+        void iterate() {
+            BitBoard board = scratch;
+            board.copyFrom(rootBoard);
+            Node node = root;
+            while (node.result == BitBoard.PLAYING) {
+                if (node.untried == null) {
+                    expand(node, board);
+                }
+                if (node.untriedCount > 0 && nodes < MAX_NODES) {
+                    int i = random.nextInt(node.untriedCount);
+                    int cell = node.untried[i];
+                    node.untried[i] = node.untried[--node.untriedCount];
+                    int player = board.getTurn();
+                    Node child = new Node(node, cell, player, board.move(player, cell));
+                    node.children[node.childCount++] = child;
+                    nodes++;
+                    node = child;
+                    break;
+                }
+                if (node.childCount == 0) {
+                    break;
+                }
+                node = select(node);
+                board.move(node.player, node.move);
+            }
+            int winner;
+            if (node.result == BitBoard.WIN) {
+                winner = node.player;
+            } else if (node.result == BitBoard.DRAW) {
+                winner = 0;
+            } else {
+                winner = playout(board);
+            }
+            for (Node n = node; n != null; n = n.parent) {
+                n.visits++;
+                n.score += winner == n.player ? 2 : winner == 0 ? 1 : 0;
+            }
+        }
+
+        /**
+         * Lists the candidate moves of a node: the free cells next to a mark, or the
+         * center of an empty board.
+         *
+         * @param node the node
+         * @param board the position of the node
+         */
+        void expand(Node node, BitBoard board) {
+            int size = board.getSize();
+            int count = 0;
+            int[] candidates = free;
+            if (board.getMoves() == 0) {
+                candidates[count++] = board.indexOf(size / 2, size / 2);
+            }
+            for (int cell = 0; cell < board.getCells() && board.getMoves() > 0; cell++) {
+                if (board.isEmpty(cell) && hasNeighbour(board, cell / size, cell % size)) {
+                    candidates[count++] = cell;
+                }
+            }
+            node.untried = Arrays.copyOf(candidates, count);
+            node.untriedCount = count;
+            node.children = new Node[count];
+        }
+
+        /**
+         * Checks if a cell touches a mark of either player.
+         *
+         * @param board the board
+         * @param row the row of the cell
+         * @param col the column of the cell
+         * @return true if one of the 8 surrounding cells is marked, false otherwise
+         */
+        static boolean hasNeighbour(BitBoard board, int row, int col) {
+            for (int r = row - 1; r <= row + 1; r++) {
+                for (int c = col - 1; c <= col + 1; c++) {
+                    int cell = board.indexOf(r, c);
+                    if (cell >= 0 && !board.isEmpty(cell)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Selects the child with the highest upper confidence bound.
+         *
+         * @param node the node, which has children
+         * @return the selected child
+         */
+        static Node select(Node node) {
+            double log = Math.log(node.visits);
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < node.childCount; c++) {
+                Node child = node.children[c];
+                double value = child.score / (2.0 * child.visits) + EXPLORATION * Math.sqrt(log / child.visits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Finishes the game with random moves.
+         *
+         * @param board the position, which is played out
+         * @return the winner, or 0 for a draw
+         */
+        int playout(BitBoard board) {
+            int count = 0;
+            for (int cell = 0; cell < board.getCells(); cell++) {
+                if (board.isEmpty(cell)) {
+                    free[count++] = cell;
+                }
+            }
+            int player = board.getTurn();
+            while (count > 0) {
+                int i = random.nextInt(count);
+                int cell = free[i];
+                free[i] = free[--count];
+                int result = board.move(player, cell);
+                if (result == BitBoard.WIN) {
+                    return player;
+                } else if (result == BitBoard.DRAW) {
+                    return 0;
+                }
+                player = 3 - player;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Grows one tree until the deadline.
+     */
+    private static final class Search extends RecursiveAction {
+        private final Tree tree;
+        private final long deadline;
+        long playouts;
+
+        Search(Tree tree, long deadline) {
+            this.tree = tree;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected void compute() {
+            do {
+                for (int i = 0; i < BATCH; i++) {
+                    tree.iterate();
+                }
+                playouts += BATCH;
+            } while (System.nanoTime() - deadline < 0);
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package game;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.*;
+
+/**
+ * The NioServer class is a non-blocking transport for the GameServer.
+ * A single acceptor hands new connections to a small, fixed number of I/O loops,
+ * each multiplexing its connections over one Selector. The number of connections
+ * is therefore no longer tied to the number of threads, and an idle player costs
+ * only a registered channel and its buffers.
+ */
+public class NioServer {
+    private static final Logger logger = Logger.getLogger(NioServer.class.getName());
+
+    /**
+     * The maximum length of a single protocol line.
+     */
+    private static final int MAX_LINE = 256;
+
+    private ServerSocketChannel serverChannel;
+    private GameServer gameServer;
+    private IoLoop[] loops;
+
+    /**
+     * Constructs a NioServer with the specified channel and game server.
+     *
+     * @param serverChannel the bound channel to accept client connections on
+     * @param gameServer the game server handling the protocol
+     * @param ioThreads the number of I/O loops
+     */
+    public NioServer(ServerSocketChannel serverChannel, GameServer gameServer, int ioThreads) {
+        this.serverChannel = serverChannel;
+        this.gameServer = gameServer;
+        this.loops = new IoLoop[ioThreads];
+    }
+
+    /**
+     * Opens a NioServer listening on the specified port.
+     *
+     * @param port the port to listen on
+     * @param gameServer the game server handling the protocol
+     * @param ioThreads the number of I/O loops
+     * @return the server, not started yet
+     * @throws IOException if the port cannot be bound
+     */
+    public static NioServer open(int port, GameServer gameServer, int ioThreads) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port), 1024);
+        return new NioServer(channel, gameServer, ioThreads);
+    }
+
+    /**
+     * Starts the I/O loops and accepts client connections on the calling thread.
+     */
+    public void start() {
+        for (int i = 0; i < loops.length; i++) {
+            try {
+                loops[i] = new IoLoop(Selector.open());
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Error opening selector", e);
+                throw new UncheckedIOException(e);
+            }
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.start();
+        }
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Error in server channel", e);
+            }
+        }
+    }
+
+    /**
+     * The IoLoop class runs one Selector and all the sessions registered with it.
+     */
+    private class IoLoop implements Runnable {
+        private Selector selector;
+        private Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        private Queue<Session> writes = new ConcurrentLinkedQueue<>();
+        private Queue<Session> closes = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The new sessions in order of arrival, queued for the classic board once their
+         * greeting time has passed. Only used by the loop thread.
+         */
+        private Deque<Session> greetings = new ArrayDeque<>();
+
+        /**
+         * Constructs an IoLoop with the specified selector.
+         *
+         * @param selector the selector of the loop
+         */
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Hands a new channel to this loop.
+         *
+         * @param channel the accepted channel
+         */
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Asks this loop to write the pending output of a session.
+         *
+         * @param session the session with pending output
+         */
+        void scheduleWrite(Session session) {
+            writes.add(session);
+            selector.wakeup();
+        }
+
+        /**
+         * Asks this loop to close a session, so its key is never cancelled while the
+         * loop is serving it.
+         *
+         * @param session the session to close
+         */
+        void scheduleClose(Session session) {
+            closes.add(session);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs the selector loop. An error while serving one session closes that session
+         * only, so the other sessions of the loop are never left without a thread.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Session oldest = greetings.peek();
+                    if (oldest == null) {
+                        selector.select();
+                    } else {
+                        selector.select(Math.max(1, (oldest.greetBy - System.nanoTime()) / 1_000_000));
+                    }
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        accept(channel);
+                    }
+                    Session pending;
+                    while ((pending = writes.poll()) != null) {
+                        try {
+                            pending.flush();
+                        } catch (RuntimeException e) {
+                            fail(pending, e);
+                        }
+                    }
+                    while ((pending = closes.poll()) != null) {
+                        try {
+                            pending.close();
+                        } catch (RuntimeException e) {
+                            fail(pending, e);
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Session session = (Session) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                session.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                session.flush();
+                            }
+                        } catch (RuntimeException e) {
+                            fail(session, e);
+                        }
+                    }
+                    long now = System.nanoTime();
+                    while (!greetings.isEmpty() && greetings.peek().greetBy - now <= 0) {
+                        Session session = greetings.poll();
+                        try {
+                            if (!session.isQueued() && session.key.isValid()) {
+                                // A greeting which has arrived but not been selected yet still counts.
+                                session.read();
+                            }
+                            gameServer.connect(session);
+                        } catch (RuntimeException e) {
+                            fail(session, e);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.SEVERE, "Error in selector loop", e);
+                }
+            }
+        }
+
+        /**
+         * Registers a new channel with the selector and starts its session.
+         *
+         * @param channel the accepted channel
+         */
+        private void accept(SocketChannel channel) {
+            Session session = new Session(this, channel);
+            try {
+                session.key = channel.register(selector, SelectionKey.OP_READ, session);
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Error registering " + channel, e);
+                try {
+                    channel.close();
+                } catch (IOException again) {
+                    logger.log(Level.FINE, "Error closing " + channel, again);
+                }
+                return;
+            }
+            logger.info("Connected: " + channel);
+            try {
+                gameServer.accept(session);
+                session.greetBy = System.nanoTime() + GameServer.GREETING_MILLIS * 1_000_000L;
+                greetings.add(session);
+            } catch (RuntimeException e) {
+                fail(session, e);
+            }
+        }
+
+        /**
+         * Closes a session whose handling has thrown, e.g. on a key cancelled meanwhile.
+         *
+         * @param session the session
+         * @param e the error
+         */
+        private void fail(Session session, RuntimeException e) {
+            if (!(e instanceof CancelledKeyException)) {
+                logger.log(Level.WARNING, "Error serving " + session.channel + ", closing it", e);
+            }
+            try {
+                session.close();
+            } catch (RuntimeException again) {
+                logger.log(Level.SEVERE, "Error closing " + session.channel, again);
+            }
+        }
+    }
+
+    /**
+     * The Session class is a single non-blocking client connection.
+     * Inbound bytes are decoded as text lines, or as binary frames once the client
+     * has switched protocols. Outbound batches are written by the loop of the
+     * session, or when the channel becomes writable again.
+     */
+    private class Session extends Connection {
+        private IoLoop loop;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        private boolean closed = false;
+
+        /**
+         * The time by which the client is queued for the classic board if it has not
+         * sent a command, in {@link System#nanoTime()} units.
+         */
+        private long greetBy;
+
+        /**
+         * Constructs a Session on the specified channel.
+         *
+         * @param loop the loop the session belongs to
+         * @param channel the channel of the client
+         */
+        Session(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        /**
+         * Reads the available bytes and dispatches every complete line or frame.
+         */
+        void read() {
+            try {
+                int read = channel.read(in);
+                if (read < 0) {
+                    close();
+                    return;
+                } else if (read > 0) {
+                    touch();
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            byte[] bytes = in.array();
+            int start = 0;
+            int end = in.position();
+            while (start < end) {
+                if (isBinary()) {
+                    if (end - start < Protocol.FRAME_SIZE) {
+                        break;
+                    }
+                    int opcode = Protocol.opcode(bytes[start]);
+                    int a = Protocol.arg(bytes[start + 1]);
+                    int b = Protocol.arg(bytes[start + 2]);
+                    start += Protocol.FRAME_SIZE;
+                    if (!dispatch(opcode, a, b)) {
+                        return;
+                    }
+                } else {
+                    int newline = start;
+                    while (newline < end && bytes[newline] != '\n') {
+                        newline++;
+                    }
+                    if (newline == end) {
+                        break;
+                    }
+                    int length = newline > start && bytes[newline - 1] == '\r' ? newline - 1 - start : newline - start;
+                    String command = new String(bytes, start, length, StandardCharsets.US_ASCII);
+                    start = newline + 1;
+                    if (!dispatch(command)) {
+                        return;
+                    }
+                }
+            }
+            if (start == 0 && !in.hasRemaining()) {
+                logger.warning("Line too long from " + channel);
+                close();
+                return;
+            }
+            in.limit(end);
+            in.position(start);
+            in.compact();
+        }
+
+        /**
+         * Dispatches a single text command to the game server.
+         *
+         * @param command the command line
+         * @return false if the session has been closed, true otherwise
+         */
+        private boolean dispatch(String command) {
+            try {
+                if (!gameServer.dispatch(this, command)) {
+                    close();
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Invalid command from " + channel + ": " + command, e);
+            }
+            return true;
+        }
+
+        /**
+         * Dispatches a single binary command to the game server.
+         *
+         * @param opcode the command type
+         * @param a the first argument
+         * @param b the second argument
+         * @return false if the session has been closed, true otherwise
+         */
+        private boolean dispatch(int opcode, int a, int b) {
+            if (!gameServer.dispatch(this, opcode, a, b)) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Writes as much pending output as the socket accepts. Waits for OP_WRITE
+         * if the socket buffer is full.
+         */
+        void flush() {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                boolean pending = flushTo(channel);
+                key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Asks the loop of the session to write the pending output.
+         */
+        @Override
+        protected void scheduleFlush() {
+            loop.scheduleWrite(this);
+        }
+
+        /**
+         * Asks the loop of the session to close it, as the caller, e.g. the heartbeat
+         * timer, may run while the loop is reading from the channel.
+         */
+        @Override
+        public void closeIdle() {
+            loop.scheduleClose(this);
+        }
+
+        /**
+         * Removes the client from its match, writes what is still pending
+         * without waiting for the socket, and closes the channel.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            try {
+                gameServer.disconnect(this);
+            } finally {
+                try {
+                    flushTo(channel);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Dropped pending output of " + channel, e);
+                }
+                try {
+                    channel.close();
+                    logger.info("Connection closed: " + channel);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Error closing channel", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package game;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.*;
+
+/**
+ * The NodeList class keeps a {@link ConsistentHashRing} of game server nodes in step with
+ * a file listing them, one {@code host:port number} per line, blank lines and lines
+ * starting with {@code #} being ignored.
+ * <p>
+ * The number of a node, below {@link #MAX_NODES}, is part of the id of every match the
+ * node opens, see {@link GameServer#setNode(int)}, so the ids of the nodes never collide
+ * and the gateway finds the node of a match from its id alone, whatever the ring has
+ * become since. A number must therefore not be given to another node while matches of
+ * its node may still be running.
+ * <p>
+ * The gateway and every node read the same file. The file is checked every
+ * {@link #RELOAD_MILLIS}, and re-read when it has changed, so a node is added or removed
+ * by editing it, without restarting anything. A file which is not valid is ignored, and
+ * the nodes read before are kept.
+ */
+public class NodeList {
+    private static final Logger logger = Logger.getLogger(NodeList.class.getName());
+
+    /**
+     * How often the file is checked for changes.
+     */
+    public static final long RELOAD_MILLIS = 1000;
+
+    /**
+     * The number of node numbers, which is also the step between the ids of the matches
+     * of one node.
+     */
+    public static final int MAX_NODES = 16;
+
+    private final Path file;
+    private final ConsistentHashRing<String> ring;
+    private FileTime modified;
+
+    /**
+     * The addresses of the nodes, by number.
+     */
+    private volatile Map<Integer, String> addresses = Map.of();
+
+    /**
+     * A node of the list.
+     *
+     * @param address the address of the node, as {@code host:port}
+     * @param number the number of the node, below {@link #MAX_NODES}
+     */
+    public record Node(String address, int number) {
+    }
+
+    /**
+     * Constructs a NodeList and loads the nodes of the file into the ring.
+     *
+     * @param file the file listing the nodes
+     * @param ring the ring to keep in step with the file
+     * @throws IOException if the file cannot be read
+     */
+    public NodeList(Path file, ConsistentHashRing<String> ring) throws IOException {
+        this.file = file;
+        this.ring = ring;
+        this.modified = Files.getLastModifiedTime(file);
+        setNodes(read(file));
+        logger.info("Nodes: " + addresses);
+    }
+
+    /**
+     * Constructs a NodeList of fixed nodes, which is not backed by a file.
+     *
+     * @param nodes the nodes
+     * @param ring the ring to fill with the nodes
+     */
+    public NodeList(List<Node> nodes, ConsistentHashRing<String> ring) {
+        this.file = null;
+        this.ring = ring;
+        setNodes(nodes);
+    }
+
+    /**
+     * Reads the nodes listed in a file.
+     *
+     * @param file the file
+     * @return the nodes
+     * @throws IOException if the file cannot be read, or a line is not a node, or two
+     *                     nodes share an address or a number
+     */
+    public static List<Node> read(Path file) throws IOException {
+        List<Node> nodes = new ArrayList<>();
+        Set<String> seenAddresses = new HashSet<>();
+        Set<Integer> seenNumbers = new HashSet<>();
+        for (String line : Files.readAllLines(file)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            int number;
+            try {
+                number = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid node in " + file + ", expected host:port number: " + line);
+            }
+            if (parts.length != 2 || parts[0].lastIndexOf(':') < 0 || number < 0 || number >= MAX_NODES) {
+                throw new IOException("Invalid node in " + file + ", expected host:port number below " + MAX_NODES + ": " + line);
+            }
+            if (!seenAddresses.add(parts[0]) || !seenNumbers.add(number)) {
+                throw new IOException("Duplicate node in " + file + ": " + line);
+            }
+            nodes.add(new Node(parts[0], number));
+        }
+        return nodes;
+    }
+
+    /**
+     * Replaces the nodes of the ring and of the numbers.
+     *
+     * @param nodes the nodes
+     */
+    private void setNodes(List<Node> nodes) {
+        Map<Integer, String> byNumber = new TreeMap<>();
+        for (Node node : nodes) {
+            byNumber.put(node.number(), node.address());
+        }
+        addresses = Collections.unmodifiableMap(byNumber);
+        ring.setNodes(byNumber.values());
+    }
+
+    /**
+     * Gets the address of a node.
+     *
+     * @param number the number of the node
+     * @return the address, as {@code host:port}, or null if no node has the number
+     */
+    public String addressOf(int number) {
+        return addresses.get(number);
+    }
+
+    /**
+     * Gets the number of a node.
+     *
+     * @param address the address of the node, as {@code host:port}
+     * @return the number, or -1 if no node has the address
+     */
+    public int numberOf(String address) {
+        for (Map.Entry<Integer, String> node : addresses.entrySet()) {
+            if (node.getValue().equals(address)) {
+                return node.getKey();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the address of the node which opened a match.
+     *
+     * @param match the id of the match
+     * @return the address, as {@code host:port}, or null if the node is no longer listed
+     */
+    public String nodeOf(int match) {
+        return addressOf(Math.floorMod(match, MAX_NODES));
+    }
+
+    /**
+     * Gets the ring of the nodes.
+     *
+     * @return the ring
+     */
+    public ConsistentHashRing<String> getRing() {
+        return ring;
+    }
+
+    /**
+     * Checks the file on the shared timer from now on. A list which is not backed by a
+     * file never changes.
+     */
+    public void watch() {
+        if (file == null) {
+            return;
+        }
+        HashedWheelTimer.shared().schedule(this::check, RELOAD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Re-reads the file if it has changed, and checks it again later.
+     */
+    private void check() {
+        try {
+            FileTime time = Files.getLastModifiedTime(file);
+            if (!time.equals(modified)) {
+                modified = time;
+                Map<Integer, String> before = addresses;
+                setNodes(read(file));
+                if (!before.equals(addresses)) {
+                    logger.info("Nodes changed from " + before + " to " + addresses);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error reading " + file + ", keeping nodes " + addresses, e);
+        }
+        watch();
+    }
+}
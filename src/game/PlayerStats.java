@@ -0,0 +1,358 @@
+package game;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The PlayerStats class keeps the name, Elo rating and results of every player who has
+ * sent {@code NAME}, and ranks them on a {@link Leaderboard}.
+ * <p>
+ * Every player is a 32-byte record: the name in up to 16 bytes of UTF-8, then the
+ * rating, wins, draws and losses as ints. The records follow a 16-byte header in a
+ * memory-mapped file, so an update is a few stores to memory which the operating system
+ * writes back, and a restarted server reads the players from the same file. Without a
+ * file the records live on the heap.
+ * <p>
+ * Ratings start at {@link #INITIAL_RATING} and move by at most {@link #K_FACTOR} points per
+ * game. Updates take a lock for the two records and the leaderboard, which is held for a
+ * few microseconds, so thousands of games per second finish without contention.
+ */
+public class PlayerStats implements Closeable {
+    /**
+     * The rating of a new player.
+     */
+    public static final int INITIAL_RATING = 1200;
+
+    /**
+     * The highest rating; ratings range from 0 to it.
+     */
+    public static final int MAX_RATING = 4000;
+
+    /**
+     * The largest change of a rating after one game.
+     */
+    public static final int K_FACTOR = 32;
+
+    /**
+     * The maximum length of a name in UTF-8 bytes; longer names are cut.
+     */
+    public static final int MAX_NAME_BYTES = 16;
+
+    /**
+     * The default number of players a store holds.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int MAGIC = 0x54545450;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 32;
+    private static final int RATING = MAX_NAME_BYTES;
+    private static final int WINS = RATING + 4;
+    private static final int DRAWS = WINS + 4;
+    private static final int LOSSES = DRAWS + 4;
+
+    private final ByteBuffer records;
+    private final FileChannel channel;
+    private final int capacity;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Leaderboard leaderboard = new Leaderboard(MAX_RATING);
+    private final ReentrantLock lock = new ReentrantLock();
+    private int count;
+
+    /**
+     * Constructs PlayerStats on the heap, which are lost when the server stops.
+     *
+     * @param capacity the number of players the store holds
+     */
+    public PlayerStats(int capacity) {
+        this.capacity = capacity;
+        this.channel = null;
+        this.records = ByteBuffer.allocate(HEADER_SIZE + capacity * RECORD_SIZE);
+        records.putInt(0, MAGIC);
+    }
+
+    /**
+     * Opens PlayerStats backed by a file, reading the players it already holds.
+     *
+     * @param path the file, created if it does not exist
+     * @param capacity the number of players the store holds, at least the number in the file
+     * @throws IOException if the file cannot be mapped or is not a player file
+     */
+    public PlayerStats(Path path, int capacity) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int stored = 0;
+        if (channel.size() >= HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException(path + " is not a player file");
+            }
+            stored = header.getInt(4);
+        }
+        this.capacity = Math.max(capacity, stored);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) this.capacity * RECORD_SIZE);
+        this.records = mapped;
+        records.putInt(0, MAGIC);
+        for (int id = 0; id < stored; id++) {
+            ids.put(getName(id), id);
+            leaderboard.add(id, getRating(id));
+        }
+        count = stored;
+    }
+
+    /**
+     * Finds a player by name, adding a new player with the initial rating if there is none.
+     *
+     * @param name the name, cut to {@link #MAX_NAME_BYTES} bytes
+     * @return the id of the player, or -1 if the name is blank or the store is full
+     */
+    public int login(String name) {
+        String key = normalize(name);
+        if (key.isEmpty()) {
+            return -1;
+        }
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        lock.lock();
+        try {
+            id = ids.get(key);
+            if (id != null) {
+                return id;
+            }
+            if (count == capacity) {
+                return -1;
+            }
+            int added = count;
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            int offset = offsetOf(added);
+            for (int i = 0; i < MAX_NAME_BYTES; i++) {
+                records.put(offset + i, i < bytes.length ? bytes[i] : 0);
+            }
+            records.putInt(offset + RATING, INITIAL_RATING);
+            records.putInt(offset + WINS, 0);
+            records.putInt(offset + DRAWS, 0);
+            records.putInt(offset + LOSSES, 0);
+            count++;
+            records.putInt(4, count);
+            leaderboard.add(added, INITIAL_RATING);
+            ids.put(key, added);
+            return added;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a decisive game and moves both ratings.
+     *
+     * @param winner the id of the winner
+     * @param loser the id of the loser
+     */
+    public void recordWin(int winner, int loser) {
+        record(winner, loser, 1.0);
+    }
+
+    /**
+     * Records a drawn game and moves both ratings towards each other.
+     *
+     * @param first the id of one player
+     * @param second the id of the other player
+     */
+    public void recordDraw(int first, int second) {
+        record(first, second, 0.5);
+    }
+
+    /**
+     * Records a game between two players.
+     *
+     * @param first the id of the first player
+     * @param second the id of the second player
+     * @param score the score of the first player: 1 for a win, 0.5 for a draw
+     */
+    private void record(int first, int second, double score) {
+        if (first == second) {
+            return;
+        }
+        lock.lock();
+        try {
+            int rating1 = getRating(first);
+            int rating2 = getRating(second);
+            double expected = 1.0 / (1.0 + Math.pow(10, (rating2 - rating1) / 400.0));
+            int change = (int) Math.round(K_FACTOR * (score - expected));
+            setRating(first, rating1, Math.min(MAX_RATING, Math.max(0, rating1 + change)));
+            setRating(second, rating2, Math.min(MAX_RATING, Math.max(0, rating2 - change)));
+            int result1 = score == 1.0 ? WINS : DRAWS;
+            int result2 = score == 1.0 ? LOSSES : DRAWS;
+            records.putInt(offsetOf(first) + result1, records.getInt(offsetOf(first) + result1) + 1);
+            records.putInt(offsetOf(second) + result2, records.getInt(offsetOf(second) + result2) + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores a new rating and moves the player on the leaderboard.
+     *
+     * @param id the id of the player
+     * @param oldRating the current rating
+     * @param newRating the new rating
+     */
+    private void setRating(int id, int oldRating, int newRating) {
+        records.putInt(offsetOf(id) + RATING, newRating);
+        leaderboard.update(id, oldRating, newRating);
+    }
+
+    /**
+     * Gets the rank of a player: 1 plus the number of players rated higher.
+     *
+     * @param id the id of the player
+     * @return the rank, starting at 1
+     */
+    public int getRank(int id) {
+        lock.lock();
+        try {
+            return leaderboard.rankOf(getRating(id));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the best players, highest rating first.
+     *
+     * @param k the maximum number of players
+     * @return the ids of at most {@code k} players
+     */
+    public int[] top(int k) {
+        lock.lock();
+        try {
+            return leaderboard.top(k);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the name of a player.
+     *
+     * @param id the id of the player
+     * @return the name
+     */
+    public String getName(int id) {
+        byte[] bytes = new byte[MAX_NAME_BYTES];
+        int offset = offsetOf(id);
+        int length = 0;
+        while (length < MAX_NAME_BYTES && records.get(offset + length) != 0) {
+            bytes[length] = records.get(offset + length);
+            length++;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the rating of a player.
+     *
+     * @param id the id of the player
+     * @return the rating
+     */
+    public int getRating(int id) {
+        return records.getInt(offsetOf(id) + RATING);
+    }
+
+    /**
+     * Gets the number of games a player has won.
+     *
+     * @param id the id of the player
+     * @return the number of wins
+     */
+    public int getWins(int id) {
+        return records.getInt(offsetOf(id) + WINS);
+    }
+
+    /**
+     * Gets the number of games a player has drawn.
+     *
+     * @param id the id of the player
+     * @return the number of draws
+     */
+    public int getDraws(int id) {
+        return records.getInt(offsetOf(id) + DRAWS);
+    }
+
+    /**
+     * Gets the number of games a player has lost.
+     *
+     * @param id the id of the player
+     * @return the number of losses
+     */
+    public int getLosses(int id) {
+        return records.getInt(offsetOf(id) + LOSSES);
+    }
+
+    /**
+     * Gets the number of players.
+     *
+     * @return the number of players
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the records back to the file and closes it.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            lock.lock();
+            try {
+                ((MappedByteBuffer) records).force();
+            } finally {
+                lock.unlock();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Cuts a name to the stored length, without splitting a character.
+     *
+     * @param name the name as sent by the client
+     * @return the name as stored
+     */
+    private static String normalize(String name) {
+        String trimmed = name.trim();
+        while (trimmed.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+            trimmed = trimmed.substring(0, trimmed.offsetByCodePoints(0, trimmed.codePointCount(0, trimmed.length()) - 1));
+        }
+        return trimmed;
+    }
+
+    /**
+     * Gets the offset of the record of a player.
+     *
+     * @param id the id of the player
+     * @return the offset in the buffer
+     */
+    private static int offsetOf(int id) {
+        return HEADER_SIZE + id * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,235 @@
+package game;
+
+/**
+ * The PositionTable class holds the solved value and best move of every reachable
+ * position, so a perfect move is a constant-time lookup.
+ * <p>
+ * A position is encoded in base 3, cell {@code i} contributing {@code 3^i} for a mark of
+ * player 1 and {@code 2 * 3^i} for a mark of player 2, which gives an index below 3^9.
+ * Positions which are rotations or reflections of each other share one entry, the one
+ * of the symmetry with the lowest code, so only 765 positions are solved. The table is
+ * a single {@code short} array indexed by that code. A lookup maps the board to its
+ * canonical code with 8 precomputed mask permutations and maps the stored move back.
+ * <p>
+ * The table is solved by negamax when it is constructed, which takes a few milliseconds,
+ * so it is computed rather than loaded from a file.
+ */
+public class PositionTable {
+    /**
+     * The number of base-3 codes of a board, 3^9.
+     */
+    public static final int CODES = 19683;
+
+    /**
+     * The cell of a position without moves.
+     */
+    private static final int NO_MOVE = 0xF;
+
+    /**
+     * The offset which makes every stored score positive.
+     */
+    private static final int SCORE_BIAS = 16;
+
+    /**
+     * The base-3 code of every 9-bit mask of player 1.
+     */
+    private static final int[] BASE3 = new int[1 << BitBoard.CELLS];
+
+    /**
+     * The cell every cell moves to under each of the 8 symmetries of the board.
+     */
+    private static final int[][] SYMMETRIES = new int[8][BitBoard.CELLS];
+
+    /**
+     * The cell every cell comes from under each of the 8 symmetries of the board.
+     */
+    private static final int[][] INVERSE = new int[8][BitBoard.CELLS];
+
+    /**
+     * Every 9-bit mask transformed by each of the 8 symmetries of the board.
+     */
+    private static final short[][] PERMUTED = new short[8][1 << BitBoard.CELLS];
+
+    static {
+        for (int mask = 0; mask < BASE3.length; mask++) {
+            int code = 0;
+            for (int cell = BitBoard.CELLS - 1; cell >= 0; cell--) {
+                code = code * 3 + ((mask >>> cell) & 1);
+            }
+            BASE3[mask] = code;
+        }
+        for (int s = 0; s < SYMMETRIES.length; s++) {
+            for (int row = 0; row < BitBoard.SIZE; row++) {
+                for (int col = 0; col < BitBoard.SIZE; col++) {
+                    int r = (s & 4) != 0 ? col : row;
+                    int c = (s & 4) != 0 ? row : col;
+                    r = (s & 1) != 0 ? BitBoard.SIZE - 1 - r : r;
+                    c = (s & 2) != 0 ? BitBoard.SIZE - 1 - c : c;
+                    SYMMETRIES[s][BitBoard.cell(row, col)] = BitBoard.cell(r, c);
+                    INVERSE[s][BitBoard.cell(r, c)] = BitBoard.cell(row, col);
+                }
+            }
+            for (int mask = 0; mask < PERMUTED[s].length; mask++) {
+                int permuted = 0;
+                for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+                    if ((mask & (1 << cell)) != 0) {
+                        permuted |= 1 << SYMMETRIES[s][cell];
+                    }
+                }
+                PERMUTED[s][mask] = (short) permuted;
+            }
+        }
+    }
+
+    /**
+     * The entries indexed by canonical code: the score for the player to move, biased by
+     * {@link #SCORE_BIAS}, in the upper bits and the best cell in the lowest 4 bits.
+     * Zero marks a code which is not a canonical reachable position.
+     */
+    private final short[] entries = new short[CODES];
+    private int size;
+    private final long solveNanos;
+
+    /**
+     * Constructs a PositionTable and solves every reachable position.
+     */
+    public PositionTable() {
+        long start = System.nanoTime();
+        solve(0, 0);
+        solveNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Gets the table shared by the server, solving it on first use.
+     *
+     * @return the shared table
+     */
+    public static PositionTable shared() {
+        return Holder.TABLE;
+    }
+
+    /**
+     * Holds the shared table, so it is solved when it is first used.
+     */
+    private static final class Holder {
+        static final PositionTable TABLE = new PositionTable();
+    }
+
+    /**
+     * Gets the best move for the player to move.
+     *
+     * @param board the board
+     * @return the cell index of the best move, or -1 if the game is over or the board is not classic
+     */
+    public int bestMove(BitBoard board) {
+        if (!board.isClassic()) {
+            return -1;
+        }
+        int player1 = board.getMask(1);
+        int player2 = board.getMask(2);
+        int best = Integer.MAX_VALUE;
+        int symmetry = 0;
+        for (int s = 0; s < PERMUTED.length; s++) {
+            int code = BASE3[PERMUTED[s][player1]] + 2 * BASE3[PERMUTED[s][player2]];
+            if (code < best) {
+                best = code;
+                symmetry = s;
+            }
+        }
+        int cell = entries[best] & 0xF;
+        return cell == NO_MOVE || entries[best] == 0 ? -1 : INVERSE[symmetry][cell];
+    }
+
+    /**
+     * Gets the number of solved positions, after symmetry reduction.
+     *
+     * @return the number of positions
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the memory held by the entries.
+     *
+     * @return the size of the table in bytes
+     */
+    public int getBytes() {
+        return entries.length * Short.BYTES;
+    }
+
+    /**
+     * Gets the time it took to solve the table.
+     *
+     * @return the solving time in nanoseconds
+     */
+    public long getSolveNanos() {
+        return solveNanos;
+    }
+
+    /**
+     * Solves a canonical position by negamax, preferring faster wins and slower losses.
+     *
+     * @param player1 the marks of player 1
+     * @param player2 the marks of player 2
+     * @return the score for the player to move, positive if the player wins
+     */
+    private int solve(int player1, int player2) {
+        int code = BASE3[player1] + 2 * BASE3[player2];
+        if (entries[code] != 0) {
+            return (entries[code] >> 4) - SCORE_BIAS;
+        }
+        boolean firstToMove = Integer.bitCount(player1) == Integer.bitCount(player2);
+        int mover = firstToMove ? player1 : player2;
+        int opponent = firstToMove ? player2 : player1;
+        int free = ~(player1 | player2) & BitBoard.FULL;
+        int score;
+        int move = NO_MOVE;
+        if (BitBoard.isWin(opponent)) {
+            score = -(Integer.bitCount(free) + 1);
+        } else if (free == 0) {
+            score = 0;
+        } else {
+            score = Integer.MIN_VALUE;
+            for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+                if ((free & (1 << cell)) == 0) {
+                    continue;
+                }
+                int next1 = firstToMove ? mover | 1 << cell : opponent;
+                int next2 = firstToMove ? opponent : mover | 1 << cell;
+                int childScore = -solveCanonical(next1, next2);
+                if (childScore > score) {
+                    score = childScore;
+                    move = cell;
+                }
+            }
+        }
+        entries[code] = (short) ((score + SCORE_BIAS) << 4 | move);
+        size++;
+        return score;
+    }
+
+    /**
+     * Solves the canonical form of a position.
+     *
+     * @param player1 the marks of player 1
+     * @param player2 the marks of player 2
+     * @return the score for the player to move
+     */
+    private int solveCanonical(int player1, int player2) {
+        int best = Integer.MAX_VALUE;
+        int canonical1 = player1;
+        int canonical2 = player2;
+        for (int s = 0; s < PERMUTED.length; s++) {
+            int permuted1 = PERMUTED[s][player1];
+            int permuted2 = PERMUTED[s][player2];
+            int code = BASE3[permuted1] + 2 * BASE3[permuted2];
+            if (code < best) {
+                best = code;
+                canonical1 = permuted1;
+                canonical2 = permuted2;
+            }
+        }
+        return solve(canonical1, canonical2);
+    }
+}
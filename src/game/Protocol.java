@@ -0,0 +1,287 @@
+package game;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * The Protocol class defines the messages exchanged between clients and the server
+ * and their two encodings.
+ * <p>
+ * Every connection starts with text lines such as {@code ID 1} or {@code MOVE 1 0 2}.
+ * Right after the {@code ID} handshake a client may send {@code PROTO BIN}. The server
+ * answers with the same line and from then on both sides exchange fixed-size binary
+ * frames of {@link #FRAME_SIZE} bytes:
+ * <pre>
+ *   byte 0: player &lt;&lt; 4 | opcode
+ *   byte 1: first argument (the row of a move)
+ *   byte 2: second argument (the column of a move)
+ * </pre>
+ * The server reads binary frames right after the request line, so the client sends
+ * nothing else until the acknowledgement arrives. A client which does not ask for it
+ * keeps using the text protocol. Encoding and decoding binary frames does not allocate.
+ * <p>
+ * When a match opens, the server sends {@code BOARD size length} right before the
+ * {@code ID}, e.g. {@code BOARD 15 5} for five in a row on a 15x15 board. A client still
+ * waiting for an opponent may ask for a board by sending the same line, and is then only
+ * paired with players who asked for that board. Rows and columns of moves are bytes in
+ * binary frames.
+ * <p>
+ * A client still waiting for an opponent may send {@code BOT} to play the server's bot
+ * instead, on the board it asked for. {@code HINT} asks for the best move, which the
+ * server answers with {@code HINT player row col}, or with {@code WAIT} when it is not
+ * the player's turn or the board is not the classic one.
+ * <p>
+ * Before the {@code BOARD} hello a client may send {@code NAME} followed by the name of
+ * its player. The server answers with {@code RATING rating rank} and pairs the player
+ * by that rating. A name is 1 to {@link #MAX_NAME_LENGTH} printable ASCII characters,
+ * see {@link #isName(String)}; the server refuses any other name with {@code NAME} alone,
+ * and the client may send another. Names and ratings do not fit in binary frames, so
+ * these lines are only exchanged in text, before {@code PROTO BIN}.
+ * <p>
+ * {@code TOP k} asks for the leaderboard, the 10 best players if {@code k} is left out
+ * and at most 100. The server answers with {@code TOP n}, the number of players listed,
+ * and then {@code PLAYER rank rating name} for each of them, highest rating first. Like
+ * {@code NAME}, it is only exchanged in text and does not queue the client.
+ * <p>
+ * A client which is not seated may send {@code WATCH id} to watch the match with that id,
+ * or {@code WATCH 0} for the match opened last. It receives the {@code BOARD} of the match
+ * and a {@code MOVE} for every mark of the current game, then every {@code MOVE},
+ * {@code WIN}, {@code DRAW} and {@code QUIT} as the players do. {@code QUIT} alone means
+ * there is no such match, or that the spectator could not keep up. In a binary frame the
+ * id is the two argument bytes, high byte first, so a frame reaches the ids up to
+ * {@link #MAX_FRAME_MATCH}; a spectator of a match with a larger id, e.g. one numbered by
+ * a node behind a {@link Gateway}, sends {@code WATCH} as text and stays on text. A
+ * spectator chooses its protocol before it watches, and may send the frame right after
+ * {@code PROTO BIN} without waiting for the answer.
+ * <p>
+ * Right after its {@code ID} a player gets {@code RESUME token}, the token of its seat.
+ * If its connection drops, the seat is held for {@link GameServer#GRACE_MILLIS}, and the
+ * client may connect again and send {@code RESUME token games moves} as its first line,
+ * with the number of games it has seen end in the match and the number of marks on its
+ * board. The server answers with what the client has missed: the result of a game which
+ * ended meanwhile, a {@code BOARD} and every mark of the current game if the client's
+ * board is out of date, or else only the missing {@code MOVE}s, and then the {@code ID}.
+ * {@code QUIT} alone means the seat is gone. Tokens do not fit in binary frames, so
+ * {@code RESUME} is only exchanged in text.
+ * <p>
+ * The server sends {@code PING} to a client which has sent nothing for a while, and the
+ * client answers with {@code PING}. A client which does not answer before the next
+ * heartbeat is disconnected. A client may also send {@code PING} at any time, which the
+ * server does not answer. The server also keeps a clock on every turn: a player who does
+ * not move in time loses the game with {@code WIN} for the opponent, and a player who
+ * loses two games in a row that way leaves the match with {@code QUIT}.
+ */
+public final class Protocol {
+    public static final int ID = 1;
+    public static final int MOVE = 2;
+    public static final int WAIT = 3;
+    public static final int WIN = 4;
+    public static final int DRAW = 5;
+    public static final int QUIT = 6;
+    public static final int RESTART = 7;
+    public static final int BOT = 8;
+    public static final int HINT = 9;
+    public static final int BOARD = 10;
+    public static final int NAME = 11;
+    public static final int RATING = 12;
+    public static final int WATCH = 13;
+    public static final int RESUME = 14;
+    public static final int PING = 15;
+
+    /**
+     * The size in bytes of a binary frame.
+     */
+    public static final int FRAME_SIZE = 3;
+
+    /**
+     * The largest match id a binary {@code WATCH} frame carries, in its two argument bytes.
+     */
+    public static final int MAX_FRAME_MATCH = 0xFFFF;
+
+    /**
+     * The line which asks for, and acknowledges, the binary protocol.
+     */
+    public static final String BINARY_HANDSHAKE = "PROTO BIN";
+
+    /**
+     * The maximum length of a player name, in characters.
+     */
+    public static final int MAX_NAME_LENGTH = PlayerStats.MAX_NAME_BYTES;
+
+    private static final String[] NAMES = {null, "ID", "MOVE", "WAIT", "WIN", "DRAW", "QUIT", "RESTART", "BOT", "HINT", "BOARD", "NAME", "RATING", "WATCH", "RESUME", "PING"};
+
+    private Protocol() {
+    }
+
+    /**
+     * Formats a message as a text line, without line terminator.
+     *
+     * @param opcode the message type
+     * @param player the player the message refers to, if any
+     * @param a the first argument, if any
+     * @param b the second argument, if any
+     * @return the text line
+     */
+    public static String toText(int opcode, int player, int a, int b) {
+        switch (opcode) {
+            case ID:
+            case WIN:
+            case QUIT:
+                return player == 0 ? NAMES[opcode] : NAMES[opcode] + " " + player;
+            case MOVE:
+                return player == 0 ? "MOVE " + a + " " + b : "MOVE " + player + " " + a + " " + b;
+            case HINT:
+                return player == 0 ? "HINT" : "HINT " + player + " " + a + " " + b;
+            case BOARD:
+            case RATING:
+                return NAMES[opcode] + " " + a + " " + b;
+            case WATCH:
+                return "WATCH " + (a << 8 | b);
+            default:
+                return NAMES[opcode];
+        }
+    }
+
+    /**
+     * Checks if a name may be sent with {@code NAME}: 1 to {@link #MAX_NAME_LENGTH}
+     * printable ASCII characters, not starting or ending with a space. Lines are ASCII,
+     * so any other character would not reach the server as it was typed, and players
+     * are ranked by their names.
+     *
+     * @param name the name
+     * @return true if the server accepts the name, false otherwise
+     */
+    public static boolean isName(String name) {
+        int length = name.length();
+        if (length == 0 || length > MAX_NAME_LENGTH || name.charAt(0) == ' ' || name.charAt(length - 1) == ' ') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < ' ' || c >= 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the opcode of a text line from its first word, so a line which only starts
+     * with the name of a message, such as {@code MOVEX 1 2}, is not that message.
+     *
+     * @param line the text line
+     * @return the opcode, or 0 if the line is not a known message
+     */
+    public static int opcodeOf(String line) {
+        for (int i = 1; i < NAMES.length; i++) {
+            String name = NAMES[i];
+            if (line.startsWith(name) && (line.length() == name.length() || line.charAt(name.length()) == ' ')) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Puts a binary frame into a buffer.
+     *
+     * @param buffer the buffer with at least {@link #FRAME_SIZE} bytes remaining
+     * @param opcode the message type
+     * @param player the player the message refers to, or 0
+     * @param a the first argument, or 0
+     * @param b the second argument, or 0
+     */
+    public static void putFrame(ByteBuffer buffer, int opcode, int player, int a, int b) {
+        buffer.put((byte) (player << 4 | opcode));
+        buffer.put((byte) a);
+        buffer.put((byte) b);
+    }
+
+    /**
+     * Writes a binary frame into an array.
+     *
+     * @param frame the array of at least {@link #FRAME_SIZE} bytes
+     * @param opcode the message type
+     * @param player the player the message refers to, or 0
+     * @param a the first argument, or 0
+     * @param b the second argument, or 0
+     */
+    public static void putFrame(byte[] frame, int opcode, int player, int a, int b) {
+        frame[0] = (byte) (player << 4 | opcode);
+        frame[1] = (byte) a;
+        frame[2] = (byte) b;
+    }
+
+    /**
+     * Gets the opcode of the binary frame starting with the specified byte.
+     *
+     * @param header the first byte of the frame
+     * @return the opcode
+     */
+    public static int opcode(byte header) {
+        return header & 0x0F;
+    }
+
+    /**
+     * Gets the player of the binary frame starting with the specified byte.
+     *
+     * @param header the first byte of the frame
+     * @return the player, or 0
+     */
+    public static int player(byte header) {
+        return (header & 0xF0) >>> 4;
+    }
+
+    /**
+     * Gets an argument byte of a binary frame.
+     *
+     * @param arg the argument byte
+     * @return the unsigned value of the argument
+     */
+    public static int arg(byte arg) {
+        return arg & 0xFF;
+    }
+
+    /**
+     * Reads a text line from a stream without reading ahead of it,
+     * so the stream can switch to binary frames afterwards.
+     *
+     * @param in the stream to read from
+     * @return the line without terminator, or null at the end of the stream
+     * @throws IOException if an I/O error occurs
+     */
+    public static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    /**
+     * Reads a complete binary frame from a stream.
+     *
+     * @param in the stream to read from
+     * @param frame the array of at least {@link #FRAME_SIZE} bytes to fill
+     * @return false at the end of the stream, true otherwise
+     * @throws IOException if an I/O error occurs
+     */
+    public static boolean readFrame(InputStream in, byte[] frame) throws IOException {
+        int read = 0;
+        while (read < FRAME_SIZE) {
+            int n = in.read(frame, read, FRAME_SIZE - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return true;
+    }
+}
@@ -2,38 +2,115 @@ package game;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.*;
 
 /**
  * The ServerController class is responsible for initializing and starting the game server.
  * 
- * It sets up a ServerSocket to listen on a specific port and creates a GameServer instance
+ * It sets up the transport listening on a specific port and creates a GameServer instance
  * to handle client connections and game logic. It also adds a shutdown hook to log when
- * the server is stopped.
+ * the server is stopped. The metrics of the server are published over JMX as
+ * {@value GameServerMetrics#OBJECT_NAME}.
  */
 public class ServerController {
     private static final Logger logger = Logger.getLogger(ServerController.class.getName());    
 
+    /**
+     * The default port of the server, and of the gateway.
+     */
+    private static final int PORT = 58901;
+
     /**
      * Initializes and starts the game server.
      * 
-     * This method creates a new ServerSocket listening on port 58901 and initializes
-     * a GameServer instance with it. The server is then started. If any exception
-     * occurs during this process, it is logged and printed to the stack trace.
+     * The first argument selects the transport: {@code pool} (the default) serves every
+     * client with a blocking handler on a fixed thread pool, {@code virtual} runs the same
+     * blocking handlers on one virtual thread each, and {@code nio} multiplexes all
+     * clients over a few selector threads. The optional second argument is the file of
+     * the {@link MatchJournal}, from which the matches in progress are rebuilt at startup,
+     * and the third its sync policy, {@code none}, {@code interval} (the default) or
+     * {@code always}. The optional fourth argument is the file of the {@link PlayerStats},
+     * and the fifth and sixth the {@link GameServer.Backpressure} policies of the players
+     * and of the spectators, e.g. {@code disconnect} and {@code drop}, the defaults.
+     * The optional seventh argument is the port, and the eighth the file of a
+     * {@link NodeList}, which makes the server a node behind a {@link Gateway}. The ninth
+     * is then required: the {@code host:port} of the node as the file lists it.
+     * A file given as {@code -} is not used.
+     * <p>
+     * The mode {@code gateway} starts a {@link Gateway} instead, whose second argument
+     * is the file of its {@link NodeList} and third its port, e.g.
+     * {@code gateway nodes.txt 58901}.
+     * If any exception occurs during this process, it is logged and printed to the stack
+     * trace.
      * 
+     * @param args the transport mode, the journal file, its sync policy, the player file,
+     *             the backpressure policies, the port, the node file and the address of the
+     *             node, all optional
      * @throws IOException if an I/O error occurs when opening the socket.
      */
     public static void main(String[] args) throws IOException {
-        logger.info("Server initializing");
+        String mode = args.length > 0 ? args[0] : "pool";
+        logger.info("Server initializing in " + mode + " mode");
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
             public void run() {
                 logger.info("Server stopped");
             }
         }));
+        if (mode.equals("gateway")) {
+            try {
+                NodeList nodes = new NodeList(Paths.get(args[1]), new ConsistentHashRing<>());
+                nodes.watch();
+                Gateway gateway = Gateway.open(args.length > 2 ? Integer.parseInt(args[2]) : PORT, nodes,
+                    Runtime.getRuntime().availableProcessors());
+                logger.info("Gateway initialized");
+                gateway.start();
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, e.getMessage(), e);
+                e.printStackTrace();
+            }
+            return;
+        }
+        int port = args.length > 6 ? Integer.parseInt(args[6]) : PORT;
+
+        PositionTable table = PositionTable.shared();
+        logger.info("Position table solved: " + table.getSize() + " positions, " + table.getBytes() / 1024
+            + " KB in " + table.getSolveNanos() / 1000 + " us");
 
-        try (var listener = new ServerSocket(58901)) {
-            GameServer server = new GameServer(listener);
+        if (mode.equals("nio")) {
+            try {
+                GameServer gameServer = new GameServer();
+                gameServer.getMetrics().register();
+                join(gameServer, args);
+                recover(gameServer, args);
+                NioServer server = NioServer.open(port, gameServer, Runtime.getRuntime().availableProcessors());
+                logger.info("Server initialized");
+                server.start();
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, e.getMessage(), e);
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        ExecutorService executor;
+        ExecutorService flusher;
+        if (mode.equals("virtual")) {
+            executor = Executors.newVirtualThreadPerTaskExecutor();
+            flusher = executor;
+        } else {
+            executor = Executors.newFixedThreadPool(100);
+            flusher = Executors.newCachedThreadPool();
+        }
+        try (var listener = new ServerSocket(port, 1024)) {
+            GameServer server = new GameServer(listener, executor, flusher);
+            server.getMetrics().register();
+            join(server, args);
+            recover(server, args);
             logger.info("Server initialized");
             server.start();
         } catch (Exception e) {
@@ -41,4 +118,56 @@ public class ServerController {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Makes the server a node behind a gateway if the arguments name a node file: its
+     * matches then get the ids of its number in the file, and its resume tokens the
+     * secret shared by the nodes, kept beside the node file in a file with the suffix
+     * {@code .key}, which must be the same on every host.
+     *
+     * @param server the game server
+     * @param args the command line arguments
+     * @throws IOException if the node file cannot be read
+     * @throws IllegalArgumentException if the address of the node is missing or not listed
+     */
+    private static void join(GameServer server, String[] args) throws IOException {
+        if (args.length <= 7 || args[7].equals("-")) {
+            return;
+        }
+        if (args.length <= 8) {
+            throw new IllegalArgumentException("A node needs its host:port as listed in " + args[7]);
+        }
+        Path file = Paths.get(args[7]);
+        String self = args[8];
+        int number = new NodeList(file, new ConsistentHashRing<>()).numberOf(self);
+        if (number < 0) {
+            throw new IllegalArgumentException("Node " + self + " is not listed in " + file);
+        }
+        server.setNode(number);
+        server.setTokens(SessionTokens.open(file.resolveSibling(file.getFileName() + ".key")));
+        logger.info("Node " + number + " at " + self);
+    }
+
+    /**
+     * Sets the backpressure policies named by the arguments, if any, opens the player file
+     * named by the arguments, if any, then rebuilds the matches of the journal named by the
+     * arguments, if any, and journals the matches of the server to it.
+     *
+     * @param server the game server
+     * @param args the command line arguments
+     * @throws IOException if the journal or the player file cannot be read or written
+     */
+    private static void recover(GameServer server, String[] args) throws IOException {
+        if (args.length > 4) {
+            server.setBackpressure(GameServer.Backpressure.valueOf(args[4].toUpperCase()),
+                GameServer.Backpressure.valueOf(args.length > 5 ? args[5].toUpperCase() : "DROP"));
+        }
+        if (args.length > 3 && !args[3].equals("-")) {
+            server.openStats(Paths.get(args[3]));
+        }
+        if (args.length > 1 && !args[1].equals("-")) {
+            MatchJournal.Sync sync = MatchJournal.Sync.valueOf(args.length > 2 ? args[2].toUpperCase() : "INTERVAL");
+            server.recover(Paths.get(args[1]), sync);
+        }
+    }
+}
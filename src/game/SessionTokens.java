@@ -0,0 +1,179 @@
+package game;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The SessionTokens class issues and checks the tokens with which a player takes its
+ * seat back after its connection has dropped.
+ * <p>
+ * A token names the match, the player number and the player's profile, and carries an
+ * HMAC of the three under a secret of the server, so the server keeps no table of
+ * tokens and a client cannot forge one for another seat. When the secret is kept in a
+ * file, tokens stay valid across a restart, so players can return to the matches
+ * rebuilt from the journal.
+ */
+public class SessionTokens {
+    /**
+     * The number of bytes of the secret.
+     */
+    private static final int SECRET_SIZE = 32;
+
+    /**
+     * The number of bytes of the HMAC kept in a token.
+     */
+    private static final int MAC_SIZE = 12;
+
+    /**
+     * The number of bytes of the match id, player number and profile in a token.
+     */
+    private static final int CLAIM_SIZE = 9;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * A seat claimed by a valid token.
+     *
+     * @param match the id of the match
+     * @param player the player number (1 or 2)
+     * @param profile the id of the player in the {@link PlayerStats}, or -1
+     */
+    public record Session(int match, int player, int profile) {
+    }
+
+    /**
+     * Constructs SessionTokens with the specified secret.
+     *
+     * @param secret the secret of the server
+     */
+    public SessionTokens(byte[] secret) {
+        this.key = new SecretKeySpec(secret.clone(), ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        });
+    }
+
+    /**
+     * Constructs SessionTokens with a random secret, whose tokens are only valid until
+     * the server stops.
+     */
+    public SessionTokens() {
+        this(randomSecret());
+    }
+
+    /**
+     * Opens SessionTokens with the secret kept in a file, creating the file with a
+     * random secret if it does not exist. Servers which open the same file at once, such
+     * as the nodes behind a gateway sharing their secret, all end up with the secret of
+     * the first one to create it.
+     *
+     * @param path the file of the secret
+     * @return the tokens
+     * @throws IOException if the file cannot be read or written
+     */
+    public static SessionTokens open(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, randomSecret());
+                // Linking fails if the file exists, so a secret is never replaced.
+                Files.createLink(path, temporary);
+            } catch (FileAlreadyExistsException e) {
+                // Another server has created the secret meanwhile.
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        byte[] secret = Files.readAllBytes(path);
+        if (secret.length != SECRET_SIZE) {
+            throw new IOException("Invalid secret in " + path);
+        }
+        return new SessionTokens(secret);
+    }
+
+    /**
+     * Issues the token of a seat.
+     *
+     * @param match the id of the match
+     * @param player the player number (1 or 2)
+     * @param profile the id of the player in the {@link PlayerStats}, or -1
+     * @return the token, in hexadecimal
+     */
+    public String issue(int match, int player, int profile) {
+        ByteBuffer token = ByteBuffer.allocate(CLAIM_SIZE + MAC_SIZE);
+        token.putInt(match).put((byte) player).putInt(profile);
+        token.put(sign(token.array()), 0, MAC_SIZE);
+        return HEX.formatHex(token.array());
+    }
+
+    /**
+     * Checks a token.
+     *
+     * @param token the token, in hexadecimal
+     * @return the seat the token claims, or null if the token is not valid
+     */
+    public Session verify(String token) {
+        byte[] bytes;
+        try {
+            bytes = HEX.parseHex(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (bytes.length != CLAIM_SIZE + MAC_SIZE) {
+            return null;
+        }
+        byte[] expected = sign(bytes);
+        byte[] actual = new byte[MAC_SIZE];
+        System.arraycopy(bytes, CLAIM_SIZE, actual, 0, MAC_SIZE);
+        if (!MessageDigest.isEqual(actual, Arrays.copyOf(expected, MAC_SIZE))) {
+            return null;
+        }
+        ByteBuffer claim = ByteBuffer.wrap(bytes);
+        int match = claim.getInt();
+        int player = claim.get();
+        int profile = claim.getInt();
+        return player == 1 || player == 2 ? new Session(match, player, profile) : null;
+    }
+
+    /**
+     * Computes the HMAC of the claim at the start of a token.
+     *
+     * @param token the token, whose first {@link #CLAIM_SIZE} bytes are signed
+     * @return the full HMAC
+     */
+    private byte[] sign(byte[] token) {
+        Mac mac = macs.get();
+        mac.update(token, 0, CLAIM_SIZE);
+        return mac.doFinal();
+    }
+
+    /**
+     * Draws a random secret.
+     *
+     * @return the secret
+     */
+    private static byte[] randomSecret() {
+        byte[] secret = new byte[SECRET_SIZE];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+}
@@ -0,0 +1,328 @@
+package game;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The Simulation class plays bot-against-bot games in process, with no server or socket
+ * involved, to tune the bots and to check the rules over huge numbers of games.
+ * <p>
+ * Games are played on {@link BitBoard}s, the rules the server uses, by two pluggable
+ * {@link Strategy}s. A run is split in halves on a {@link ForkJoinPool} until batches of
+ * {@link #BATCH} games are left, so it uses every core of the pool. Each batch has one
+ * scratch board, which it resets between games, its own random numbers, split from the
+ * seed of the run, and its own counts, added up as the halves join. Playing a game
+ * allocates nothing, and a run with the same seed plays the same games on any number of
+ * cores.
+ * <p>
+ * A strategy which plays an illegal move fails the run, so the engine checks the bots as
+ * well as measuring them.
+ */
+public class Simulation {
+    /**
+     * The number of games of a batch, which one worker plays in a row.
+     */
+    public static final int BATCH = 4096;
+
+    /**
+     * The z-score of the 95% confidence intervals.
+     */
+    private static final double Z = 1.96;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * The Strategy interface picks the moves of a player in a simulation. The same
+     * instance plays in every worker at once, so it must not keep state of its own.
+     */
+    public interface Strategy {
+        /**
+         * Picks the move of the player whose turn it is.
+         *
+         * @param board the position, with at least one free cell, which must be left unchanged
+         * @param random the random numbers of the worker
+         * @return the cell index of the move
+         */
+        int move(BitBoard board, SplittableRandom random);
+    }
+
+    /**
+     * The Bot enum holds the built-in strategies.
+     */
+    public enum Bot implements Strategy {
+        /**
+         * Plays a random free cell.
+         */
+        RANDOM {
+            @Override
+            public int move(BitBoard board, SplittableRandom random) {
+                return randomFree(board, random);
+            }
+        },
+
+        /**
+         * Completes a line if it can, blocks a line of the opponent if it must, and
+         * plays a random free cell otherwise.
+         */
+        GREEDY {
+            @Override
+            public int move(BitBoard board, SplittableRandom random) {
+                int player = board.getTurn();
+                int block = -1;
+                for (int cell = 0; cell < board.getCells(); cell++) {
+                    if (board.isWinningMove(player, cell)) {
+                        return cell;
+                    } else if (block < 0 && board.isWinningMove(3 - player, cell)) {
+                        block = cell;
+                    }
+                }
+                return block >= 0 ? block : randomFree(board, random);
+            }
+        },
+
+        /**
+         * Plays the solved best move of the {@link PositionTable} on the classic board,
+         * and like {@link #GREEDY} on other boards.
+         */
+        PERFECT {
+            @Override
+            public int move(BitBoard board, SplittableRandom random) {
+                int cell = PositionTable.shared().bestMove(board);
+                return cell >= 0 ? cell : GREEDY.move(board, random);
+            }
+        }
+    }
+
+    /**
+     * The outcome of a run.
+     *
+     * @param games the number of games played
+     * @param firstWins the number of games won by the first player, who moves first
+     * @param secondWins the number of games won by the second player
+     * @param draws the number of drawn games
+     * @param moves the number of moves played
+     * @param nanos the duration of the run, in nanoseconds
+     */
+    public record Result(long games, long firstWins, long secondWins, long draws, long moves, long nanos) {
+        /**
+         * Gets the rate of the games played per second.
+         *
+         * @return the games per second
+         */
+        public double gamesPerSecond() {
+            return games * 1e9 / nanos;
+        }
+
+        /**
+         * Formats the rates of the outcomes with their 95% confidence intervals, and the
+         * speed of the run.
+         *
+         * @return the report
+         */
+        @Override
+        public String toString() {
+            return String.format("%,d games in %.2f s (%,.0f games/s, %,.0f moves/s)%n"
+                    + "first player wins %s%nsecond player wins %s%ndraws %s",
+                games, nanos / 1e9, gamesPerSecond(), moves * 1e9 / nanos,
+                format(firstWins, games), format(secondWins, games), format(draws, games));
+        }
+
+        /**
+         * Formats a rate with its 95% confidence interval.
+         *
+         * @param count the number of games with the outcome
+         * @param games the number of games
+         * @return the rate and its interval, in percent
+         */
+        private static String format(long count, long games) {
+            double[] interval = interval(count, games);
+            return String.format("%.3f%% [%.3f%%, %.3f%%]", 100.0 * count / games, 100 * interval[0], 100 * interval[1]);
+        }
+    }
+
+    /**
+     * Constructs a Simulation running on the common pool, which has a worker per core.
+     */
+    public Simulation() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a Simulation running on the specified pool.
+     *
+     * @param pool the pool of the workers
+     */
+    public Simulation(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Plays games between two strategies.
+     *
+     * @param size the number of rows and columns of the board
+     * @param length the number of marks in a row which wins
+     * @param first the strategy of player 1, who moves first
+     * @param second the strategy of player 2
+     * @param games the number of games
+     * @param seed the seed of the random numbers
+     * @return the outcome
+     * @throws IllegalArgumentException if the board is not valid
+     * @throws IllegalStateException if a strategy plays an illegal move
+     */
+    public Result run(int size, int length, Strategy first, Strategy second, long games, long seed) {
+        if (!BitBoard.isValid(size, length)) {
+            throw new IllegalArgumentException("Invalid board " + size + "x" + size + " with " + length + " in a row");
+        }
+        long start = System.nanoTime();
+        long[] counts = pool.invoke(new Games(size, length, first, second, games, new SplittableRandom(seed)));
+        return new Result(games, counts[1], counts[2], counts[0], counts[3], System.nanoTime() - start);
+    }
+
+    /**
+     * Plays games in a row on one board.
+     *
+     * @param board the scratch board, reset before each game
+     * @param first the strategy of player 1
+     * @param second the strategy of player 2
+     * @param random the random numbers
+     * @param games the number of games
+     * @param counts the counts to add to: the draws, the wins of player 1 and of player 2,
+     *               and the moves
+     * @throws IllegalStateException if a strategy plays an illegal move
+     */
+    static void play(BitBoard board, Strategy first, Strategy second, SplittableRandom random, long games, long[] counts) {
+        for (long game = 0; game < games; game++) {
+            board.reset();
+            int player = 1;
+            while (true) {
+                int cell = (player == 1 ? first : second).move(board, random);
+                int result = board.move(player, cell);
+                counts[3]++;
+                if (result == BitBoard.WIN) {
+                    counts[player]++;
+                    break;
+                } else if (result == BitBoard.DRAW) {
+                    counts[0]++;
+                    break;
+                } else if (result != BitBoard.PLAYING) {
+                    throw new IllegalStateException("Player " + player + " played the illegal move " + cell);
+                }
+                player = 3 - player;
+            }
+        }
+    }
+
+    /**
+     * Picks a random free cell.
+     *
+     * @param board the board, with at least one free cell
+     * @param random the random numbers
+     * @return the cell index
+     */
+    static int randomFree(BitBoard board, SplittableRandom random) {
+        int skip = random.nextInt(board.getCells() - board.getMoves());
+        if (board.isClassic()) {
+            int free = ~(board.getMask(1) | board.getMask(2)) & BitBoard.FULL;
+            for (int i = 0; i < skip; i++) {
+                free &= free - 1;
+            }
+            return Integer.numberOfTrailingZeros(free);
+        }
+        for (int cell = 0; ; cell++) {
+            if (board.isEmpty(cell) && skip-- == 0) {
+                return cell;
+            }
+        }
+    }
+
+    /**
+     * Gets the 95% Wilson score interval of a rate, which stays within [0, 1] and is
+     * sound for rates near 0 or 1, unlike the normal approximation.
+     *
+     * @param count the number of games with the outcome
+     * @param games the number of games
+     * @return the lower and upper bounds of the interval
+     */
+    public static double[] interval(long count, long games) {
+        if (games == 0) {
+            return new double[] {0, 1};
+        }
+        double p = (double) count / games;
+        double z2 = Z * Z / games;
+        double center = (p + z2 / 2) / (1 + z2);
+        double half = Z * Math.sqrt(p * (1 - p) / games + z2 / (4.0 * games)) / (1 + z2);
+        return new double[] {Math.max(0, center - half), Math.min(1, center + half)};
+    }
+
+    /**
+     * The Games class plays a range of games, split in halves down to batches.
+     */
+    private static final class Games extends RecursiveTask<long[]> {
+        private final int size;
+        private final int length;
+        private final Strategy first;
+        private final Strategy second;
+        private final long games;
+        private final SplittableRandom random;
+
+        Games(int size, int length, Strategy first, Strategy second, long games, SplittableRandom random) {
+            this.size = size;
+            this.length = length;
+            this.first = first;
+            this.second = second;
+            this.games = games;
+            this.random = random;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (games <= BATCH) {
+                long[] counts = new long[4];
+                play(new BitBoard(size, length), first, second, random, games, counts);
+                return counts;
+            }
+            long half = games / 2;
+            // Split before forking, so the games do not depend on which worker runs them.
+            Games left = new Games(size, length, first, second, half, random.split());
+            Games right = new Games(size, length, first, second, games - half, random);
+            left.fork();
+            long[] counts = right.compute();
+            long[] other = left.join();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other[i];
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Parses the options and runs a simulation.
+     * <p>
+     * Usage: {@code Simulation [--games 10000000] [--board 3x3] [--first random]
+     * [--second random] [--seed 42] [--threads cpus]}, where {@code --board 15x5} plays
+     * five in a row on 15 x 15 and the strategies are {@code random}, {@code greedy} or
+     * {@code perfect}.
+     *
+     * @param args the options
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                options.put(args[i].substring(2), args[++i]);
+            }
+        }
+        String[] board = options.getOrDefault("board", "3x3").split("x");
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Result result = new Simulation(pool).run(
+            Integer.parseInt(board[0]),
+            Integer.parseInt(board[1]),
+            Bot.valueOf(options.getOrDefault("first", "random").toUpperCase()),
+            Bot.valueOf(options.getOrDefault("second", "random").toUpperCase()),
+            Long.parseLong(options.getOrDefault("games", "10000000")),
+            Long.parseLong(options.getOrDefault("seed", "42")));
+        pool.shutdown();
+        System.out.println(result);
+    }
+}
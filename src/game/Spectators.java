@@ -0,0 +1,284 @@
+package game;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Spectators class fans the events of a match out to the connections watching it.
+ * <p>
+ * The match publishes its events on its game loop, which only appends them to a
+ * pending array. A shared pool then takes every event pending since its last turn,
+ * encodes them once as text and once as binary frames into read-only buffers, and hands
+ * every spectator a view of the buffer in its protocol. Nothing is formatted or copied per
+ * spectator, and the players of a match with hundreds of spectators only pay for the
+ * append. The pool drains a match at most once per {@link #LINGER_MILLIS}, so however
+ * fast the players move, a spectator costs at most one write per interval, and the events
+ * of many moves go out as one batch, as the journal does with its records.
+ * <p>
+ * A new spectator gets a snapshot first: the {@code BOARD} of the match and a
+ * {@code MOVE} for every mark of the current game, in an order the players could have
+ * played. It is taken on the loop of the match, so the events which follow it are
+ * exactly those published after it.
+ * <p>
+ * A spectator which falls {@link Connection#MAX_PENDING_BYTES} behind gets nothing more
+ * until the server has applied its policy: it stops watching, is disconnected, or is
+ * watched again from a new snapshot, which skips the events it has missed.
+ */
+public class Spectators {
+    /**
+     * The time the events of a match are collected before they are written to its spectators.
+     */
+    public static final long LINGER_MILLIS = 20;
+
+    private final Match match;
+    private final Runnable drainTask = this::drain;
+
+    /**
+     * The connections receiving the events. Only used by the thread draining the events,
+     * as one drain at a time runs per match.
+     */
+    private final List<Connection> watchers = new ArrayList<>();
+    private volatile int count;
+
+    private int[] events = new int[16];
+    private int eventCount;
+    private List<Joining> joining = new ArrayList<>();
+    private boolean scheduled;
+
+    /**
+     * A spectator waiting for its snapshot.
+     *
+     * @param connection the connection of the spectator
+     * @param snapshot the events which rebuild the board
+     * @param position the number of pending events the snapshot already shows
+     */
+    private record Joining(Connection connection, int[] snapshot, int position) {
+    }
+
+    /**
+     * Constructs the Spectators of a match.
+     *
+     * @param match the match
+     */
+    public Spectators(Match match) {
+        this.match = match;
+    }
+
+    /**
+     * Gets the pool fanning out the events of all matches, with one thread per core.
+     *
+     * @return the shared pool
+     */
+    public static ScheduledExecutorService executor() {
+        return Holder.EXECUTOR;
+    }
+
+    /**
+     * Holds the shared pool, so it is started when it is first used.
+     */
+    private static final class Holder {
+        static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(), Thread.ofPlatform().name("spectators-", 0).daemon().factory());
+    }
+
+    /**
+     * Adds a spectator, which receives a snapshot of the board and then every event
+     * published after it. Called on the loop of the match.
+     *
+     * @param connection the connection of the spectator, which watches the match
+     * @param board the board of the match
+     */
+    public void add(Connection connection, BitBoard board) {
+        int size = board.getSize();
+        int[] snapshot = new int[1 + board.getMoves()];
+        snapshot[0] = event(Protocol.BOARD, 0, size, board.getLength());
+        // Player 1 always moves first, so alternating the marks replays a legal game.
+        int next1 = 1;
+        int next2 = 2;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int player = board.get(row, col);
+                if (player == 1) {
+                    snapshot[next1] = event(Protocol.MOVE, 1, row, col);
+                    next1 += 2;
+                } else if (player == 2) {
+                    snapshot[next2] = event(Protocol.MOVE, 2, row, col);
+                    next2 += 2;
+                }
+            }
+        }
+        synchronized (this) {
+            joining.add(new Joining(connection, snapshot, eventCount));
+            schedule();
+        }
+    }
+
+    /**
+     * Publishes an event to the spectators with the next {@link #commit()}.
+     * Called on the loop of the match.
+     *
+     * @param opcode the message type
+     * @param player the player the message refers to, or 0
+     * @param a the first argument, or 0
+     * @param b the second argument, or 0
+     */
+    public synchronized void publish(int opcode, int player, int a, int b) {
+        if (eventCount == events.length) {
+            events = Arrays.copyOf(events, events.length * 2);
+        }
+        events[eventCount++] = event(opcode, player, a, b);
+    }
+
+    /**
+     * Hands the published events to the pool, which writes them to the spectators.
+     */
+    public synchronized void commit() {
+        if (eventCount > 0) {
+            schedule();
+        }
+    }
+
+    /**
+     * Gets the number of spectators, as of the last fan-out.
+     *
+     * @return the number of spectators
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Asks the pool to drain the pending events once the linger time has passed, unless
+     * it is already asked to.
+     */
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            executor().schedule(drainTask, LINGER_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the pending events to every spectator and the snapshots to the new ones.
+     * Spectators which have stopped watching the match are dropped. The drain stays
+     * scheduled until it has written everything, so no other drain of the match runs
+     * meanwhile, and it is scheduled again if events or spectators have arrived.
+     */
+    private void drain() {
+        int[] batch;
+        List<Joining> joined;
+        synchronized (this) {
+            batch = Arrays.copyOf(events, eventCount);
+            eventCount = 0;
+            joined = joining;
+            joining = new ArrayList<>();
+        }
+        try {
+            fanOut(batch, joined);
+        } finally {
+            synchronized (this) {
+                scheduled = false;
+                if (eventCount > 0 || !joining.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of events to every spectator and the snapshots to the new ones.
+     *
+     * @param batch the events published since the last drain
+     * @param joined the spectators which have joined since the last drain
+     */
+    private void fanOut(int[] batch, List<Joining> joined) {
+        if (batch.length > 0) {
+            Frames frames = new Frames(batch);
+            for (int i = watchers.size() - 1; i >= 0; i--) {
+                Connection watcher = watchers.get(i);
+                boolean watching = watcher.sendShared(match, frames.encoded(watcher.isBinary()), false);
+                watcher.commit();
+                if (!watching) {
+                    int last = watchers.size() - 1;
+                    watchers.set(i, watchers.get(last));
+                    watchers.remove(last);
+                }
+            }
+        }
+        for (Joining spectator : joined) {
+            Connection connection = spectator.connection();
+            int[] snapshot = spectator.snapshot();
+            int[] catchUp = Arrays.copyOf(snapshot, snapshot.length + batch.length - spectator.position());
+            System.arraycopy(batch, spectator.position(), catchUp, snapshot.length, batch.length - spectator.position());
+            if (connection.sendShared(match, new Frames(catchUp).encoded(connection.isBinary()), true)
+                    && !watchers.contains(connection)) {
+                watchers.add(connection);
+            }
+            connection.commit();
+        }
+        count = watchers.size();
+    }
+
+    /**
+     * Packs an event into an int.
+     *
+     * @param opcode the message type
+     * @param player the player, or 0
+     * @param a the first argument, a byte
+     * @param b the second argument, a byte
+     * @return the event
+     */
+    private static int event(int opcode, int player, int a, int b) {
+        return opcode << 24 | player << 16 | (a & 0xFF) << 8 | (b & 0xFF);
+    }
+
+    /**
+     * The Frames class is a batch of events, encoded at most once per protocol.
+     */
+    private static final class Frames {
+        private final int[] events;
+        private ByteBuffer text;
+        private ByteBuffer binary;
+
+        /**
+         * Constructs Frames of events which are not encoded yet.
+         *
+         * @param events the packed events
+         */
+        Frames(int[] events) {
+            this.events = events;
+        }
+
+        /**
+         * Gets a view of the encoded events, encoding them on first use.
+         *
+         * @param binary true for binary frames, false for text lines
+         * @return a read-only view positioned at the first byte
+         */
+        ByteBuffer encoded(boolean binary) {
+            if (binary) {
+                if (this.binary == null) {
+                    ByteBuffer frames = ByteBuffer.allocate(events.length * Protocol.FRAME_SIZE);
+                    for (int e : events) {
+                        Protocol.putFrame(frames, e >>> 24, e >>> 16 & 0xFF, e >>> 8 & 0xFF, e & 0xFF);
+                    }
+                    this.binary = frames.flip().asReadOnlyBuffer();
+                }
+                return this.binary.duplicate();
+            }
+            if (text == null) {
+                StringBuilder lines = new StringBuilder();
+                for (int e : events) {
+                    lines.append(Protocol.toText(e >>> 24, e >>> 16 & 0xFF, e >>> 8 & 0xFF, e & 0xFF)).append('\n');
+                }
+                text = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+            }
+            return text.duplicate();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package game;
+import javax.swing.SwingUtilities;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.*;
+
+/**
+ * The UiEventQueue class hands the events of the network to the Swing event dispatch
+ * thread in batches.
+ * <p>
+ * The thread reading from the server only queues each decoded event and goes back to
+ * reading, so it never touches a Swing component and never waits for the user. Only the
+ * first event of a burst posts an {@code invokeLater}; the events that follow before it
+ * runs join the same batch, which the event dispatch thread then applies in order. A burst
+ * of moves therefore costs one pass through the Swing event queue rather than one per
+ * move, and the cells it changes are repainted together.
+ */
+public class UiEventQueue implements Executor {
+    private static final Logger logger = Logger.getLogger(UiEventQueue.class.getName());
+
+    /**
+     * The most events applied per batch, so a flood cannot hold up input and painting.
+     */
+    private static final int MAX_BATCH = 256;
+
+    private final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether a batch has been posted to the event dispatch thread and has not started yet.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Queues an event, and posts a batch unless one is waiting to run already.
+     *
+     * @param event the update of the window, which runs on the event dispatch thread
+     */
+    @Override
+    public void execute(Runnable event) {
+        events.add(event);
+        if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    /**
+     * Applies the queued events on the event dispatch thread, and posts another batch if
+     * more are left than one batch may take.
+     */
+    private void drain() {
+        // Events queued from now on post a new batch rather than being missed.
+        scheduled.set(false);
+        Runnable event;
+        int applied = 0;
+        while (applied < MAX_BATCH && (event = events.poll()) != null) {
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Error updating the window", e);
+            }
+            applied++;
+        }
+        if (!events.isEmpty() && scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+}
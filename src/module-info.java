@@ -7,4 +7,6 @@
 
 module Tic_tac_toe {
 	requires java.desktop;
-}
\ No newline at end of file
+	requires java.logging;
+	requires java.management;
+}
@@ -0,0 +1,223 @@
+package game;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Checks the rules of {@link BitBoard}, on the classic board and on every other size and
+ * line length it supports.
+ */
+class BitBoardTest {
+    /**
+     * The directions of a line: across, down, and both diagonals.
+     */
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    /**
+     * Lists every valid board, from 3x3 to 19x19, with every line length.
+     *
+     * @return the sizes and line lengths
+     */
+    static Stream<Arguments> boards() {
+        List<Arguments> boards = new ArrayList<>();
+        for (int size = BitBoard.SIZE; size <= BitBoard.MAX_SIZE; size++) {
+            for (int length = BitBoard.SIZE; length <= size; length++) {
+                boards.add(Arguments.of(size, length));
+            }
+        }
+        return boards.stream();
+    }
+
+    /**
+     * A line of exactly {@code length} marks wins in every direction, and no move before
+     * the last one of the line ends the game.
+     */
+    @ParameterizedTest(name = "{0}x{0}, {1} in a row")
+    @MethodSource("boards")
+    void lineOfLengthWins(int size, int length) {
+        for (int[] direction : DIRECTIONS) {
+            BitBoard board = new BitBoard(size, length);
+            List<Integer> line = line(board, length, direction);
+            for (int i = 0; i < length; i++) {
+                int result = board.move(1, line.get(i));
+                if (i == length - 1) {
+                    assertEquals(BitBoard.WIN, result, "line " + line + " on " + size + "x" + size);
+                } else {
+                    assertEquals(BitBoard.PLAYING, result, "move " + i + " of line " + line);
+                    assertEquals(BitBoard.PLAYING, board.move(2, filler(board, line)));
+                }
+            }
+        }
+    }
+
+    /**
+     * A line with a gap does not win, though it holds as many marks as a winning line.
+     */
+    @ParameterizedTest(name = "{0}x{0}, {1} in a row")
+    @MethodSource("boards")
+    void lineWithGapDoesNotWin(int size, int length) {
+        if (length == size) {
+            return;
+        }
+        BitBoard board = new BitBoard(size, length);
+        int row = size / 2;
+        for (int col = 0; col <= length; col++) {
+            if (col == length - 1) {
+                continue;
+            }
+            assertEquals(BitBoard.PLAYING, board.move(1, board.indexOf(row, col)), "col " + col);
+            assertEquals(BitBoard.PLAYING, board.move(2, board.indexOf((row + 1) % size, col)));
+        }
+    }
+
+    /**
+     * Each of the eight lines of the classic board wins, and no move before the last one of
+     * the line ends the game.
+     */
+    @Test
+    void everyClassicLineWins() {
+        for (int line : BitBoard.WIN_MASKS) {
+            BitBoard board = new BitBoard();
+            int marked = 0;
+            for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+                if ((line & 1 << cell) == 0) {
+                    continue;
+                }
+                int result = board.move(1, cell);
+                if (++marked == BitBoard.SIZE) {
+                    assertEquals(BitBoard.WIN, result, "line " + Integer.toBinaryString(line));
+                } else {
+                    assertEquals(BitBoard.PLAYING, result);
+                    assertEquals(BitBoard.PLAYING, board.move(2, filler(board, line)));
+                }
+            }
+        }
+    }
+
+    /**
+     * A full board without a line is a draw.
+     */
+    @Test
+    void fullBoardWithoutLineIsDraw() {
+        BitBoard board = new BitBoard();
+        int[] cells = {0, 1, 2, 4, 3, 5, 7, 6};
+        for (int i = 0; i < cells.length; i++) {
+            assertEquals(BitBoard.PLAYING, board.move(1 + i % 2, cells[i]));
+        }
+        assertEquals(BitBoard.DRAW, board.move(1, 8));
+        assertTrue(board.isFull());
+    }
+
+    /**
+     * A move out of turn waits, and a move on a marked cell or off the board is illegal.
+     */
+    @Test
+    void outOfTurnAndTakenCellsAreRefused() {
+        BitBoard board = new BitBoard();
+        assertEquals(BitBoard.WAIT, board.move(2, 0));
+        assertEquals(BitBoard.PLAYING, board.move(1, 0));
+        assertEquals(BitBoard.ILLEGAL, board.move(2, 0));
+        assertEquals(BitBoard.ILLEGAL, board.move(2, BitBoard.CELLS));
+        assertEquals(BitBoard.ILLEGAL, board.move(2, -1));
+        assertEquals(-1, BitBoard.cell(3, 0));
+        assertEquals(1, board.get(0, 0));
+        assertEquals(2, board.getTurn());
+    }
+
+    /**
+     * A large board refuses the same moves, and has no cell outside its size.
+     */
+    @Test
+    void movesOffLargeBoardAreRefused() {
+        BitBoard board = new BitBoard(15, 5);
+        assertEquals(BitBoard.WAIT, board.move(2, 0));
+        assertEquals(BitBoard.PLAYING, board.move(1, 0));
+        assertEquals(BitBoard.ILLEGAL, board.move(2, 0));
+        assertEquals(BitBoard.ILLEGAL, board.move(2, 15 * 15));
+        assertEquals(BitBoard.ILLEGAL, board.move(2, -1));
+        assertEquals(-1, board.indexOf(15, 0));
+        assertEquals(1, board.get(0, 0));
+    }
+
+    /**
+     * A reset board is empty, with player 1 to move.
+     */
+    @Test
+    void resetClearsTheBoard() {
+        BitBoard board = new BitBoard();
+        board.move(1, 4);
+        board.move(2, 0);
+        board.reset();
+        assertEquals(0, board.getMask(1) | board.getMask(2));
+        assertEquals(1, board.getTurn());
+    }
+
+    /**
+     * Only boards from 3x3 to 19x19, with lines from 3 to the size, are valid.
+     */
+    @Test
+    void validBoards() {
+        assertTrue(BitBoard.isValid(3, 3));
+        assertTrue(BitBoard.isValid(19, 19));
+        assertTrue(BitBoard.isValid(15, 5));
+        assertFalse(BitBoard.isValid(2, 2));
+        assertFalse(BitBoard.isValid(20, 5));
+        assertFalse(BitBoard.isValid(5, 6));
+        assertFalse(BitBoard.isValid(5, 2));
+    }
+
+    /**
+     * Gets the cells of a line which fits the board, ending at its far edge.
+     *
+     * @param board the board
+     * @param length the number of cells
+     * @param direction the row and column steps
+     * @return the cell indexes, in order
+     */
+    private static List<Integer> line(BitBoard board, int length, int[] direction) {
+        int size = board.getSize();
+        int row = direction[0] == 0 ? size / 2 : size - length;
+        int col = direction[1] == 0 ? size / 2 : direction[1] > 0 ? size - length : length - 1;
+        List<Integer> cells = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            cells.add(board.indexOf(row + i * direction[0], col + i * direction[1]));
+        }
+        return cells;
+    }
+
+    /**
+     * Gets a free cell off a line, for the other player. The other player never has as
+     * many marks as the line, so it cannot win.
+     *
+     * @param board the board
+     * @param line the cells to keep free
+     * @return a free cell
+     */
+    private static int filler(BitBoard board, List<Integer> line) {
+        int size = board.getSize();
+        for (int cell = 0; ; cell++) {
+            if (board.get(cell / size, cell % size) == 0 && !line.contains(cell)) {
+                return cell;
+            }
+        }
+    }
+
+    /**
+     * Gets a free cell off a classic line, for the other player. The other player never has
+     * as many marks as the line, so it cannot win.
+     *
+     * @param board the board
+     * @param line the mask of the cells to keep free
+     * @return a free cell
+     */
+    private static int filler(BitBoard board, int line) {
+        int taken = board.getMask(1) | board.getMask(2) | line;
+        return Integer.numberOfTrailingZeros(~taken);
+    }
+}
@@ -0,0 +1,79 @@
+package game;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a change of the nodes of a {@link ConsistentHashRing} moves only the keys
+ * it has to.
+ */
+class ConsistentHashRingTest {
+    private static final int KEYS = 100_000;
+
+    /**
+     * A new node takes about a quarter of the keys from three, and every key which moves
+     * goes to it.
+     */
+    @Test
+    void addedNodeTakesItsShareOnly() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(List.of("a:1", "b:1", "c:1"));
+        Map<Long, String> before = owners(ring);
+        assertTrue(ring.add("d:1"));
+        assertFalse(ring.add("d:1"));
+        int moved = 0;
+        for (long key = 0; key < KEYS; key++) {
+            String owner = ring.nodeFor(key);
+            if (!owner.equals(before.get(key))) {
+                assertEquals("d:1", owner, "key " + key);
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS * 15 / 100 && moved < KEYS * 35 / 100, moved + " keys moved");
+    }
+
+    /**
+     * A removed node gives up its keys, and no other key moves.
+     */
+    @Test
+    void removedNodeGivesUpItsKeysOnly() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(List.of("a:1", "b:1", "c:1", "d:1"));
+        Map<Long, String> before = owners(ring);
+        assertTrue(ring.remove("b:1"));
+        assertFalse(ring.contains("b:1"));
+        for (long key = 0; key < KEYS; key++) {
+            String owner = ring.nodeFor(key);
+            if (before.get(key).equals("b:1")) {
+                assertNotEquals("b:1", owner);
+            } else {
+                assertEquals(before.get(key), owner, "key " + key);
+            }
+        }
+    }
+
+    /**
+     * An empty ring has no node for any key.
+     */
+    @Test
+    void emptyRingHasNoNode() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        assertNull(ring.nodeFor(42));
+        assertEquals(0, ring.size());
+    }
+
+    /**
+     * Gets the owner of every key.
+     *
+     * @param ring the ring
+     * @return the owners, by key
+     */
+    private static Map<Long, String> owners(ConsistentHashRing<String> ring) {
+        Map<Long, String> owners = new HashMap<>();
+        for (long key = 0; key < KEYS; key++) {
+            owners.put(key, ring.nodeFor(key));
+        }
+        return owners;
+    }
+}
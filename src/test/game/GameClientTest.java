@@ -0,0 +1,81 @@
+package game;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks what a {@link GameClient} sends to a server, read from a plain socket.
+ */
+class GameClientTest {
+    private ServerSocket server;
+    private GameClientLoop loop;
+
+    /**
+     * Opens a socket for the client to connect to, and a loop for its I/O.
+     */
+    @BeforeEach
+    void open() throws IOException {
+        server = new ServerSocket(0);
+        server.setSoTimeout(5000);
+        loop = new GameClientLoop("test-client");
+    }
+
+    /**
+     * Closes the socket and the loop.
+     */
+    @AfterEach
+    void close() throws IOException {
+        loop.close();
+        server.close();
+    }
+
+    /**
+     * The largest id which fits in a frame is watched in a frame, right after the request
+     * for the binary protocol.
+     */
+    @Test
+    void watchesLastFrameIdInFrame() throws IOException {
+        new GameClient("localhost", server.getLocalPort(), new GameClientListener() { }, loop, true)
+            .watch(Protocol.MAX_FRAME_MATCH);
+        byte[] frame = new byte[Protocol.FRAME_SIZE];
+        Protocol.putFrame(frame, Protocol.WATCH, 0, 0xFF, 0xFF);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write((Protocol.BINARY_HANDSHAKE + "\n").getBytes(StandardCharsets.US_ASCII));
+        expected.write(frame);
+        assertArrayEquals(expected.toByteArray(), receive(expected.size()));
+    }
+
+    /**
+     * An id past the range of a frame is watched in text, whole, instead of wrapping to
+     * another match.
+     */
+    @Test
+    void watchesLargerIdInText() throws IOException {
+        int match = Protocol.MAX_FRAME_MATCH + 1;
+        new GameClient("localhost", server.getLocalPort(), new GameClientListener() { }, loop, true).watch(match);
+        byte[] expected = ("WATCH " + match + "\n").getBytes(StandardCharsets.US_ASCII);
+        assertArrayEquals(expected, receive(expected.length));
+    }
+
+    /**
+     * Accepts the client and reads what it sends.
+     *
+     * @param length the number of bytes to read
+     * @return the bytes, fewer if the client closes the connection first
+     */
+    private byte[] receive(int length) throws IOException {
+        try (Socket socket = server.accept()) {
+            socket.setSoTimeout(5000);
+            InputStream in = socket.getInputStream();
+            return in.readNBytes(length);
+        }
+    }
+}
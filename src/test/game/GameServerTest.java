@@ -0,0 +1,258 @@
+package game;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that a {@link GameServer} rebuilds the matches in progress from its journal,
+ * and that a player resuming its seat gets exactly what it has missed.
+ */
+class GameServerTest {
+    @TempDir
+    Path directory;
+
+    private Path path;
+    private GameServer server;
+    private SessionTokens tokens;
+
+    /**
+     * Journals a classic match with two marks and a match which has ended.
+     */
+    @BeforeEach
+    void journal() throws IOException {
+        path = directory.resolve("journal.log");
+        try (MatchJournal journal = new MatchJournal(path, MatchJournal.Sync.NONE)) {
+            journal.append(Protocol.BOARD, 5, 0, 3, 3);
+            journal.append(Protocol.MOVE, 5, 1, 0, 0);
+            journal.append(Protocol.BOARD, 6, 0, 3, 3);
+            journal.append(Protocol.MOVE, 5, 2, 1, 1);
+            journal.append(Protocol.MOVE, 6, 1, 2, 2);
+            journal.append(Protocol.QUIT, 6, 1, 0, 0);
+        }
+        server = new GameServer();
+    }
+
+    /**
+     * Closes the journal of the server.
+     */
+    @AfterEach
+    void close() throws IOException {
+        if (server.getJournal() != null) {
+            server.getJournal().close();
+        }
+    }
+
+    /**
+     * Only the match in progress is rebuilt, and the journal is compacted to it.
+     */
+    @Test
+    void rebuildsMatchesInProgress() throws IOException {
+        assertEquals(1, server.recover(path, MatchJournal.Sync.NONE));
+        assertEquals(1, server.getMatchCount());
+        server.getJournal().close();
+        List<String> records = new ArrayList<>();
+        MatchJournal.replay(path, (opcode, match, player, a, b) ->
+            records.add(opcode + " " + match + " " + player + " " + a + " " + b));
+        assertEquals(List.of(
+            Protocol.BOARD + " 5 0 3 3",
+            Protocol.MOVE + " 5 1 0 0",
+            Protocol.MOVE + " 5 2 1 1"), records);
+    }
+
+    /**
+     * A server without a journal file starts with no matches, and creates the file.
+     */
+    @Test
+    void startsEmptyWithoutJournal() throws IOException {
+        Path missing = directory.resolve("missing.log");
+        assertEquals(0, server.recover(missing, MatchJournal.Sync.NONE));
+        assertEquals(0, server.getMatchCount());
+        assertTrue(Files.exists(missing));
+    }
+
+    /**
+     * A client whose board is up to date but for the last mark gets only that mark.
+     */
+    @Test
+    void resumeSendsMissingMoves() throws IOException {
+        recover();
+        Client client = new Client();
+        server.dispatch(client, "RESUME " + tokens.issue(5, 2, -1) + " 0 1");
+        assertEquals(List.of("MOVE 2 1 1", "ID 2"), client.await(2));
+    }
+
+    /**
+     * A client which has not seen the games of the match gets the board from scratch.
+     */
+    @Test
+    void resumeSendsBoardWhenOutOfDate() throws IOException {
+        recover();
+        Client client = new Client();
+        server.dispatch(client, "RESUME " + tokens.issue(5, 1, -1) + " 3 0");
+        assertEquals(List.of("BOARD 3 3", "MOVE 1 0 0", "MOVE 2 1 1", "ID 1"), client.await(4));
+    }
+
+    /**
+     * A client which claims more marks than the board has gets the board from scratch.
+     */
+    @Test
+    void resumeSendsBoardWhenAhead() throws IOException {
+        recover();
+        Client client = new Client();
+        server.dispatch(client, "RESUME " + tokens.issue(5, 1, -1) + " 0 5");
+        assertEquals(List.of("BOARD 3 3", "MOVE 1 0 0", "MOVE 2 1 1", "ID 1"), client.await(4));
+    }
+
+    /**
+     * A token for a match which has ended is refused.
+     */
+    @Test
+    void endedMatchGetsQuit() throws IOException {
+        recover();
+        Client client = new Client();
+        server.dispatch(client, "RESUME " + tokens.issue(6, 1, -1) + " 0 0");
+        assertEquals(List.of("QUIT"), client.await(1));
+    }
+
+    /**
+     * A token for a match which has closed but is not removed from the server yet is
+     * refused, and leaves the connection unseated, so it may still be queued.
+     */
+    @Test
+    void closedMatchDoesNotSeat() throws IOException {
+        recover();
+        Client first = new Client();
+        server.dispatch(first, "RESUME " + tokens.issue(5, 1, -1) + " 0 2");
+        assertEquals(List.of("ID 1"), first.await(1));
+        Match match = first.getMatch();
+        match.execute(() -> match.leave(1));
+
+        Client second = new Client();
+        server.dispatch(second, "RESUME " + tokens.issue(5, 2, -1) + " 0 2");
+        assertEquals(List.of("QUIT"), second.await(1));
+        assertNull(second.getMatch());
+        assertFalse(second.isQueued());
+        server.dispatch(second, "BOARD 3 3");
+        assertTrue(second.isQueued());
+    }
+
+    /**
+     * A token signed with another secret is refused.
+     */
+    @Test
+    void forgedTokenGetsQuit() throws IOException {
+        recover();
+        Client client = new Client();
+        server.dispatch(client, "RESUME " + new SessionTokens().issue(5, 1, -1) + " 0 2");
+        assertEquals(List.of("QUIT"), client.await(1));
+    }
+
+    /**
+     * A command which only starts with the name of a known one is unknown, and queues the
+     * client like any other unknown command.
+     */
+    @Test
+    void commandsAreMatchedByWholeWord() throws IOException {
+        recover();
+        Client client = new Client();
+        server.dispatch(client, "WATCH5");
+        server.dispatch(client, "BOTS");
+        server.dispatch(client, "MOVEX 1 1");
+        assertNull(client.getWatched());
+        assertNull(client.getMatch());
+        assertTrue(client.isQueued());
+        assertEquals(List.of(), client.await(0));
+    }
+
+    /**
+     * A valid name is rated and listed by {@code TOP} as it was sent.
+     */
+    @Test
+    void namedPlayerIsRatedAndListed() {
+        Client client = new Client();
+        server.dispatch(client, "NAME Ann Lee");
+        assertEquals(List.of("RATING 1200 1"), client.await(1));
+        server.dispatch(client, "TOP");
+        assertEquals(List.of("RATING 1200 1", "TOP 1", "PLAYER 1 1200 Ann Lee"), client.await(3));
+    }
+
+    /**
+     * A name which is not ASCII, or too long, is refused with {@code NAME} and is not
+     * stored, so the client plays unrated.
+     */
+    @Test
+    void invalidNamesAreRefused() {
+        Client client = new Client();
+        server.dispatch(client, "NAME Zo\u00eb");
+        server.dispatch(client, "NAME " + "x".repeat(Protocol.MAX_NAME_LENGTH + 1));
+        assertEquals(List.of("NAME", "NAME"), client.await(2));
+        assertEquals(-1, client.getProfile());
+        assertEquals(0, server.getStats().size());
+    }
+
+    /**
+     * Recovers the server from the journal, and reads the secret it signs its tokens with.
+     */
+    private void recover() throws IOException {
+        assertEquals(1, server.recover(path, MatchJournal.Sync.NONE));
+        tokens = SessionTokens.open(directory.resolve("journal.log.key"));
+    }
+
+    /**
+     * The Client class is a connection which keeps the lines the server sends it.
+     */
+    private static final class Client extends Connection {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final WritableByteChannel channel = Channels.newChannel(received);
+
+        @Override
+        protected void scheduleFlush() {
+            try {
+                flushTo(channel);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Waits for the server to send lines, which a match may send from another thread.
+         *
+         * @param count the number of lines to wait for
+         * @return the lines received, once there are {@code count} or after a few seconds
+         */
+        List<String> await(int count) {
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            List<String> lines;
+            do {
+                synchronized (this) {
+                    String text = received.toString(StandardCharsets.US_ASCII);
+                    lines = text.isEmpty() ? List.of() : Arrays.asList(text.split("\n"));
+                }
+                if (lines.size() >= count) {
+                    break;
+                }
+                Thread.onSpinWait();
+            } while (System.nanoTime() < deadline);
+            // A resumed player also gets its new token, which differs on every run.
+            return lines.stream().filter(line -> !line.startsWith("RESUME ")).toList();
+        }
+    }
+}
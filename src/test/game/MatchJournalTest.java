@@ -0,0 +1,91 @@
+package game;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that the {@link MatchJournal} replays what was appended, stops at a torn record,
+ * and ends the matches whose records it had to drop.
+ */
+class MatchJournalTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * The records come back in the order they were appended, with all their fields.
+     */
+    @Test
+    void replaysAppendedRecords() throws IOException {
+        Path path = directory.resolve("journal.log");
+        try (MatchJournal journal = new MatchJournal(path, MatchJournal.Sync.ALWAYS)) {
+            journal.append(Protocol.BOARD, 7, 0, 15, 5);
+            journal.append(Protocol.MOVE, 7, 1, 14, 0);
+            journal.append(Protocol.MOVE, 7, 2, 3, 9);
+            journal.append(Protocol.WIN, 7, 1, 0, 0);
+        }
+        List<String> records = new ArrayList<>();
+        long count = MatchJournal.replay(path, (opcode, match, player, a, b) ->
+            records.add(opcode + " " + match + " " + player + " " + a + " " + b));
+        assertEquals(4, count);
+        assertEquals(List.of(
+            Protocol.BOARD + " 7 0 15 5",
+            Protocol.MOVE + " 7 1 14 0",
+            Protocol.MOVE + " 7 2 3 9",
+            Protocol.WIN + " 7 1 0 0"), records);
+    }
+
+    /**
+     * A record cut short by a crash ends the replay, and the records before it are kept.
+     */
+    @Test
+    void stopsAtTornRecord() throws IOException {
+        Path path = directory.resolve("journal.log");
+        try (MatchJournal journal = new MatchJournal(path, MatchJournal.Sync.NONE)) {
+            journal.append(Protocol.BOARD, 1, 0, 3, 3);
+            journal.append(Protocol.MOVE, 1, 1, 1, 1);
+            journal.append(Protocol.MOVE, 1, 2, 0, 0);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(3 * MatchJournal.RECORD_SIZE - 5);
+        }
+        assertEquals(2, MatchJournal.replay(path, (opcode, match, player, a, b) -> { }));
+    }
+
+    /**
+     * An append never waits for a full ring. What it drops is counted, and every match
+     * which lost a record is ended with a {@code QUIT} in the file.
+     */
+    @Test
+    void endsMatchesWhoseRecordsWereDropped() throws IOException {
+        Path path = directory.resolve("journal.log");
+        int appended = 100_000;
+        MatchJournal journal = new MatchJournal(path, MatchJournal.Sync.ALWAYS, 1, 16);
+        for (int i = 0; i < appended; i++) {
+            journal.append(Protocol.MOVE, 1 + i % 50, 1 + i % 2, i % 3, 0);
+        }
+        journal.close();
+        Set<Integer> ended = new HashSet<>();
+        long[] counts = {0, 0};
+        long records = MatchJournal.replay(path, (opcode, match, player, a, b) -> {
+            if (opcode == Protocol.QUIT) {
+                ended.add(match);
+                counts[1]++;
+            } else {
+                counts[0]++;
+            }
+        });
+        assertEquals(appended, counts[0] + journal.getDropped());
+        assertEquals(journal.getWritten(), records);
+        assertEquals(records, counts[0] + counts[1]);
+        assertEquals(journal.getDropped() == 0, ended.isEmpty());
+    }
+}
@@ -0,0 +1,35 @@
+package game;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the board of the Swing client takes the moves of the next game while it
+ * still shows the end of the last one.
+ */
+class MiddlePanelTest {
+    /**
+     * After a win the rules are those of a new game, so player 1 may move, while the
+     * panel keeps drawing the final position until the next game is shown.
+     */
+    @Test
+    void finishedGameStaysOnShowWhileTheNextOneStarts() {
+        MiddlePanel panel = new MiddlePanel();
+        int[] cells = {0, 3, 1, 4, 2};
+        for (int i = 0; i < cells.length; i++) {
+            panel.updateBoard(cells[i] / 3, cells[i] % 3, 1 + i % 2);
+        }
+
+        panel.finishGame();
+        BitBoard shown = panel.getBoardPanel().getBoard();
+        assertNotSame(panel.getBoard(), shown);
+        assertEquals(1, shown.get(0, 2));
+        assertEquals(0, panel.getBoard().get(0, 2));
+        assertTrue(panel.getBoard().isLegal(1, 4));
+
+        panel.showNextGame();
+        panel.updateBoard(1, 1, 1);
+        assertSame(panel.getBoard(), panel.getBoardPanel().getBoard());
+        assertEquals(1, panel.getBoardPanel().getBoard().get(1, 1));
+    }
+}
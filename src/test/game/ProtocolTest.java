@@ -0,0 +1,99 @@
+package game;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the text lines and binary frames of the {@link Protocol}.
+ */
+class ProtocolTest {
+    /**
+     * Every message is read back as its own opcode from its text line.
+     */
+    @Test
+    void textLinesKeepTheirOpcode() {
+        for (int opcode = Protocol.ID; opcode <= Protocol.PING; opcode++) {
+            String line = Protocol.toText(opcode, 1, 2, 7);
+            assertEquals(opcode, Protocol.opcodeOf(line), line);
+        }
+        assertEquals("MOVE 2 1 0", Protocol.toText(Protocol.MOVE, 2, 1, 0));
+        assertEquals("WIN 1", Protocol.toText(Protocol.WIN, 1, 0, 0));
+        assertEquals("BOARD 15 5", Protocol.toText(Protocol.BOARD, 0, 15, 5));
+        assertEquals("WATCH 513", Protocol.toText(Protocol.WATCH, 0, 2, 1));
+        assertEquals(0, Protocol.opcodeOf("HELLO"));
+        assertEquals(Protocol.MOVE, Protocol.opcodeOf("MOVE"));
+        assertEquals(0, Protocol.opcodeOf("MOVEX 1 2"));
+        assertEquals(0, Protocol.opcodeOf("BOARDS 3 3"));
+        assertEquals(0, Protocol.opcodeOf("WATCH5"));
+    }
+
+    /**
+     * Only short names of printable ASCII are valid, since lines are read as ASCII and
+     * anything else would reach the server changed.
+     */
+    @Test
+    void namesArePrintableAscii() throws IOException {
+        assertTrue(Protocol.isName("alice"));
+        assertTrue(Protocol.isName("Ann Lee-2"));
+        assertTrue(Protocol.isName("x".repeat(Protocol.MAX_NAME_LENGTH)));
+        assertFalse(Protocol.isName("x".repeat(Protocol.MAX_NAME_LENGTH + 1)));
+        assertFalse(Protocol.isName(""));
+        assertFalse(Protocol.isName(" alice"));
+        assertFalse(Protocol.isName("tab\there"));
+        assertFalse(Protocol.isName("Zo\u00eb"));
+        String line = Protocol.readLine(new ByteArrayInputStream("NAME Zo\u00eb\n".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(Protocol.isName(line.substring(5)));
+    }
+
+    /**
+     * A frame keeps its opcode, player and arguments, including argument bytes above 127.
+     */
+    @Test
+    void framesKeepTheirFields() {
+        ByteBuffer buffer = ByteBuffer.allocate(Protocol.FRAME_SIZE);
+        for (int opcode = Protocol.ID; opcode <= Protocol.PING; opcode++) {
+            for (int player = 0; player <= 2; player++) {
+                for (int arg : new int[] {0, 1, 18, 127, 128, 255}) {
+                    buffer.clear();
+                    Protocol.putFrame(buffer, opcode, player, arg, 255 - arg);
+                    byte[] frame = buffer.array();
+                    assertEquals(opcode, Protocol.opcode(frame[0]));
+                    assertEquals(player, Protocol.player(frame[0]));
+                    assertEquals(arg, Protocol.arg(frame[1]));
+                    assertEquals(255 - arg, Protocol.arg(frame[2]));
+                }
+            }
+        }
+    }
+
+    /**
+     * A line is read without reading ahead of it, so the frames which follow it on the
+     * same stream are read whole.
+     */
+    @Test
+    void lineThenFrames() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write((Protocol.BINARY_HANDSHAKE + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        byte[] frame = new byte[Protocol.FRAME_SIZE];
+        Protocol.putFrame(frame, Protocol.MOVE, 1, 2, 0);
+        out.write(frame);
+        Protocol.putFrame(frame, Protocol.WIN, 1, 0, 0);
+        out.write(frame);
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+
+        assertEquals(Protocol.BINARY_HANDSHAKE, Protocol.readLine(in));
+        byte[] read = new byte[Protocol.FRAME_SIZE];
+        assertTrue(Protocol.readFrame(in, read));
+        assertEquals(Protocol.MOVE, Protocol.opcode(read[0]));
+        assertEquals(2, Protocol.arg(read[1]));
+        assertTrue(Protocol.readFrame(in, read));
+        assertEquals(Protocol.WIN, Protocol.opcode(read[0]));
+        assertFalse(Protocol.readFrame(in, read));
+        assertNull(Protocol.readLine(in));
+    }
+}